@@ -0,0 +1,100 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sifarish.feature.DistanceStrategy;
+import org.sifarish.feature.EuclideanDistance;
+import org.sifarish.feature.ManhattanDistance;
+import org.sifarish.feature.MinkwoskiDistance;
+
+/**
+ * Entity distance aggregation over the per field distances of a record pair, i.e. initialize, accumulate 
+ * for each field and get similarity 
+ * @author pranab
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceStrategyBenchmark {
+	@Param({"euclidean", "manhattan", "minkwoski"})
+	private String algorithm;
+	
+	@Param({"7"})
+	private int fieldCount;
+	
+	private DistanceStrategy distStrategy;
+	private double[][] distances;
+	private double[] weights;
+	private int next;
+	private static final int PAIR_COUNT = 1024;
+	
+	@Setup
+	public void setup() {
+		if (algorithm.equals("euclidean")) {
+			distStrategy = new EuclideanDistance(1000);
+		} else if (algorithm.equals("manhattan")) {
+			distStrategy = new ManhattanDistance(1000);
+		} else {
+			distStrategy = new MinkwoskiDistance(1000);
+			distStrategy.setPower(3.0);
+		}
+		
+		//mix of exact matches, categorical mismatches and normalized numeric differences
+		Random random = new Random(1);
+		distances = new double[PAIR_COUNT][fieldCount];
+		weights = new double[fieldCount];
+		for (int f = 0; f < fieldCount; ++f) {
+			weights[f] = f % 3 == 0 ? 0.9 : 1.0;
+		}
+		for (int p = 0; p < PAIR_COUNT; ++p) {
+			for (int f = 0; f < fieldCount; ++f) {
+				double u = random.nextDouble();
+				distances[p][f] = u < 0.3 ? 0.0 : (u < 0.5 ? 1.0 : random.nextDouble());
+			}
+		}
+	}
+	
+	@Benchmark
+	public int entityDistance() {
+		double[] pairDistances = distances[next];
+		next = (next + 1) & (PAIR_COUNT - 1);
+		distStrategy.initialize();
+		for (int f = 0; f < pairDistances.length; ++f) {
+			distStrategy.accumulate(pairDistances[f], weights[f]);
+		}
+		return distStrategy.getSimilarity();
+	}
+}
@@ -0,0 +1,180 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.benchmark;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sifarish.feature.EuclideanDistance;
+import org.sifarish.util.CategoricalDistance;
+import org.sifarish.util.Field;
+import org.sifarish.util.Location;
+import org.sifarish.util.TimeWindow;
+
+/**
+ * Per field distance for categorical, int, double and structured fields. Fields and values come from the 
+ * product schema in prod.json
+ * @author pranab
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class FieldDistanceBenchmark {
+	private Field categoricalField;
+	private Field overriddenCategoricalField;
+	private Field intField;
+	private Field doubleField;
+	private Field timeWindowField;
+	private Field locationField;
+	private String[] categoricalValues;
+	private int[] intValues;
+	private double[] doubleValues;
+	private TimeWindow[] timeWindows;
+	private Location[] locations;
+	private double diffThreshold;
+	private int next;
+	private static final int VALUE_COUNT = 1024;
+	
+	@Setup
+	public void setup() throws IOException, ParseException {
+		RecordGenerator generator = new RecordGenerator("prod.json", 1);
+		Random random = generator.getRandom();
+		diffThreshold = generator.getSchema().getNumericDiffThreshold();
+		String[][] records = generator.createRecords(VALUE_COUNT);
+		
+		//categorical brand, plain and with overridden distances
+		categoricalField = generator.getField("brand");
+		int brandOrdinal = categoricalField.getOrdinal();
+		categoricalValues = new String[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			categoricalValues[i] = records[i][brandOrdinal];
+		}
+		overriddenCategoricalField = new Field();
+		overriddenCategoricalField.setDataType("categorical");
+		List<CategoricalDistance> catDistances = new ArrayList<CategoricalDistance>();
+		for (int i = 0; i < 8; ++i) {
+			CategoricalDistance catDist = new CategoricalDistance();
+			catDist.setThisValue("cat" + i);
+			catDist.setThatValue("cat" + (i + 1));
+			catDist.setDistance(0.3);
+			catDistances.add(catDist);
+		}
+		overriddenCategoricalField.setCategoricalDistances(catDistances);
+		
+		//double price, with threshold since there is no range in the schema
+		doubleField = generator.getField("price");
+		int priceOrdinal = doubleField.getOrdinal();
+		doubleValues = new double[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			doubleValues[i] = Double.parseDouble(records[i][priceOrdinal]);
+		}
+		
+		//int with range
+		intField = new Field();
+		intField.setDataType("int");
+		intField.setMin(0);
+		intField.setMax(1000);
+		intValues = new int[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			intValues[i] = random.nextInt(1001);
+		}
+		
+		//structured
+		timeWindowField = new Field();
+		timeWindowField.setDataType("timeWindow");
+		timeWindows = new TimeWindow[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			int day = 1 + random.nextInt(27);
+			int hour = random.nextInt(20);
+			timeWindows[i] = new TimeWindow(String.format("2013-03-%02d %02d:00:00", day, hour), 
+					String.format("2013-03-%02d %02d:30:00", day, hour + 1 + random.nextInt(3)));
+		}
+		locationField = new Field();
+		locationField.setDataType("location");
+		locationField.setDistStrategy(new EuclideanDistance(1));
+		locationField.setComponentWeights(new double[]{0.5, 1.0, 1.0});
+		locations = new Location[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			locations[i] = new Location(generator.createText(2), "city" + random.nextInt(30), 
+					"state" + random.nextInt(5));
+		}
+	}
+	
+	/**
+	 * @return index of the second value of the next pair 
+	 */
+	private int nextPair() {
+		next = (next + 1) & (VALUE_COUNT - 1);
+		return next;
+	}
+	
+	@Benchmark
+	public double categorical() {
+		int i = nextPair();
+		return categoricalField.findDistance(categoricalValues[i], categoricalValues[(i + 1) & (VALUE_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public double categoricalOverridden() {
+		int i = nextPair();
+		return overriddenCategoricalField.findDistance(categoricalValues[i], 
+				categoricalValues[(i + 1) & (VALUE_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public double intValue() {
+		int i = nextPair();
+		return intField.findDistance(intValues[i], intValues[(i + 1) & (VALUE_COUNT - 1)], diffThreshold);
+	}
+
+	@Benchmark
+	public double doubleValue() {
+		int i = nextPair();
+		return doubleField.findDistance(doubleValues[i], doubleValues[(i + 1) & (VALUE_COUNT - 1)], diffThreshold);
+	}
+
+	@Benchmark
+	public double timeWindow() {
+		int i = nextPair();
+		return timeWindowField.findDistance(timeWindows[i], timeWindows[(i + 1) & (VALUE_COUNT - 1)]);
+	}
+
+	@Benchmark
+	public double location() {
+		int i = nextPair();
+		return locationField.findDistance(locations[i], locations[(i + 1) & (VALUE_COUNT - 1)]);
+	}
+}
@@ -0,0 +1,173 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.sifarish.feature.SingleTypeSchema;
+import org.sifarish.util.Field;
+
+/**
+ * Generates records for the fields of a sample schema in the resource directory. Categorical values 
+ * are drawn from a small domain and text from a skewed vocabulary, so that matches and partial overlaps occur 
+ * at realistic rates. Resource directory is given by system property sifarish.resource.dir, relative 
+ * to the project directory by default
+ * @author pranab
+ *
+ */
+public class RecordGenerator {
+	private SingleTypeSchema schema;
+	private Random random;
+	private String[] vocabulary;
+	private static final int CATEGORY_COUNT = 12;
+	private static final int VOCABULARY_SIZE = 2000;
+	private static final int MIN_TEXT_LENGTH = 4;
+	private static final int MAX_TEXT_LENGTH = 20;
+	private static final String[] SYLLABLES = {"ka", "ro", "mi", "tan", "vel", "sor", "dri", "ple", "un", "ox", 
+		"qua", "ber", "li", "nor", "est", "gal"};
+	
+	/**
+	 * @param schemaFile schema file name in the resource directory
+	 * @param seed
+	 * @throws IOException
+	 */
+	public RecordGenerator(String schemaFile, long seed) throws IOException {
+		File resourceDir = new File(System.getProperty("sifarish.resource.dir", "resource"));
+		ObjectMapper mapper = new ObjectMapper();
+		schema = mapper.readValue(new File(resourceDir, schemaFile), SingleTypeSchema.class);
+		schema.processStructuredFields();
+		random = new Random(seed);
+		vocabulary = new String[VOCABULARY_SIZE];
+		for (int i = 0; i < VOCABULARY_SIZE; ++i) {
+			vocabulary[i] = createWord();
+		}
+	}
+	
+	/**
+	 * @return
+	 */
+	public SingleTypeSchema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @param name
+	 * @return field or null if not found
+	 */
+	public Field getField(String name) {
+		Field found = null;
+		for (Field field : schema.getEntity().getFields()) {
+			if (field.getName().equals(name)) {
+				found = field;
+				break;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * @param count
+	 * @return records with field values by ordinal
+	 */
+	public String[][] createRecords(int count) {
+		int fieldCount = 0;
+		for (Field field : schema.getEntity().getFields()) {
+			fieldCount = Math.max(fieldCount, field.getOrdinal() + 1);
+		}
+		String[][] records = new String[count][fieldCount];
+		for (int r = 0; r < count; ++r) {
+			for (Field field : schema.getEntity().getFields()) {
+				records[r][field.getOrdinal()] = createValue(field, r);
+			}
+		}
+		return records;
+	}
+	
+	/**
+	 * @param field
+	 * @param recordIndex
+	 * @return
+	 */
+	private String createValue(Field field, int recordIndex) {
+		String value = null;
+		String dataType = field.getDataType();
+		if (field.isId()) {
+			value = String.format("%s%08d", field.getName().substring(0, 1).toUpperCase(), recordIndex);
+		} else if (dataType.equals("categorical")) {
+			value = createCategoricalValue();
+		} else if (dataType.equals("int")) {
+			int min = field.getMin();
+			int max = field.getMax() > min ? field.getMax() : min + 1000;
+			value = "" + (min + random.nextInt(max - min + 1));
+		} else if (dataType.equals("double")) {
+			double min = field.getMin();
+			double max = field.getMax() > min ? field.getMax() : min + 500.0;
+			value = "" + Math.round(100 * (min + random.nextDouble() * (max - min))) / 100.0;
+		} else {
+			value = createText(MIN_TEXT_LENGTH + random.nextInt(MAX_TEXT_LENGTH - MIN_TEXT_LENGTH + 1));
+		}
+		return value;
+	}
+	
+	/**
+	 * @return
+	 */
+	public String createCategoricalValue() {
+		return "cat" + random.nextInt(CATEGORY_COUNT);
+	}
+	
+	/**
+	 * Words drawn with a skewed distribution, so that common words are shared often
+	 * @param wordCount
+	 * @return
+	 */
+	public String createText(int wordCount) {
+		StringBuilder stBld = new StringBuilder();
+		for (int i = 0; i < wordCount; ++i) {
+			double u = random.nextDouble();
+			int index = (int)(VOCABULARY_SIZE * u * u * u);
+			if (i > 0) {
+				stBld.append(' ');
+			}
+			stBld.append(vocabulary[index]);
+		}
+		return stBld.toString();
+	}
+	
+	/**
+	 * @return
+	 */
+	private String createWord() {
+		StringBuilder stBld = new StringBuilder();
+		int syllables = 1 + random.nextInt(4);
+		for (int i = 0; i < syllables; ++i) {
+			stBld.append(SYLLABLES[random.nextInt(SYLLABLES.length)]);
+		}
+		return stBld.toString();
+	}
+	
+	/**
+	 * @return
+	 */
+	public Random getRandom() {
+		return random;
+	}
+}
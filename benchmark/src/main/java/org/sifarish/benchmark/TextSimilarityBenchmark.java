@@ -0,0 +1,113 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.sifarish.feature.CosineSimilarity;
+import org.sifarish.feature.DynamicAttrSimilarityStrategy;
+import org.sifarish.feature.EditDistanceSimilarity;
+import org.sifarish.feature.JaccardSimilarity;
+import org.sifarish.feature.TypeSchema;
+
+/**
+ * Text field similarity. Cosine and jaccard are run on product descriptions from prod.json and edit distance 
+ * on customer names and addresses from customer.json, as in the sample set ups
+ * @author pranab
+ *
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TextSimilarityBenchmark {
+	@Param({"cosine", "jaccard", "editDistance"})
+	private String algorithm;
+	
+	private DynamicAttrSimilarityStrategy textSimStrategy;
+	private String[] texts;
+	private int next;
+	private static final int VALUE_COUNT = 1024;
+	
+	@Setup
+	public void setup() throws IOException {
+		RecordGenerator generator = null;
+		String fieldName = null;
+		if (algorithm.equals("editDistance")) {
+			generator = new RecordGenerator("customer.json", 1);
+			fieldName = "address";
+			textSimStrategy = new EditDistanceSimilarity(true);
+		} else {
+			generator = new RecordGenerator("prod.json", 1);
+			fieldName = "description";
+			TypeSchema schema = generator.getSchema();
+			textSimStrategy = algorithm.equals("cosine") ? new CosineSimilarity() : 
+				new JaccardSimilarity(schema.getSrcNonMatchingTermWeight(), schema.getTrgNonMatchingTermWeight());
+		}
+		
+		int ordinal = generator.getField(fieldName).getOrdinal();
+		String[][] records = generator.createRecords(VALUE_COUNT);
+		texts = new String[VALUE_COUNT];
+		for (int i = 0; i < VALUE_COUNT; ++i) {
+			texts[i] = records[i][ordinal];
+		}
+		if (algorithm.equals("editDistance")) {
+			//near duplicates, as in duplicate detection
+			for (int i = 1; i < VALUE_COUNT; i += 2) {
+				texts[i] = perturb(texts[i - 1], i);
+			}
+		}
+	}
+	
+	/**
+	 * Changes one character of each of some tokens
+	 * @param text
+	 * @param seed
+	 * @return
+	 */
+	private String perturb(String text, int seed) {
+		char[] chars = text.toCharArray();
+		for (int i = seed % 7; i < chars.length; i += 11) {
+			if (chars[i] != ' ') {
+				chars[i] = (char)('a' + (chars[i] + seed) % 26);
+			}
+		}
+		return new String(chars);
+	}
+	
+	@Benchmark
+	public double textSimilarity() throws IOException {
+		int i = next;
+		next = (next + 1) & (VALUE_COUNT - 1);
+		return textSimStrategy.findDistance(texts[i], texts[next]);
+	}
+}
@@ -40,10 +40,12 @@ import org.chombo.util.Utility;
 import org.omg.CORBA.portable.ValueOutputStream;
 import org.sifarish.common.UtilityPredictor.ItemIdGroupComprator;
 import org.sifarish.common.UtilityPredictor.ItemIdPartitioner;
+import org.sifarish.util.IdDictionary;
 
 /**
  * Injects business goal into rated items and figures out final net rating. The basic idea is to 
- * find a middle ground between consumer interest and business interest
+ * find a middle ground between consumer interest and business interest. With id.encoded, user and item 
+ * IDs are shuffled as ints
  * @author pranab
  *
  */
@@ -86,12 +88,14 @@ public class BusinessGoalInjector extends Configured implements Tool{
     	private Tuple keyOut = new Tuple();
     	private Tuple valOut = new Tuple();
     	private boolean isBizGoalFileSplit;
+    	private boolean idEncoded;
     	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
          */
         protected void setup(Context context) throws IOException, InterruptedException {
         	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        	idEncoded = context.getConfiguration().getBoolean("id.encoded", false);
         	String bizGoalFilePrefix = context.getConfiguration().get("biz.goal.file.prefix", "biz");
         	isBizGoalFileSplit = ((FileSplit)context.getInputSplit()).getPath().getName().startsWith(bizGoalFilePrefix);
         }    
@@ -107,7 +111,7 @@ public class BusinessGoalInjector extends Configured implements Tool{
            	valOut.initialize();
            	if (isBizGoalFileSplit) {
            		//item ID
-           		keyOut.add(items[0], 0);
+           		keyOut.add(IdDictionary.tupleId(items[0], idEncoded), 0);
            		
            		//business goal scores
            		for (int i = 1; i < items.length; ++i) {
@@ -115,10 +119,10 @@ public class BusinessGoalInjector extends Configured implements Tool{
            		}
            	} else {
            		//item ID
-           		keyOut.add(items[1], 1);
+           		keyOut.add(IdDictionary.tupleId(items[1], idEncoded), 1);
            		
            		//userID, score
-           		valOut.add(items[0], Integer.parseInt(items[2]));
+           		valOut.add(IdDictionary.tupleId(items[0], idEncoded), Integer.parseInt(items[2]));
            	}
            	context.write(keyOut, valOut);
         }    
@@ -169,12 +173,13 @@ public class BusinessGoalInjector extends Configured implements Tool{
         	for(Tuple value : values) {
         		toSkip = false;
         		if (first) {
-        			if (value.isInt(0)) {
+        			//key has the tag of the current value, an encoded user ID is also an int
+        			if (key.getInt(1) == 0) {
         				//business score available for this item
         				bizScore = value.createClone();
         			} else {
         				//just emit rating
-        				valOut.set(value.getString(0) + fieldDelim + key.getString(0) + fieldDelim + value.getInt(1));
+        				valOut.set(value.get(0) + fieldDelim + key.get(0) + fieldDelim + value.getInt(1));
             	   		context.write(NullWritable.get(), valOut);
         			}
         			first = false;
@@ -198,7 +203,7 @@ public class BusinessGoalInjector extends Configured implements Tool{
         				weightedScore = value.getInt(1);
         			}
         			if (!toSkip) {
-        				valOut.set(value.getString(0) + fieldDelim + key.getString(0) + fieldDelim + weightedScore);
+        				valOut.set(value.get(0) + fieldDelim + key.get(0) + fieldDelim + weightedScore);
         				context.write(NullWritable.get(), valOut);
         			}
         		}
@@ -0,0 +1,486 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.SecondarySort;
+import org.chombo.util.Tuple;
+import org.chombo.util.Utility;
+import org.sifarish.util.IdDictionary;
+
+/**
+ * Does the work of UtilityPredictor, UtilityAggregator and optionally BusinessGoalInjector in two chained MR 
+ * jobs. The first one joins ratings (files with prefix rating.file.prefix) with the item correlations in 
+ * fused.correlation.file.path by item and emits the weighted predicted ratings keyed by user and target item, 
+ * as a sequence file. The second one aggregates them in a reduce by user, with target items in sorted order, 
+ * and applies business goals. Only the rating stats and business goals, one record per item, are side loaded 
+ * from fused.rating.stat.file.path and fused.biz.goal.file.path. Output is the same as UtilityAggregator, or 
+ * BusinessGoalInjector when business goal path is set. With id.encoded, user and item IDs are shuffled as ints
+ * @author pranab
+ *
+ */
+public class FusedUtilityPredictor extends Configured implements Tool{
+    @Override
+    public int run(String[] args) throws Exception   {
+    	Configuration conf = getConf();
+    	Path predictionPath = new Path(args[1] + "_prediction");
+    	
+    	//predictions by item join
+        Job job = new Job(conf);
+        job.setJobName("Fused rating predictor MR");
+        job.setJarByClass(FusedUtilityPredictor.class);
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileInputFormat.addInputPath(job, new Path(conf.get("fused.correlation.file.path")));
+        FileOutputFormat.setOutputPath(job, predictionPath);
+        job.setMapperClass(FusedUtilityPredictor.ItemJoinMapper.class);
+        job.setReducerClass(FusedUtilityPredictor.PredictorReducer.class);
+        job.setMapOutputKeyClass(Tuple.class);
+        job.setMapOutputValueClass(Tuple.class);
+        job.setOutputKeyClass(Tuple.class);
+        job.setOutputValueClass(Tuple.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        job.setGroupingComparatorClass(SecondarySort.TuplePairGroupComprator.class);
+        job.setPartitionerClass(SecondarySort.TupleIntPartitioner.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
+        if (!job.waitForCompletion(true)) {
+        	return 1;
+        }
+        
+        //aggregation by user
+        job = new Job(conf);
+        job.setJobName("Fused rating aggregator MR");
+        job.setJarByClass(FusedUtilityPredictor.class);
+        FileInputFormat.addInputPath(job, predictionPath);
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+        job.setInputFormatClass(SequenceFileInputFormat.class);
+        job.setMapperClass(Mapper.class);
+        job.setReducerClass(FusedUtilityPredictor.AggregatorReducer.class);
+        job.setMapOutputKeyClass(Tuple.class);
+        job.setMapOutputValueClass(Tuple.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        job.setGroupingComparatorClass(SecondarySort.TuplePairGroupComprator.class);
+        job.setPartitionerClass(SecondarySort.TupleIntPartitioner.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        if (status == 0) {
+        	FileSystem.get(conf).delete(predictionPath, true);
+        }
+        return status;
+    }
+    
+    /**
+     * Ratings and correlations in both directions by item, correlations first
+     * @author pranab
+     *
+     */
+    public static class ItemJoinMapper extends Mapper<LongWritable, Text, Tuple, Tuple> {
+    	private String fieldDelim;
+    	private String subFieldDelim;
+    	private boolean isRatingFileSplit;
+    	private boolean linearCorrelation;
+    	private boolean idEncoded;
+    	private Tuple keyOut = new Tuple();
+    	private Tuple valOut = new Tuple();
+    	private static final Integer CORRELATION = 0;
+    	private static final Integer RATING = 1;
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+        	subFieldDelim = conf.get("sub.field.delim", ":");
+        	String ratingFilePrefix = conf.get("rating.file.prefix", "rating");
+        	isRatingFileSplit = ((FileSplit)context.getInputSplit()).getPath().getName().startsWith(ratingFilePrefix);
+        	linearCorrelation = conf.getBoolean("correlation.linear", true);
+        	idEncoded = conf.getBoolean("id.encoded", false);
+        }    
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String[] items = value.toString().split(fieldDelim);
+        	Object itemID = IdDictionary.tupleId(items[0], idEncoded);
+        	if (isRatingFileSplit) {
+        		//itemID, userID:rating ...
+        		keyOut.initialize();
+        		keyOut.add(itemID, RATING);
+               	for (int i = 1; i < items.length; ++i) {
+               		String[] ratings = items[i].split(subFieldDelim);
+               		valOut.initialize();
+               		valOut.add(IdDictionary.tupleId(ratings[0], idEncoded), new Integer(ratings[1]));
+       	   			context.write(keyOut, valOut);
+               	}
+        	} else {
+        		//itemID, other itemID, correlation, intersection length
+        		Object otherItemID = IdDictionary.tupleId(items[1], idEncoded);
+        		Integer corr = new Integer(linearCorrelation ? items[2] : "-" + items[2]);
+        		Integer weight = new Integer(items[3]);
+        		keyOut.initialize();
+        		keyOut.add(itemID, CORRELATION);
+        		valOut.initialize();
+        		valOut.add(otherItemID, corr, weight);
+   	   			context.write(keyOut, valOut);
+   	   			
+        		keyOut.initialize();
+        		keyOut.add(otherItemID, CORRELATION);
+        		valOut.initialize();
+        		valOut.add(itemID, corr, weight);
+   	   			context.write(keyOut, valOut);
+        	}
+        }
+    }
+    
+    /**
+     * Predicts ratings for the items correlated with the item, from each user rating of the item. Emits 
+     * value and weight of each prediction for the aggregation, keyed by user and target item
+     * @author pranab
+     *
+     */
+    public static class PredictorReducer extends Reducer<Tuple, Tuple, Tuple, Tuple> {
+    	private boolean linearCorrelation;
+    	private int correlationScale;
+    	private int maxRating;
+    	private double correlationModifier;
+    	private boolean corrLengthWeightedAverage;
+    	private boolean inputRatingStdDevWeightedAverage;
+    	private boolean ratingAggregatorAverage;
+    	private int maxStdDev;
+    	private Map<String, Integer> ratingStdDevs;
+    	private List<Tuple> ratingCorrelations = new ArrayList<Tuple>();
+    	private Tuple keyOut = new Tuple();
+    	private Tuple valOut = new Tuple();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	linearCorrelation = conf.getBoolean("correlation.linear", true);
+        	correlationScale = conf.getInt("correlation.linear.scale", 1000);
+        	maxRating = conf.getInt("max.rating", 100);
+        	correlationModifier = conf.getFloat("correlation.modifier", (float)1.0);
+        	corrLengthWeightedAverage = conf.getBoolean("corr.length.weighted.average", true);
+        	inputRatingStdDevWeightedAverage = conf.getBoolean("input.rating.stdDev.weighted.average", true);
+        	ratingAggregatorAverage = conf.getBoolean("rating.aggregator.average", true);
+        	maxStdDev = (35 * maxRating)  / 100;
+        	
+        	//rating std dev
+        	ratingStdDevs = new HashMap<String, Integer>();
+        	String statPath = conf.get("fused.rating.stat.file.path");
+        	if (null != statPath) {
+        		String fieldDelim = conf.get("field.delim", ",");
+        		FileSystem fs = FileSystem.get(conf);
+        		for (Path file : listFiles(fs, new Path(statPath))) {
+            		BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file)));
+            		try {
+            			String line = null;
+            			while ((line = reader.readLine()) != null) {
+            				String[] items = line.split(fieldDelim);
+            				ratingStdDevs.put(items[0], Integer.parseInt(items[2]));
+            			}
+            		} finally {
+            			reader.close();
+            		}
+        		}
+        	}
+        } 	
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
+        throws IOException, InterruptedException {
+        	ratingCorrelations.clear();
+        	Integer ratingStdDev = ratingStdDevs.get(key.get(0).toString());
+        	for (Tuple value : values) {
+        		if (key.getInt(1) == ItemJoinMapper.CORRELATION) {
+        			ratingCorrelations.add(value.createClone());
+        		} else if (ratingCorrelations.isEmpty()) {
+        			break;
+        		} else {
+        			//user rating
+        			int rating = value.getInt(1);
+        			for (Tuple ratingCorrTup : ratingCorrelations) {
+        				int ratingCorr = UtilityPredictor.modifyCorrelation(ratingCorrTup.getInt(1), correlationScale, 
+        						correlationModifier);
+        				int predRating = UtilityPredictor.predictRating(rating, ratingCorr, linearCorrelation, 
+        						correlationScale, maxRating);
+        				if (predRating > 0) {
+        					int weight = ratingCorrTup.getInt(2);
+        					if (!ratingAggregatorAverage) {
+        						//median of predictions
+        						weight = 0;
+        					} else if (!corrLengthWeightedAverage) {
+        						if (inputRatingStdDevWeightedAverage) {
+	        						if (null == ratingStdDev) {
+	        							throw new IllegalStateException("No rating std dev found");
+	        						}
+	        						weight = UtilityAggregator.invMapStdDev(ratingStdDev, maxStdDev);
+        						} else {
+        							weight = 1;
+        						}
+        					}
+        					
+        					//userID, target itemID
+        					keyOut.initialize();
+        					keyOut.add(value.get(0), ratingCorrTup.get(0));
+        					
+        					//weighted predicted rating, weight
+        					valOut.initialize();
+        					valOut.add(ratingAggregatorAverage ? predRating * weight : predRating, weight);
+        					context.write(keyOut, valOut);
+        					context.getCounter("Predictor", "Prediction").increment(1);
+        				}
+        			}
+        		}
+        	}
+        }
+    }
+    
+    /**
+     * Aggregates predictions of an user, with target items in sorted order, same as UtilityAggregator, and 
+     * applies business goals, same as BusinessGoalInjector
+     * @author pranab
+     *
+     */
+    public static class AggregatorReducer extends Reducer<Tuple, Tuple, NullWritable, Text> {
+    	private String fieldDelim;
+    	private Text valueOut = new Text();
+    	private boolean ratingAggregatorAverage;
+    	private int corrScale;
+    	private int sum;
+    	private int sumWt;
+    	private List<Integer> predRatings = new ArrayList<Integer>();
+    	private Map<String, int[]> bizScores;
+    	private int[] bizGoalWeights;
+    	private int[] bizGoalThreshold;
+        private int recWt;
+        private int recommendationCount;
+    	private static final int MAX_WEIGHT = 100;
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+        	ratingAggregatorAverage = conf.getBoolean("rating.aggregator.average", true);
+        	corrScale = conf.getInt("correlation.scale", 1000);
+        	
+        	//business goals
+        	String bizGoalPath = conf.get("fused.biz.goal.file.path");
+        	if (null != bizGoalPath) {
+        		bizScores = new HashMap<String, int[]>();
+        		FileSystem fs = FileSystem.get(conf);
+        		for (Path file : listFiles(fs, new Path(bizGoalPath))) {
+            		BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file)));
+            		try {
+            			String line = null;
+            			while ((line = reader.readLine()) != null) {
+            				String[] items = line.split(fieldDelim);
+            				int[] scores = new int[items.length - 1];
+            				for (int i = 1; i < items.length; ++i) {
+            					scores[i - 1] = Integer.parseInt(items[i]);
+            				}
+            				bizScores.put(items[0], scores);
+            			}
+            		} finally {
+            			reader.close();
+            		}
+        		}
+        		
+            	bizGoalWeights = Utility.intArrayFromString(conf.get("biz.goal.weights"),fieldDelim );
+            	int maxBizGoalWeight = conf.getInt("max.biz.goal.weight",  70);
+            	int sumWt = 0;
+            	for (int wt : bizGoalWeights) {
+            		sumWt += wt;
+            	}
+            	if (sumWt > maxBizGoalWeight) {
+            		throw new IllegalArgumentException("Sum of business score weights exceed limit");
+            	}
+            	recWt = MAX_WEIGHT - sumWt;
+            	bizGoalThreshold = Utility.intArrayFromString(conf.get("biz.goal.min.threshold"),fieldDelim );
+        	}
+        } 	
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
+        throws IOException, InterruptedException {
+        	Object userID = null;
+        	Object targetID = null;
+        	recommendationCount = 0;
+        	for (Tuple value : values) {
+        		//key has the target item of the current value
+        		Object currentTargetID = key.get(1);
+        		if (null == targetID) {
+        			userID = key.get(0);
+        		} else if (!currentTargetID.equals(targetID)) {
+        			emit(userID, targetID, context);
+        		}
+        		if (!currentTargetID.equals(targetID)) {
+        			targetID = currentTargetID;
+        			sum = sumWt = 0;
+        			predRatings.clear();
+        		}
+        		sum += value.getInt(0);
+        		sumWt += value.getInt(1);
+        		predRatings.add(value.getInt(0));
+        	}
+        	emit(userID, targetID, context);
+        	context.getCounter("Predictor", "User").increment(1);
+        	context.getCounter("Predictor", "Recommendation").increment(recommendationCount);
+        }
+        
+        /**
+         * Aggregated score of a target item
+         * @param userID
+         * @param targetID
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void emit(Object userID, Object targetID, Context context) throws IOException, InterruptedException {
+        	int count = predRatings.size();
+        	int utilityScore = 0;
+        	if (ratingAggregatorAverage) {
+        		utilityScore = sum / sumWt;
+        	} else {
+        		//median
+				int medianRating = 0;
+				if (count > 1) {
+					Collections.sort(predRatings);
+					if (count % 2 == 1) {
+						//odd
+						medianRating = predRatings.get(count / 2);
+					} else {
+						//even
+						medianRating =  (predRatings.get(count / 2 - 1) + predRatings.get(count / 2) )  / 2 ;
+					}
+				} else {
+					medianRating = predRatings.get(0);
+				}
+				utilityScore = medianRating * corrScale;
+        	}
+        	
+    		if (null == bizScores) {
+    			//userID, itemID, score, count
+            	valueOut.set(userID + fieldDelim + targetID + fieldDelim + utilityScore + fieldDelim + count);
+    	   		context.write(NullWritable.get(), valueOut);
+    	   		++recommendationCount;
+    		} else {
+    			//userID, itemID, weighted score
+    			int weightedScore = injectBizGoal(bizScores.get(targetID.toString()), utilityScore);
+    			if (weightedScore >= 0) {
+    				valueOut.set(userID + fieldDelim + targetID + fieldDelim + weightedScore);
+    				context.write(NullWritable.get(), valueOut);
+    				++recommendationCount;
+    			}
+    		}
+        }
+        
+        /**
+         * Same as BusinessGoalInjector
+         * @param bizScore
+         * @param score
+         * @return weighted score or -1 if any business score is below threshold
+         */
+        private int injectBizGoal(int[] bizScore, int score) {
+        	int weightedScore = 0;
+        	if (null != bizScore) {
+				int sumWeightedScore = recWt * score;
+				for (int i = 0; i < bizScore.length; ++i) {
+					if (bizGoalThreshold[i] >= 0 && bizScore[i]  <= bizGoalThreshold[i] ) {
+						return -1;
+					}
+					sumWeightedScore += bizGoalWeights[i] * bizScore[i];
+				}
+				weightedScore = sumWeightedScore / MAX_WEIGHT;
+        	} else {
+        		weightedScore = score;
+        	}
+        	return weightedScore;
+        }
+    }
+    
+    /**
+     * Files of a path, all the files for a directory
+     * @param fs
+     * @param path
+     * @return
+     * @throws IOException
+     */
+    private static List<Path> listFiles(FileSystem fs, Path path) throws IOException {
+    	List<Path> files = new ArrayList<Path>();
+    	if (fs.getFileStatus(path).isDir()) {
+    		for (FileStatus status : fs.listStatus(path)) {
+    			String name = status.getPath().getName();
+    			if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+    				files.add(status.getPath());
+    			}
+    		}
+    	} else {
+    		files.add(path);
+    	}
+    	return files;
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new FusedUtilityPredictor(), args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,222 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.Tuple;
+import org.chombo.util.Utility;
+import org.sifarish.util.IdDictionary;
+
+/**
+ * Builds dictionaries mapping string IDs e.g. user and item IDs to dense int IDs. The fields to 
+ * collect IDs from are defined by id.dictionary.fields as a list of ordinal:type. Distinct IDs of each
+ * type are sorted and numbered from 0. Binary dictionary files for IdDictionary are written to the job
+ * output directory through the output committer, which should be used as id.dictionary.dir for the jobs 
+ * reading the dictionary. The job output also has type, ID and int ID for each ID.
+ * @author pranab
+ *
+ */
+public class IdDictionaryBuilder extends Configured implements Tool {
+    @Override
+    public int run(String[] args) throws Exception   {
+        Job job = new Job(getConf());
+        String jobName = "ID dictionary builder MR";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(IdDictionaryBuilder.class);
+        
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        job.setMapperClass(IdDictionaryBuilder.DictionaryMapper.class);
+        job.setCombinerClass(IdDictionaryBuilder.DistinctCombiner.class);
+        job.setReducerClass(IdDictionaryBuilder.DictionaryReducer.class);
+        
+        job.setMapOutputKeyClass(Tuple.class);
+        job.setMapOutputValueClass(NullWritable.class);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+ 
+        Utility.setConfiguration(job.getConfiguration());
+        
+        //dense IDs need global ordering
+        job.setNumReduceTasks(1);
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+
+    /**
+     * @author pranab
+     *
+     */
+    public static class DictionaryMapper extends Mapper<LongWritable, Text, Tuple, NullWritable> {
+    	private String fieldDelimRegex;
+    	private Tuple keyOut = new Tuple();
+    	private int[] ordinals;
+    	private String[] types;
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", ",");
+        	String[] fields = conf.get("id.dictionary.fields", "0:user,1:item").split(",");
+        	ordinals = new int[fields.length];
+        	types = new String[fields.length];
+        	for (int i = 0; i < fields.length; ++i) {
+        		String[] items = fields[i].split(":");
+        		ordinals[i] = Integer.parseInt(items[0]);
+        		types[i] = items[1];
+        	}
+        }    
+   
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+           	String[] items = value.toString().split(fieldDelimRegex);
+           	for (int i = 0; i < ordinals.length; ++i) {
+           		keyOut.initialize();
+           		keyOut.add(types[i], items[ordinals[i]]);
+           		context.write(keyOut, NullWritable.get());
+           	}
+        }       
+    }    
+    
+    /**
+     * Removes duplicate IDs on the map side
+     * @author pranab
+     *
+     */
+    public static class DistinctCombiner extends Reducer<Tuple, NullWritable, Tuple, NullWritable> {
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<NullWritable> values, Context context)
+        	throws IOException, InterruptedException {
+        	context.write(key, NullWritable.get());
+        }
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    public static class DictionaryReducer extends Reducer<Tuple, NullWritable, NullWritable, Text> {
+    	private String fieldDelim;
+    	private Text valOut = new Text();
+    	private FileSystem fs;
+    	private Path dictDir;
+    	private String type;
+    	private int index;
+    	private int offset;
+    	private FSDataOutputStream offsetOut;
+    	private FSDataOutputStream dataOut;
+    	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    	/* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+        	fs = FileSystem.get(conf);
+        	
+        	//task attempt work directory, promoted by the output committer
+        	dictDir = FileOutputFormat.getWorkOutputPath(context);
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<NullWritable> values, Context context)
+        	throws IOException, InterruptedException {
+        	String keyType = key.getString(0);
+        	String id = key.getString(1);
+        	if (!keyType.equals(type)) {
+        		//IDs of a type arrive together and sorted
+        		closeDictionary(context);
+        		type = keyType;
+        		index = 0;
+        		offset = 0;
+        		offsetOut = fs.create(new Path(dictDir, type + IdDictionary.OFFSET_FILE_EXT), true);
+        		dataOut = fs.create(new Path(dictDir, type + IdDictionary.DATA_FILE_EXT), true);
+        	}
+        	
+        	byte[] bytes = id.getBytes(UTF8);
+        	offsetOut.writeInt(offset);
+        	dataOut.write(bytes);
+        	offset += bytes.length;
+        	
+        	valOut.set(type + fieldDelim + id + fieldDelim + index);
+			context.write(NullWritable.get(), valOut);
+			++index;
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#cleanup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+        	closeDictionary(context);
+        }
+        
+        /**
+         * Writes the end offset and closes the files of current type
+         * @param context
+         * @throws IOException
+         */
+        private void closeDictionary(Context context) throws IOException {
+        	if (null != type) {
+        		offsetOut.writeInt(offset);
+        		offsetOut.close();
+        		dataOut.close();
+				context.getCounter("Dictionary", "Type:" + type).increment(index);
+        	}
+        }
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new IdDictionaryBuilder(), args);
+        System.exit(exitCode);
+    }
+}
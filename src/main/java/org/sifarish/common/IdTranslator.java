@@ -0,0 +1,208 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.Utility;
+import org.sifarish.util.IdDictionary;
+
+/**
+ * Map only job for translating string IDs to dense int IDs and back, using dictionaries created by 
+ * IdDictionaryBuilder. With id.translate.direction set to encode, input of the pipeline is translated 
+ * so that all the jobs work with int IDs. With decode, final output is translated back to string IDs.
+ * With id.translate.layout set to fieldList, fields are translated as defined by id.translate.fields 
+ * as a list of ordinal:type. With ratingList, the first field is of type id.translate.key.type and the 
+ * remaining fields are ID and value pairs with IDs of type id.translate.list.type. Records with unknown 
+ * IDs are dropped.
+ * @author pranab
+ *
+ */
+public class IdTranslator extends Configured implements Tool {
+    @Override
+    public int run(String[] args) throws Exception   {
+        Job job = new Job(getConf());
+        String jobName = "ID translator MR";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(IdTranslator.class);
+        
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        job.setMapperClass(IdTranslator.TranslatorMapper.class);
+        
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+ 
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(0);
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+
+    /**
+     * @author pranab
+     *
+     */
+    public static class TranslatorMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+    	private String fieldDelimRegex;
+    	private String fieldDelim;
+    	private String subFieldDelim;
+    	private Text valOut = new Text();
+    	private boolean encode;
+    	private boolean ratingList;
+    	private int[] ordinals;
+    	private IdDictionary[] fieldDictionaries;
+    	private IdDictionary keyDictionary;
+    	private IdDictionary listDictionary;
+    	private Map<String, IdDictionary> dictionaries = new HashMap<String, IdDictionary>();
+    	private StringBuilder stBld = new StringBuilder();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", ",");
+        	fieldDelim = conf.get("field.delim", ",");
+        	subFieldDelim = conf.get("subfield.delim", ":");
+        	encode = conf.get("id.translate.direction", "encode").equals("encode");
+        	ratingList = conf.get("id.translate.layout", "fieldList").equals("ratingList");
+        	
+        	FileSystem fs = FileSystem.get(conf);
+        	Path dictDir = new Path(conf.get("id.dictionary.dir"));
+        	if (ratingList) {
+        		keyDictionary = getDictionary(fs, dictDir, conf.get("id.translate.key.type", "item"));
+        		listDictionary = getDictionary(fs, dictDir, conf.get("id.translate.list.type", "user"));
+        	} else {
+            	String[] fields = conf.get("id.translate.fields", "0:user,1:item").split(",");
+            	ordinals = new int[fields.length];
+            	fieldDictionaries = new IdDictionary[fields.length];
+            	for (int i = 0; i < fields.length; ++i) {
+            		String[] items = fields[i].split(":");
+            		ordinals[i] = Integer.parseInt(items[0]);
+            		fieldDictionaries[i] = getDictionary(fs, dictDir, items[1]);
+            	}
+        	}
+        }
+        
+        /**
+         * Loads dictionary once for each type
+         * @param fs
+         * @param dictDir
+         * @param type
+         * @return
+         * @throws IOException
+         */
+        private IdDictionary getDictionary(FileSystem fs, Path dictDir, String type) throws IOException {
+        	IdDictionary dictionary = dictionaries.get(type);
+        	if (null == dictionary) {
+        		dictionary = IdDictionary.load(fs, dictDir, type);
+        		dictionaries.put(type, dictionary);
+        	}
+        	return dictionary;
+        }
+   
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+           	String[] items = value.toString().split(fieldDelimRegex);
+           	boolean valid = true;
+           	if (ratingList) {
+           		String id = translate(keyDictionary, items[0]);
+           		valid = null != id;
+           		items[0] = id;
+           		for (int i = 1; valid && i < items.length; ++i) {
+           			//whole token is the ID if there is no sub field
+           			int pos = items[i].indexOf(subFieldDelim);
+           			if (pos < 0) {
+           				pos = items[i].length();
+           			}
+           			id = translate(listDictionary, items[i].substring(0, pos));
+           			valid = null != id;
+           			items[i] = id + items[i].substring(pos);
+           		}
+           	} else {
+           		for (int i = 0; valid && i < ordinals.length; ++i) {
+           			String id = translate(fieldDictionaries[i], items[ordinals[i]]);
+           			valid = null != id;
+           			items[ordinals[i]] = id;
+           		}
+           	}
+           	
+           	if (valid) {
+           		stBld.delete(0, stBld.length());
+           		for (int i = 0; i < items.length; ++i) {
+           			if (i > 0) {
+           				stBld.append(fieldDelim);
+           			}
+           			stBld.append(items[i]);
+           		}
+           		valOut.set(stBld.toString());
+           		context.write(NullWritable.get(), valOut);
+           	} else {
+				context.getCounter("Translation", "Unknown ID").increment(1);
+           	}
+        }
+        
+        /**
+         * @param dictionary
+         * @param id
+         * @return translated ID or null if not found
+         */
+        private String translate(IdDictionary dictionary, String id) {
+        	String translated = null;
+        	if (encode) {
+        		int index = dictionary.encode(id);
+        		translated = index >= 0 ? Integer.toString(index) : null;
+        	} else {
+        		int index = Integer.parseInt(id);
+        		translated = index >= 0 && index < dictionary.size() ? dictionary.decode(index) : null;
+        	}
+        	return translated;
+        }
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new IdTranslator(), args);
+        System.exit(exitCode);
+    }
+}
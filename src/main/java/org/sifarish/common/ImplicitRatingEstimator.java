@@ -38,9 +38,11 @@ import org.chombo.util.SecondarySort;
 import org.chombo.util.Tuple;
 import org.chombo.util.Utility;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.sifarish.util.IdDictionary;
 
 /**
- * Estimates implicit rating based on user engagement bahavior with items 
+ * Estimates implicit rating based on user engagement bahavior with items. With id.encoded, user and item 
+ * IDs are shuffled as ints 
  * @author pranab
  *
  */
@@ -83,12 +85,14 @@ public class ImplicitRatingEstimator   extends Configured implements Tool{
     	private Tuple keyOut = new Tuple();
     	private IntWritable  valOut = new IntWritable();
     	private int  eventType = 0;
+    	private boolean idEncoded;
     	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
          */
         protected void setup(Context context) throws IOException, InterruptedException {
         	fieldDelim = context.getConfiguration().get("field.delim.regex", ",");
+        	idEncoded = context.getConfiguration().getBoolean("id.encoded", false);
         }    
    
         /* (non-Javadoc)
@@ -101,7 +105,8 @@ public class ImplicitRatingEstimator   extends Configured implements Tool{
            	eventType = Integer.parseInt(items[2]);
            	
            	keyOut.initialize();
-           	keyOut.add(items[0], items[1], eventType);
+           	keyOut.add(IdDictionary.tupleId(items[0], idEncoded), IdDictionary.tupleId(items[1], idEncoded), 
+           		eventType);
            	valOut.set(eventType);
            	context.write(keyOut, valOut);
         }       
@@ -160,7 +165,7 @@ public class ImplicitRatingEstimator   extends Configured implements Tool{
         	}     
         	
         	rating =ratingMapper.scoreForEvent(mostEngagingEventType, count);
-        	stBld.append(key.getString(0)).append(fieldDelim).append(key.getString(1)).
+        	stBld.append(key.get(0)).append(fieldDelim).append(key.get(1)).
         		append(fieldDelim).append(rating);
         	if(outputDetail) {
         		stBld.append(fieldDelim).append(mostEngagingEventType).append(fieldDelim).append(count);
@@ -45,13 +45,28 @@ import org.apache.log4j.Logger;
 import org.chombo.util.IntPair;
 import org.chombo.util.Tuple;
 import org.chombo.util.Utility;
+import org.sifarish.feature.CosineSimilarity;
 import org.sifarish.feature.DynamicAttrSimilarityStrategy;
+import org.sifarish.feature.PrefixFilter;
+import org.sifarish.feature.SparseVector;
+import org.sifarish.feature.TopMatchAccumulator;
+import org.sifarish.util.MinHash;
+import org.sifarish.util.SimHash;
 
 /**
  * Mapreduce for finding similarities between items with dynamic set of attributes. For example,  products 
  * where the atrributes   are users who have purchased it or documents where the attributes are terms in
  * the documents.
  * 
+ * By default all items are paired with all other items using hash pair buckets. With blocking.strategy set
+ * to lsh, items are routed to MinHash LSH band buckets and only items sharing a band bucket are paired.
+ * With blocking.strategy set to simHash, items are routed by blocks of their SimHash signature and only
+ * pairs within the Hamming distance threshold are scored with the similarity algorithm.
+ * With blocking.strategy set to prefixFilter, an exact similarity join is done. Items are routed by the 
+ * prefix tokens of their attribute vectors and only pairs passing length and positional filters are scored.
+ * Only pairs with similarity at least similarity.threshold are output.
+ * With inline.top.match set, only the top matches for each item seen by a reducer are output.
+ * 
  * @author pranab
  *
  */
@@ -80,6 +95,10 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         job.setPartitionerClass(IdPairPartitioner.class);
 
         Utility.setConfiguration(job.getConfiguration());
+        if (job.getConfiguration().get("blocking.strategy", "hashPair").equals("simHash")) {
+        	//fail fast on invalid blocking
+        	getSimHashNumBlocks(job.getConfiguration());
+        }
 
         job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
         
@@ -104,6 +123,17 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         private int hashPairMult;
         private int hashCode;
         private int partitonFieldOrdinal;
+        private boolean lshBlocking;
+        private int bandCount;
+        private int rowsPerBand;
+        private MinHash minHash;
+        private boolean countIncluded;
+        private boolean simHashBlocking;
+        private SimHash simHash;
+        private int simHashNumBlocks;
+        private boolean prefixFilterJoin;
+        private PrefixFilter prefixFilter;
+        private boolean jaccard;
         private static final Logger LOG = Logger.getLogger(ItemDynamicAttributeSimilarity.SimilarityMapper.class);
     	
         /* (non-Javadoc)
@@ -119,6 +149,31 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
         	hashPairMult = conf.getInt("hash.pair.multiplier", 1000);
         	partitonFieldOrdinal = conf.getInt("paritioning.field.ordinal", -1);
+        	
+        	//LSH blocking
+        	lshBlocking = conf.get("blocking.strategy", "hashPair").equals("lsh");
+        	if (lshBlocking) {
+        		bandCount = conf.getInt("lsh.band.count", 10);
+        		rowsPerBand = conf.getInt("lsh.rows.per.band", 4);
+        		minHash = new MinHash(bandCount * rowsPerBand, conf.getLong("lsh.hash.seed", 1));
+        		countIncluded = isCountIncluded(conf);
+        	}
+        	
+        	//SimHash blocking
+        	simHashBlocking = conf.get("blocking.strategy", "hashPair").equals("simHash");
+        	if (simHashBlocking) {
+        		simHash = new SimHash(conf.getLong("simhash.seed", 1));
+        		simHashNumBlocks = getSimHashNumBlocks(conf);
+        		countIncluded = isCountIncluded(conf);
+        	}
+        	
+        	//prefix filter similarity join
+        	prefixFilterJoin = conf.get("blocking.strategy", "hashPair").equals("prefixFilter");
+        	if (prefixFilterJoin) {
+        		prefixFilter = createPrefixFilter(conf);
+        		jaccard = conf.get("similarity.algorithm", "cosine").equals("jaccard");
+        		countIncluded = isCountIncluded(conf);
+        	}
         }    
         
         /* (non-Javadoc)
@@ -129,6 +184,16 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
             throws IOException, InterruptedException {
         	//first token is entity ID and the rest list attributes
         	String[] items  =  value.toString().split(fieldDelimRegex);
+        	if (lshBlocking) {
+        		mapToBands(items, value, context);
+        		return;
+        	} else if (simHashBlocking) {
+        		mapToSignatureBlocks(items, value, context);
+        		return;
+        	} else if (prefixFilterJoin) {
+        		mapToPrefixTokens(items, value, context);
+        		return;
+        	}
         	itemID  =  items[0];
         	hashCode = itemID.hashCode();
         	if (hashCode < 0) {
@@ -152,6 +217,80 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
    	   			context.write(keyHolder, valueHolder);
     		}
         }
+        
+        /**
+         * Emits item to the LSH bucket of each band of it's MinHash signature
+         * @param items
+         * @param value
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void mapToBands(String[] items, Text value, Context context) 
+        	throws IOException, InterruptedException {
+    		String partition = partitonFieldOrdinal >= 0 ? items[partitonFieldOrdinal] :  "none";
+    		int attrStart = partitonFieldOrdinal >= 0 ? 2 : 1;
+    		String[] terms = getAttributeTerms(items, attrStart, countIncluded);
+    		int[] signature = minHash.signature(terms);
+    		
+    		valueHolder.set("0" + value.toString());
+    		for (int band = 0; band < bandCount; ++band) {
+    			keyHolder.initialize();
+    			keyHolder.add(partition, band, MinHash.bandHash(signature, band, rowsPerBand), zero);
+   	   			context.write(keyHolder, valueHolder);
+    		}
+			context.getCounter("LSH", "Band bucket emit").increment(bandCount);
+        }
+        
+        /**
+         * Emits item to the bucket of each block of it's SimHash signature. Any two signatures within
+         * Hamming distance k must agree on at least one of k+1 blocks
+         * @param items
+         * @param value
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void mapToSignatureBlocks(String[] items, Text value, Context context) 
+        	throws IOException, InterruptedException {
+    		String partition = partitonFieldOrdinal >= 0 ? items[partitonFieldOrdinal] :  "none";
+    		int attrStart = partitonFieldOrdinal >= 0 ? 2 : 1;
+    		long signature = simHash.signature(getAttributeTerms(items, attrStart, countIncluded), 
+    				getAttributeWeights(items, attrStart, countIncluded));
+    		
+    		valueHolder.set("0" + value.toString());
+    		for (int block = 0; block < simHashNumBlocks; ++block) {
+    			keyHolder.initialize();
+    			keyHolder.add(partition, block, SimHash.blockValue(signature, block, simHashNumBlocks), zero);
+   	   			context.write(keyHolder, valueHolder);
+    		}
+			context.getCounter("SimHash", "Block bucket emit").increment(simHashNumBlocks);
+        }
+        
+        /**
+         * Emits item for each token in the prefix of it's attribute vector
+         * @param items
+         * @param value
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void mapToPrefixTokens(String[] items, Text value, Context context) 
+        	throws IOException, InterruptedException {
+    		String partition = partitonFieldOrdinal >= 0 ? items[partitonFieldOrdinal] :  "none";
+    		int attrStart = partitonFieldOrdinal >= 0 ? 2 : 1;
+    		PrefixFilter.TokenVector vector = prefixFilter.vectorize(getJoinTerms(items, attrStart, jaccard, countIncluded), 
+    				getAttributeWeights(items, attrStart, countIncluded));
+    		
+    		valueHolder.set("0" + value.toString());
+    		String[] tokens = vector.getTokens();
+    		for (int i = 0; i < vector.getPrefixLength(); ++i) {
+    			keyHolder.initialize();
+    			keyHolder.add(partition, tokens[i], zero);
+   	   			context.write(keyHolder, valueHolder);
+    		}
+			context.getCounter("Prefix filter", "Prefix token emit").increment(vector.getPrefixLength());
+        }
              
     }
     
@@ -175,6 +314,24 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         private boolean addMatchingContext;
         private int semanticScale;
        	private StringBuilder stBld = new StringBuilder();
+        private boolean lshBlocking;
+        private int rowsPerBand;
+        private MinHash minHash;
+        private boolean countIncluded;
+        private List<int[]> signatures = new ArrayList<int[]>();
+        private boolean simHashBlocking;
+        private SimHash simHash;
+        private int simHashNumBlocks;
+        private int hammingDistThreshold;
+        private List<Long> simHashSignatures = new ArrayList<Long>();
+        private TopMatchAccumulator topMatchAccumulator;
+        private boolean prefixFilterJoin;
+        private PrefixFilter prefixFilter;
+        private boolean jaccard;
+        private double similarityThreshold;
+        private List<PrefixFilter.TokenVector> tokenVectors = new ArrayList<PrefixFilter.TokenVector>();
+        private CosineSimilarity cosineSim;
+        private List<SparseVector> sparseVectors = new ArrayList<SparseVector>();
         private static final Logger LOG = Logger.getLogger(ItemDynamicAttributeSimilarity.SimilarityReducer.class);
                
         
@@ -203,8 +360,8 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         	
         	LOG.debug("simAlgorithm:" + simAlgorithm + " matcherClass: "  + conf.get("semantic.matcher.class"));
         	
-        	params.put("srcNonMatchingTermWeight", conf.get("jaccard.srcNonMatchingTermWeight"));
-        	params.put("trgNonMatchingTermWeight", conf.get("jaccard.trgNonMatchingTermWeight"));
+        	params.put("srcNonMatchingTermWeight", Double.parseDouble(conf.get("jaccard.srcNonMatchingTermWeight", "1.0")));
+        	params.put("trgNonMatchingTermWeight", Double.parseDouble(conf.get("jaccard.trgNonMatchingTermWeight", "1.0")));
         	simStrategy = DynamicAttrSimilarityStrategy.createSimilarityStrategy(simAlgorithm, params);
         	
         	simStrategy.setFieldDelimRegex(fieldDelimRegex);
@@ -224,14 +381,65 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
         		simStrategy.setCountIncluded(countIncluded);
         	}
         	
+        	//items are vectorized once per reduce call
+        	if (simStrategy instanceof CosineSimilarity) {
+        		cosineSim = (CosineSimilarity)simStrategy;
+        	}
+        	
            	scale = conf.getInt("distance.scale", 1000);
            	outputCorrelation = conf.getBoolean("output.correlation", false);
            	partitonFieldOrdinal = conf.getInt("paritioning.field.ordinal", -1);
            	minIntLength =  conf.getInt("min.intersection.length", 2);
            	LOG.debug("outputCorrelation:" + outputCorrelation + " partitonFieldOrdinal:" + partitonFieldOrdinal +
            			" minIntLength:" + minIntLength);
+           	
+           	//LSH blocking
+        	lshBlocking = conf.get("blocking.strategy", "hashPair").equals("lsh");
+        	if (lshBlocking) {
+        		rowsPerBand = conf.getInt("lsh.rows.per.band", 4);
+        		minHash = new MinHash(conf.getInt("lsh.band.count", 10) * rowsPerBand, conf.getLong("lsh.hash.seed", 1));
+        		countIncluded = isCountIncluded(conf);
+        	}
+        	
+        	//SimHash blocking
+        	simHashBlocking = conf.get("blocking.strategy", "hashPair").equals("simHash");
+        	if (simHashBlocking) {
+        		simHash = new SimHash(conf.getLong("simhash.seed", 1));
+        		simHashNumBlocks = getSimHashNumBlocks(conf);
+        		hammingDistThreshold = conf.getInt("simhash.hamming.dist.threshold", 3);
+        		countIncluded = isCountIncluded(conf);
+        	}
+        	
+        	//inline top match
+        	if (conf.getBoolean("inline.top.match", false)) {
+        		topMatchAccumulator = new TopMatchAccumulator(conf);
+        	}
+        	
+        	//prefix filter similarity join
+        	prefixFilterJoin = conf.get("blocking.strategy", "hashPair").equals("prefixFilter");
+        	if (prefixFilterJoin) {
+        		prefixFilter = createPrefixFilter(conf);
+        		jaccard = simAlgorithm.equals("jaccard");
+        		similarityThreshold = Double.parseDouble(conf.get("similarity.threshold", "0.5"));
+        		countIncluded = isCountIncluded(conf);
+        	}
           }    
         
+    	/* (non-Javadoc)
+    	 * @see org.apache.hadoop.mapreduce.Reducer#cleanup(org.apache.hadoop.mapreduce.Reducer.Context)
+    	 */
+    	protected void cleanup(Context context) throws IOException, InterruptedException {
+    		if (null != topMatchAccumulator) {
+    			//partial top matches for items seen by this reducer
+    			for (String srcId : topMatchAccumulator.getSourceIds()) {
+    				for (TopMatchAccumulator.Match match : topMatchAccumulator.getTopMatches(srcId)) {
+    					valueHolder.set(match.getValue());
+    					context.write(NullWritable.get(), valueHolder);
+    				}
+    			}
+    		}
+    	}
+        
         /**
          * @param conf
          * @param params
@@ -252,10 +460,25 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
          */
         protected void reduce(Tuple  key, Iterable<Text> values, Context context)
         throws IOException, InterruptedException {
-        	double dist = 0;
-        	intLength = -1;
-        	
         	valueList.clear();
+        	sparseVectors.clear();
+        	if (null != cosineSim) {
+        		cosineSim.clearTerms();
+        	}
+        	if (lshBlocking) {
+        		//LSH band bucket
+        		reduceBandBucket(key, values, context);
+        		return;
+        	} else if (simHashBlocking) {
+        		//SimHash signature block bucket
+        		reduceSignatureBlockBucket(key, values, context);
+        		return;
+        	} else if (prefixFilterJoin) {
+        		//prefix token
+        		reducePrefixToken(key, values, context);
+        		return;
+        	}
+        	
         	int firstPart = key.getInt(1);
         	//System.out.println("hashPair: " + firstPart);
         	if (firstPart / hashPairMult == firstPart % hashPairMult){
@@ -266,42 +489,13 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
 	        	for (Text value : values){
 	        		String valSt = value.toString();
         			String[] parts = splitKey(valSt.substring(1));
-        			valueList.add(parts);
+        			addValue(parts);
 	        	}   
 	        	
 	        	for (int i = 0;  i < valueList.size();  ++i){
-	        		String[] firstParts = valueList.get(i);
 	        		for (int j = i+1;  j < valueList.size();  ++j) {
-		        		String[] secondParts = valueList.get(j);
 		        		//process 2 user vectors
-	        			dist = ( 1.0 - simStrategy.findDistance(firstParts[1], secondParts[1]))  * scale;
-	        			dist = dist < 0.0 ? 0.0 : dist;
-		        		
-    					intLength = simStrategy.getIntersectionLength();
-    					if( intLength >= minIntLength || simStrategy.isSemanticVec()) {
-	        				if (outputCorrelation) {
-	        					dist = scale - dist;
-	            				//2 items IDs followed by distance and intersection length
-	        					stBld.append(firstParts[0]).append(fieldDelim).append(secondParts[0]).append(fieldDelim).
-	        						append( (int)dist).append(fieldDelim).append(intLength);
-	        				} else {
-	            				//2 items IDs followed by distance
-	    	   					stBld.append(firstParts[0]).append(fieldDelim).append(secondParts[0]).append(fieldDelim).
-	    	   						append( (int)dist);
-	        				}
-	        				
-	        				//if there any matching context data
-	        				if(addMatchingContext) {
-	        					appendMatchingContexts(stBld);
-	        				}
-	
-	        				valueHolder.set(stBld.toString());
-		   	    			context.getCounter("Reducer", "Emit").increment(1);
-		   					context.write(NullWritable.get(), valueHolder);
-		        			stBld.delete(0, stBld.length());
-	    				} else {
-		   	    			context.getCounter("Correlation Intersection", "Below threshold").increment(1);
-	    				} //if int length
+		        		scorePair(i, j, context);
 	        		}//for
 	        	}//for
         	} else {
@@ -312,42 +506,15 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
 	        		String valSt = value.toString();
 	        		if (valSt.startsWith("0")) {
 	        			String[] parts = splitKey(valSt.substring(1));
-	        			valueList.add(parts);
+	        			addValue(parts);
 	        		} else {
 	        			String[] parts = splitKey(valSt.substring(1));
+	        			SparseVector vector = null != cosineSim ? cosineSim.vectorize(parts[1]) : null;
 	        			
 	        			//match with all items of first set
-	        			for (String[] firstParts : valueList) {
+	        			for (int i = 0;  i < valueList.size();  ++i) {
 	        				//process 2 entity vectors
-	        				dist = (1.0 - simStrategy.findDistance(firstParts[1], parts[1])) * scale;
-	        				dist = dist < 0.0 ? 0.0 : dist;
-	        				LOG.debug("dist:" + dist);
-	        				
-        					intLength = simStrategy.getIntersectionLength();
-        					if( intLength >= minIntLength || simStrategy.isSemanticVec()) {
-		        				if (outputCorrelation) {
-		        					dist = scale - dist;
-		            				//2 items IDs followed by distance and intersection l;ength
-		           					stBld.append(firstParts[0]).append(fieldDelim).append(parts[0]).append(fieldDelim).
-		           						append( (int)dist).append(fieldDelim).append(intLength);
-	 	        				} else {
-		            				//2 items IDs followed by distance
-		    	   					stBld.append(firstParts[0]).append(fieldDelim).append(parts[0]).append(fieldDelim).
-	    	   						append( (int)dist);
-		        				}
-	
-		        				//if there any matching context data
-		        				if(addMatchingContext) {
-		        					appendMatchingContexts(stBld);
-		        				}
-	
-		        				valueHolder.set(stBld.toString());
-			   	    			context.getCounter("Reducer", "Emit").increment(1);
-			   					context.write(NullWritable.get(), valueHolder);
-			        			stBld.delete(0, stBld.length());
-		        			} else {
-			   	    			context.getCounter("Correlation Intersection", "Below threshold").increment(1);
-		        			}//if int length
+	        				scorePair(valueList.get(i), vectorAt(i), parts, vector, context);
 	        			}//for
 	        		}//if
 	        	}//for
@@ -355,6 +522,244 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
        	
         }
         
+        /**
+         * Pairs items within a LSH band bucket. A pair is processed only in the first band
+         * where the pair collides, so that no pair is emitted more than once
+         * @param key
+         * @param values
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void reduceBandBucket(Tuple  key, Iterable<Text> values, Context context)
+        	throws IOException, InterruptedException {
+        	int band = key.getInt(1);
+        	signatures.clear();
+			context.getCounter("LSH", "Band bucket").increment(1);
+        	for (Text value : values){
+    			String[] parts = splitKey(value.toString().substring(1));
+    			addValue(parts);
+    			
+    			//only the bands before this band are needed for checking earlier collision
+    			String[] terms = getAttributeTerms(parts[1].split(fieldDelimRegex), 0, countIncluded);
+    			signatures.add(minHash.signature(terms, band * rowsPerBand));
+        	}
+        	
+        	for (int i = 0;  i < valueList.size();  ++i){
+        		for (int j = i+1;  j < valueList.size();  ++j) {
+        			if (collidesInEarlierBand(signatures.get(i), signatures.get(j), band)) {
+       	    			context.getCounter("LSH", "Duplicate candidate pair").increment(1);
+        			} else {
+       	    			context.getCounter("LSH", "Candidate pair").increment(1);
+       	    			scorePair(i, j, context);
+        			}
+        		}
+        	}
+        }
+        
+        /**
+         * @param firstSignature
+         * @param secondSignature
+         * @param band
+         * @return true if the pair falls in the same bucket for any band before the given band
+         */
+        private boolean collidesInEarlierBand(int[] firstSignature, int[] secondSignature, int band) {
+        	boolean collides = false;
+        	for (int b = 0; b < band && !collides; ++b) {
+        		collides = MinHash.bandHash(firstSignature, b, rowsPerBand) == 
+        				MinHash.bandHash(secondSignature, b, rowsPerBand);
+        	}
+        	return collides;
+        }
+        
+        /**
+         * Pairs items within a SimHash signature block bucket. Pairs beyond the Hamming distance
+         * threshold are skipped. A pair is processed only in the first block where the signatures
+         * agree, so that no pair is emitted more than once
+         * @param key
+         * @param values
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void reduceSignatureBlockBucket(Tuple  key, Iterable<Text> values, Context context)
+        	throws IOException, InterruptedException {
+        	int block = key.getInt(1);
+        	simHashSignatures.clear();
+			context.getCounter("SimHash", "Block bucket").increment(1);
+        	for (Text value : values){
+    			String[] parts = splitKey(value.toString().substring(1));
+    			addValue(parts);
+    			String[] items = parts[1].split(fieldDelimRegex);
+    			simHashSignatures.add(simHash.signature(getAttributeTerms(items, 0, countIncluded), 
+    					getAttributeWeights(items, 0, countIncluded)));
+        	}
+        	
+        	for (int i = 0;  i < valueList.size();  ++i){
+        		long firstSignature = simHashSignatures.get(i);
+        		for (int j = i+1;  j < valueList.size();  ++j) {
+        			long secondSignature = simHashSignatures.get(j);
+        			if (SimHash.hammingDistance(firstSignature, secondSignature) > hammingDistThreshold) {
+       	    			context.getCounter("SimHash", "Above Hamming distance threshold").increment(1);
+        			} else if (agreesInEarlierBlock(firstSignature, secondSignature, block)) {
+       	    			context.getCounter("SimHash", "Duplicate candidate pair").increment(1);
+        			} else {
+       	    			context.getCounter("SimHash", "Candidate pair").increment(1);
+       	    			scorePair(i, j, context);
+        			}
+        		}
+        	}
+        }
+        
+        /**
+         * @param firstSignature
+         * @param secondSignature
+         * @param block
+         * @return true if the signatures agree on any block before the given block
+         */
+        private boolean agreesInEarlierBlock(long firstSignature, long secondSignature, int block) {
+        	boolean agrees = false;
+        	for (int b = 0; b < block && !agrees; ++b) {
+        		agrees = SimHash.blockValue(firstSignature, b, simHashNumBlocks) == 
+        				SimHash.blockValue(secondSignature, b, simHashNumBlocks);
+        	}
+        	return agrees;
+        }
+        
+        /**
+         * Pairs items having the token in the prefix. A pair is processed only for the first common
+         * prefix token. Pairs are verified after length and positional filtering
+         * @param key
+         * @param values
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void reducePrefixToken(Tuple  key, Iterable<Text> values, Context context)
+        	throws IOException, InterruptedException {
+        	String token = key.getString(1);
+        	tokenVectors.clear();
+        	for (Text value : values){
+    			String[] parts = splitKey(value.toString().substring(1));
+    			addValue(parts);
+    			String[] items = parts[1].split(fieldDelimRegex);
+    			tokenVectors.add(prefixFilter.vectorize(getJoinTerms(items, 0, jaccard, countIncluded), 
+    					getAttributeWeights(items, 0, countIncluded)));
+        	}
+        	
+        	for (int i = 0;  i < valueList.size();  ++i){
+        		PrefixFilter.TokenVector first = tokenVectors.get(i);
+        		for (int j = i+1;  j < valueList.size();  ++j) {
+        			PrefixFilter.TokenVector second = tokenVectors.get(j);
+        			if (!prefixFilter.passesLengthFilter(first, second)) {
+       	    			context.getCounter("Prefix filter", "Length filtered").increment(1);
+       	    			continue;
+        			}
+        			
+        			int firstPos = prefixFilter.firstCommonPrefixToken(first, second);
+        			if (firstPos < 0 || !first.getTokens()[firstPos].equals(token)) {
+       	    			context.getCounter("Prefix filter", "Duplicate candidate pair").increment(1);
+       	    			continue;
+        			}
+        			
+        			if (!prefixFilter.passesPositionalFilter(first, firstPos, second, second.position(token))) {
+       	    			context.getCounter("Prefix filter", "Positional filtered").increment(1);
+       	    			continue;
+        			}
+   	    			context.getCounter("Prefix filter", "Candidate pair").increment(1);
+   	    			scorePair(i, j, context);
+        		}
+        	}
+        }
+        
+        /**
+         * @param parts
+         */
+        private void addValue(String[] parts) {
+        	valueList.add(parts);
+        	if (null != cosineSim) {
+        		sparseVectors.add(cosineSim.vectorize(parts[1]));
+        	}
+        }
+        
+        /**
+         * @param i
+         * @return vector for the item, null unless cosine
+         */
+        private SparseVector vectorAt(int i) {
+        	return null != cosineSim ? sparseVectors.get(i) : null;
+        }
+        
+        /**
+         * @param i
+         * @param j
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void scorePair(int i, int j, Context context) 
+            	throws IOException, InterruptedException {
+        	scorePair(valueList.get(i), vectorAt(i), valueList.get(j), vectorAt(j), context);
+        }
+        
+        /**
+         * Finds similarity between two items and emits if the intersection is long enough
+         * @param firstParts
+         * @param firstVector pre built vector for cosine, null otherwise
+         * @param secondParts
+         * @param secondVector pre built vector for cosine, null otherwise
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void scorePair(String[] firstParts, SparseVector firstVector, String[] secondParts, 
+        	SparseVector secondVector, Context context) throws IOException, InterruptedException {
+			double distance = null != firstVector ? cosineSim.findDistance(firstVector, secondVector) :
+				simStrategy.findDistance(firstParts[1], secondParts[1]);
+			if (prefixFilterJoin) {
+				//jaccard strategy returns distance and cosine strategy returns similarity
+				double similarity = jaccard ? 1.0 - distance : distance;
+				if (similarity < similarityThreshold) {
+	   	    		context.getCounter("Prefix filter", "Below similarity threshold").increment(1);
+					return;
+				}
+			}
+			double dist = (1.0 - distance) * scale;
+			dist = dist < 0.0 ? 0.0 : dist;
+			LOG.debug("dist:" + dist);
+			
+			intLength = simStrategy.getIntersectionLength();
+			if( intLength >= minIntLength || simStrategy.isSemanticVec()) {
+				if (outputCorrelation) {
+					dist = scale - dist;
+    				//2 items IDs followed by distance and intersection length
+					stBld.append(firstParts[0]).append(fieldDelim).append(secondParts[0]).append(fieldDelim).
+						append( (int)dist).append(fieldDelim).append(intLength);
+				} else {
+    				//2 items IDs followed by distance
+   					stBld.append(firstParts[0]).append(fieldDelim).append(secondParts[0]).append(fieldDelim).
+   						append( (int)dist);
+				}
+				
+				//if there any matching context data
+				if(addMatchingContext) {
+					appendMatchingContexts(stBld);
+				}
+
+   	    		context.getCounter("Reducer", "Emit").increment(1);
+				if (null != topMatchAccumulator) {
+					//rank by last field as in TopMatches
+					topMatchAccumulator.add(firstParts[0], outputCorrelation ? intLength : (int)dist, stBld.toString());
+				} else {
+					valueHolder.set(stBld.toString());
+					context.write(NullWritable.get(), valueHolder);
+				}
+    			stBld.delete(0, stBld.length());
+			} else {
+   	    		context.getCounter("Correlation Intersection", "Below threshold").increment(1);
+			} //if int length
+        }
+        
         /**
          * @param stBld
          */
@@ -428,6 +833,118 @@ public class ItemDynamicAttributeSimilarity  extends Configured implements Tool{
     	}
      }
   
+    /**
+     * @param conf
+     * @return true if attributes are of the form term:count
+     */
+    private static boolean isCountIncluded(Configuration conf) {
+    	boolean booleanVec = conf.getBoolean("vec.type.boolean", true);
+    	boolean semanticVec = conf.getBoolean("vec.type.semantic", false);
+    	return !booleanVec && !semanticVec && conf.getBoolean("vec.count.included", true);
+    }
+    
+    /**
+     * Number of SimHash signature blocks. Defaults to one more than the Hamming distance threshold, which
+     * guarantees that all pairs within the threshold share at least one block. Fewer blocks are rejected
+     * @param conf
+     * @return
+     */
+    private static int getSimHashNumBlocks(Configuration conf) {
+    	int hammingDistThreshold = conf.getInt("simhash.hamming.dist.threshold", 3);
+    	int numBlocks = conf.getInt("simhash.num.blocks", hammingDistThreshold + 1);
+    	if (numBlocks < 1 || numBlocks > SimHash.SIGNATURE_SIZE) {
+    		throw new IllegalArgumentException("invalid number of SimHash blocks:" + numBlocks);
+    	}
+    	
+    	//pigeonhole, pairs within threshold share a block only with more blocks than threshold
+    	if (numBlocks < hammingDistThreshold + 1) {
+    		throw new IllegalArgumentException("number of SimHash blocks " + numBlocks + 
+    			" should be more than hamming distance threshold " + hammingDistThreshold);
+    	}
+    	return numBlocks;
+    }
+    
+    /**
+     * Prefix filter for the similarity algorithm. Semantic similarity is not supported
+     * @param conf
+     * @return
+     */
+    private static PrefixFilter createPrefixFilter(Configuration conf) {
+    	String simAlgorithm = conf.get("similarity.algorithm", "cosine");
+    	if (!(simAlgorithm.equals("jaccard") || simAlgorithm.equals("cosine")) || 
+    			conf.getBoolean("vec.type.semantic", false)) {
+    		throw new IllegalArgumentException("prefix filter join supported only for jaccard and cosine similarity");
+    	}
+    	double minWeight = Math.min(Double.parseDouble(conf.get("jaccard.srcNonMatchingTermWeight", "1.0")),
+    			Double.parseDouble(conf.get("jaccard.trgNonMatchingTermWeight", "1.0")));
+    	return new PrefixFilter(simAlgorithm.equals("jaccard"), conf.getBoolean("vec.type.boolean", true), 
+    			Double.parseDouble(conf.get("similarity.threshold", "0.5")), minWeight, 
+    			conf.getInt("min.intersection.length", 2));
+    }
+    
+    /**
+     * Terms as matched by the similarity algorithm. Jaccard matches raw attributes
+     * @param items
+     * @param start
+     * @param jaccard
+     * @param countIncluded
+     * @return
+     */
+    private static String[] getJoinTerms(String[] items, int start, boolean jaccard, boolean countIncluded) {
+    	String[] terms = null;
+    	if (jaccard) {
+    		terms = new String[items.length - start];
+    		System.arraycopy(items, start, terms, 0, terms.length);
+    	} else {
+    		terms = getAttributeTerms(items, start, countIncluded);
+    	}
+    	return terms;
+    }
+    
+    /**
+     * Attribute terms, without the count if included
+     * @param items
+     * @param start
+     * @param countIncluded
+     * @return
+     */
+    private static String[] getAttributeTerms(String[] items, int start, boolean countIncluded) {
+    	String[] terms = new String[items.length - start];
+    	for (int i = start; i < items.length; ++i) {
+    		String term = items[i].trim();
+    		if (countIncluded) {
+    			int pos = term.indexOf(":");
+    			if (pos >= 0) {
+    				term = term.substring(0, pos);
+    			}
+    		}
+    		terms[i - start] = term;
+    	}
+    	return terms;
+    }
+    
+    /**
+     * Attribute weights, which are the counts if included, otherwise 1 for each occurence
+     * @param items
+     * @param start
+     * @param countIncluded
+     * @return
+     */
+    private static int[] getAttributeWeights(String[] items, int start, boolean countIncluded) {
+    	int[] weights = new int[items.length - start];
+    	for (int i = start; i < items.length; ++i) {
+    		weights[i - start] = 1;
+    		if (countIncluded) {
+    			String term = items[i].trim();
+    			int pos = term.indexOf(":");
+    			if (pos >= 0) {
+    				weights[i - start] = Integer.parseInt(term.substring(pos + 1));
+    			}
+    		}
+    	}
+    	return weights;
+    }
+    
     /**
      * @param args
      * @throws Exception
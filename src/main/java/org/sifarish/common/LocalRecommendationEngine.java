@@ -0,0 +1,550 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.sifarish.social.CorrelationStat;
+import org.sifarish.social.PearsonCorrelator;
+
+/**
+ * Runs the rating based recommendation pipeline of ItemRatingStat, PearsonCorrelator, UtilityPredictor and
+ * UtilityAggregator in a single JVM with all the data in memory, for data sets small enough to not need a 
+ * cluster. Takes the same configuration as the MR jobs, e.g. -conf reco.properties, the rating file 
+ * (item,user:rating,...) and an output directory. Output of each stage is written to the sub directories stat, 
+ * simi, utpr and utag, with the same records as the corresponding MR job output. Rating stat output is in input 
+ * order as with the map only job, and aggregated output is ordered by user ID and item ID as with a single reducer,
+ * so both can be compared with a plain diff. Correlation and prediction output of the MR jobs is in shuffle arrival 
+ * order within a reducer group, which is not deterministic, so those are only the same set of records and have to 
+ * be sorted before comparing. Work is spread across local.engine.thread.count threads
+ * @author pranab
+ *
+ */
+public class LocalRecommendationEngine extends Configured implements Tool {
+	private Configuration conf;
+	private String fieldDelim;
+	private String[] itemIDs;
+	private String[] userIDs;
+	private int[][] itemUsers;
+	private int[][] itemRatings;
+	private int[] itemRank;
+	private int[] itemOrder;
+	private int[] ratingStdDevs;
+	private int[][] correlations;
+	private int[][] userItems;
+	private int[][] userItemRatings;
+	private ExecutorService executor;
+	private int threadCount;
+	private static final int BLOCK_SIZE = 1024;
+	
+    @Override
+    public int run(String[] args) throws Exception   {
+    	conf = getConf();
+    	fieldDelim = conf.get("field.delim", ",");
+    	threadCount = conf.getInt("local.engine.thread.count", Runtime.getRuntime().availableProcessors());
+    	File outputDir = new File(args[1]);
+    	
+    	executor = Executors.newFixedThreadPool(threadCount);
+    	try {
+	    	loadRatings(new File(args[0]));
+	    	findRatingStat(new File(outputDir, "stat"));
+	    	findCorrelations(new File(outputDir, "simi"));
+	    	predictRatings(new File(outputDir, "utpr"));
+	    	aggregateRatings(new File(outputDir, "utag"));
+    	} finally {
+    		executor.shutdown();
+    	}
+    	return 0;
+    }
+    
+    /**
+     * Loads the rating file. User IDs are mapped to dense int indexes and users of each item are sorted 
+     * by index
+     * @param ratingFile
+     * @throws IOException
+     */
+    private void loadRatings(File ratingFile) throws IOException {
+    	String subFieldDelim = conf.get("subfield.delim", ":");
+    	List<String> items = new ArrayList<String>();
+    	List<int[]> users = new ArrayList<int[]>();
+    	List<int[]> ratings = new ArrayList<int[]>();
+    	Map<String, Integer> userIndexes = new HashMap<String, Integer>();
+    	List<String> userList = new ArrayList<String>();
+    	
+    	BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(ratingFile), "UTF-8"));
+    	try {
+	    	String line = null;
+	    	while ((line = reader.readLine()) != null) {
+	    		String[] fields = line.split(fieldDelim);
+	    		int size = fields.length - 1;
+	    		final int[] userIndex = new int[size];
+	    		int[] rating = new int[size];
+	    		for (int i = 0; i < size; ++i) {
+	    			String[] subFields = fields[i + 1].split(subFieldDelim);
+	    			Integer index = userIndexes.get(subFields[0]);
+	    			if (null == index) {
+	    				index = userList.size();
+	    				userIndexes.put(subFields[0], index);
+	    				userList.add(subFields[0]);
+	    			}
+	    			userIndex[i] = index;
+	    			rating[i] = Integer.parseInt(subFields[1]);
+	    		}
+	    		
+	    		//sort by user
+	    		Integer[] order = new Integer[size];
+	    		for (int i = 0; i < size; ++i) {
+	    			order[i] = i;
+	    		}
+	    		Arrays.sort(order, new Comparator<Integer>() {
+					@Override
+					public int compare(Integer first, Integer second) {
+						return userIndex[first] - userIndex[second];
+					}
+	    		});
+	    		int[] sortedUsers = new int[size];
+	    		int[] sortedRatings = new int[size];
+	    		for (int i = 0; i < size; ++i) {
+	    			sortedUsers[i] = userIndex[order[i]];
+	    			sortedRatings[i] = rating[order[i]];
+	    		}
+	    		items.add(fields[0]);
+	    		users.add(sortedUsers);
+	    		ratings.add(sortedRatings);
+	    	}
+    	} finally {
+    		reader.close();
+    	}
+    	
+    	itemIDs = items.toArray(new String[items.size()]);
+    	itemUsers = users.toArray(new int[users.size()][]);
+    	itemRatings = ratings.toArray(new int[ratings.size()][]);
+    	userIDs = userList.toArray(new String[userList.size()]);
+    	itemRank = rank(itemIDs);
+    	itemOrder = inverse(itemRank);
+    	
+    	//users to items
+    	int[] userItemCount = new int[userIDs.length];
+    	for (int[] itemUser : itemUsers) {
+    		for (int user : itemUser) {
+    			++userItemCount[user];
+    		}
+    	}
+    	userItems = new int[userIDs.length][];
+    	userItemRatings = new int[userIDs.length][];
+    	for (int u = 0; u < userIDs.length; ++u) {
+    		userItems[u] = new int[userItemCount[u]];
+    		userItemRatings[u] = new int[userItemCount[u]];
+    		userItemCount[u] = 0;
+    	}
+    	for (int i = 0; i < itemIDs.length; ++i) {
+    		for (int k = 0; k < itemUsers[i].length; ++k) {
+    			int user = itemUsers[i][k];
+    			userItems[user][userItemCount[user]] = i;
+    			userItemRatings[user][userItemCount[user]] = itemRatings[i][k];
+    			++userItemCount[user];
+    		}
+    	}
+    }
+    
+    /**
+     * @param ids
+     * @return rank of each ID in sorted order
+     */
+    private int[] rank(final String[] ids) {
+    	Integer[] order = new Integer[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return ids[first].compareTo(ids[second]);
+			}
+		});
+		int[] rank = new int[ids.length];
+		for (int i = 0; i < ids.length; ++i) {
+			rank[order[i]] = i;
+		}
+		return rank;
+    }
+    
+    /**
+     * @param rank
+     * @return indexes in rank order
+     */
+    private int[] inverse(int[] rank) {
+    	int[] order = new int[rank.length];
+    	for (int i = 0; i < rank.length; ++i) {
+    		order[rank[i]] = i;
+    	}
+    	return order;
+    }
+    
+    /**
+     * Same as ItemRatingStat
+     * @param outputDir
+     * @throws IOException
+     */
+    private void findRatingStat(File outputDir) throws IOException {
+    	ratingStdDevs = new int[itemIDs.length];
+    	Writer writer = createWriter(outputDir, "part-m-00000");
+    	try {
+	    	for (int i = 0; i < itemIDs.length; ++i) {
+	    		int ratingSum = 0;
+	    		int ratingSquareSum = 0;
+	    		for (int rating : itemRatings[i]) {
+	        		ratingSum += rating;
+	        		ratingSquareSum += (rating * rating);
+	    		}
+	    		int count = itemRatings[i].length;
+	    		int ratingMean = ratingSum / count;
+	        	int var = ratingSquareSum /  count -  ratingMean * ratingMean;
+	        	ratingStdDevs[i] = (int)Math.sqrt(var);
+	        	writer.write(itemIDs[i] + fieldDelim + ratingMean + fieldDelim + ratingStdDevs[i] + fieldDelim + count + "\n");
+	    	}
+    	} finally {
+    		writer.close();
+    	}
+    }
+    
+    /**
+     * Same as PearsonCorrelator, for all item pairs. Correlations with each item are kept as other item, 
+     * correlation and intersection length triplets for prediction
+     * @param outputDir
+     * @throws Exception
+     */
+    private void findCorrelations(File outputDir) throws Exception {
+    	final int ratingScale = conf.getInt("rating.scale", 100);
+    	final int corrScale = conf.getInt("correlation.scale", 1000);
+    	final int minRatingSetIntersection =  conf.getInt("min.rating.intersection.set", 3);
+    	final int[][] rowCorrelations = new int[itemIDs.length][];
+    	final CorrelationStat[] corrStats = new CorrelationStat[threadCount];
+    	for (int t = 0; t < threadCount; ++t) {
+    		corrStats[t] = new CorrelationStat();
+    	}
+    	
+    	runParallel(0, itemIDs.length, new RowTask() {
+			@Override
+			public void process(int i, int worker) {
+				CorrelationStat corrStat = corrStats[worker];
+				IntList row = new IntList();
+				for (int j = i + 1; j < itemIDs.length; ++j) {
+					findCommonRatings(i, j, ratingScale, corrStat);
+		        	if (corrStat.getCount() >= minRatingSetIntersection) {
+		        		int corr = corrStat.getCorrelation(corrScale);
+		        		if (corr > 0) {
+		        			row.add(j);
+		        			row.add(corr);
+		        			row.add((int)corrStat.getCount());
+		        		}
+		        	}
+				}
+				rowCorrelations[i] = row.toArray();
+			}
+    	});
+    	
+    	//items in different hash buckets are paired as in PearsonCorrelator, item with higher bucket first
+    	int bucketCount = conf.getInt("bucket.count", 10);
+    	int[] itemBuckets = new int[itemIDs.length];
+    	for (int i = 0; i < itemIDs.length; ++i) {
+        	itemBuckets[i] = PearsonCorrelator.getBucket(itemIDs[i], bucketCount);
+    	}
+    	
+    	//write and collect correlations of each item in both directions
+    	IntList[] itemCorrelations = new IntList[itemIDs.length];
+    	for (int i = 0; i < itemIDs.length; ++i) {
+    		itemCorrelations[i] = new IntList();
+    	}
+    	Writer writer = createWriter(outputDir, "part-r-00000");
+    	try {
+	    	for (int i = 0; i < itemIDs.length; ++i) {
+	    		int[] row = rowCorrelations[i];
+	    		for (int k = 0; k < row.length; k += 3) {
+	    			int j = row[k];
+	    			int first = itemBuckets[j] > itemBuckets[i] ? j : i;
+	    			int second = first == i ? j : i;
+	    			writer.write(itemIDs[first] + fieldDelim + itemIDs[second] + fieldDelim + row[k + 1] + fieldDelim + 
+	    				row[k + 2] + "\n");
+	    			itemCorrelations[i].add(j, row[k + 1], row[k + 2]);
+	    			itemCorrelations[j].add(i, row[k + 1], row[k + 2]);
+	    		}
+	    		rowCorrelations[i] = null;
+	    	}
+    	} finally {
+    		writer.close();
+    	}
+    	
+    	correlations = new int[itemIDs.length][];
+    	for (int i = 0; i < itemIDs.length; ++i) {
+    		correlations[i] = itemCorrelations[i].toArray();
+    	}
+    }
+    
+    /**
+     * Merges the sorted users of two items
+     * @param first
+     * @param second
+     * @param ratingScale
+     * @param corrStat
+     */
+    private void findCommonRatings(int first, int second, int ratingScale, CorrelationStat corrStat) {
+    	int[] usersOne = itemUsers[first];
+    	int[] usersTwo = itemUsers[second];
+    	corrStat.initialize();
+    	int i = 0;
+    	int j = 0;
+    	while (i < usersOne.length && j < usersTwo.length) {
+    		if (usersOne[i] == usersTwo[j]) {
+    			corrStat.accumulate(itemRatings[first][i] * ratingScale, itemRatings[second][j] * ratingScale);
+    			++i;
+    			++j;
+    		} else if (usersOne[i] < usersTwo[j]) {
+    			++i;
+    		} else {
+    			++j;
+    		}
+    	}
+    }
+    
+    /**
+     * Same as UtilityPredictor. Output is ordered by the item ID 
+     * @param outputDir
+     * @throws Exception
+     */
+    private void predictRatings(File outputDir) throws Exception {
+    	final boolean linearCorrelation = conf.getBoolean("correlation.linear", true);
+    	final int correlationScale = conf.getInt("correlation.linear.scale", 1000);
+    	final int maxRating = conf.getInt("max.rating", 100);
+    	final double correlationModifier = conf.getFloat("correlation.modifier", (float)1.0);
+    	final String[] blockOutput = new String[BLOCK_SIZE];
+    	
+    	Writer writer = createWriter(outputDir, "part-r-00000");
+    	try {
+	    	for (int start = 0; start < itemOrder.length; start += BLOCK_SIZE) {
+	    		final int blockStart = start;
+	    		int end = Math.min(start + BLOCK_SIZE, itemOrder.length);
+	    		runParallel(start, end, new RowTask() {
+					@Override
+					public void process(int r, int worker) {
+						int item = itemOrder[r];
+						int[] itemCorr = correlations[item];
+						StringBuilder stBld = new StringBuilder();
+						for (int k = 0; k < itemRatings[item].length; ++k) {
+							for (int c = 0; c < itemCorr.length; c += 3) {
+								int ratingCorr = linearCorrelation ? itemCorr[c + 1] : -itemCorr[c + 1];
+								ratingCorr = UtilityPredictor.modifyCorrelation(ratingCorr, correlationScale, correlationModifier);
+								int predRating = UtilityPredictor.predictRating(itemRatings[item][k], ratingCorr, 
+										linearCorrelation, correlationScale, maxRating);
+								if (predRating > 0) {
+									stBld.append(userIDs[itemUsers[item][k]]).append(fieldDelim).append(itemIDs[itemCorr[c]]).
+										append(fieldDelim).append(predRating).append(fieldDelim).append(itemCorr[c + 2]).
+										append(fieldDelim).append(ratingCorr).append(fieldDelim).append(ratingStdDevs[item]).
+										append("\n");
+								}
+							}
+						}
+						blockOutput[r - blockStart] = stBld.toString();
+					}
+	    		});
+	    		for (int r = start; r < end; ++r) {
+	    			writer.write(blockOutput[r - start]);
+	    			blockOutput[r - start] = null;
+	    		}
+	    	}
+    	} finally {
+    		writer.close();
+    	}
+    }
+    
+    /**
+     * Same as UtilityAggregator. Predictions are regenerated per user from the items rated by the user and 
+     * their correlations, so that they need not be kept in memory. Output is ordered by user ID and item ID
+     * @param outputDir
+     * @throws Exception
+     */
+    private void aggregateRatings(File outputDir) throws Exception {
+    	final int[] userOrder = inverse(rank(userIDs));
+    	final String[] blockOutput = new String[BLOCK_SIZE];
+    	final PredictionAggregator[] aggregators = new PredictionAggregator[threadCount];
+    	for (int t = 0; t < threadCount; ++t) {
+    		aggregators[t] = new PredictionAggregator(conf, itemIDs.length);
+    	}
+    	
+    	Writer writer = createWriter(outputDir, "part-r-00000");
+    	try {
+	    	for (int start = 0; start < userOrder.length; start += BLOCK_SIZE) {
+	    		final int blockStart = start;
+	    		int end = Math.min(start + BLOCK_SIZE, userOrder.length);
+	    		runParallel(start, end, new RowTask() {
+					@Override
+					public void process(int r, int worker) {
+						int user = userOrder[r];
+						PredictionAggregator aggregator = aggregators[worker];
+						aggregator.clear();
+						for (int k = 0; k < userItems[user].length; ++k) {
+							int item = userItems[user][k];
+							aggregator.predict(userItemRatings[user][k], correlations[item], ratingStdDevs[item]);
+						}
+						
+						//userID, itemID, score, count
+						int[] targets = sortByItemID(aggregator.getTargets());
+						StringBuilder stBld = new StringBuilder();
+						for (int target : targets) {
+							stBld.append(userIDs[user]).append(fieldDelim).append(itemIDs[target]).append(fieldDelim).
+								append(aggregator.getUtilityScore(target)).append(fieldDelim).
+								append(aggregator.getCount(target)).append("\n");
+						}
+						blockOutput[r - blockStart] = stBld.toString();
+					}
+	    		});
+	    		for (int r = start; r < end; ++r) {
+	    			writer.write(blockOutput[r - start]);
+	    			blockOutput[r - start] = null;
+	    		}
+	    	}
+    	} finally {
+    		writer.close();
+    	}
+    }
+    
+    /**
+     * @param items
+     * @return items sorted by item ID
+     */
+    private int[] sortByItemID(int[] items) {
+		for (int i = 0; i < items.length; ++i) {
+			items[i] = itemRank[items[i]];
+		}
+		Arrays.sort(items);
+		for (int i = 0; i < items.length; ++i) {
+			items[i] = itemOrder[items[i]];
+		}
+		return items;
+    }
+    
+    /**
+     * Processes rows in the range with all the threads
+     * @param start
+     * @param end
+     * @param task
+     * @throws Exception
+     */
+    private void runParallel(int start, final int end, final RowTask task) throws Exception {
+    	final AtomicInteger nextRow = new AtomicInteger(start);
+    	List<Future<?>> futures = new ArrayList<Future<?>>();
+    	for (int t = 0; t < threadCount; ++t) {
+    		final int worker = t;
+    		futures.add(executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					for (int row = nextRow.getAndIncrement(); row < end; row = nextRow.getAndIncrement()) {
+						task.process(row, worker);
+					}
+				}
+    		}));
+    	}
+    	for (Future<?> future : futures) {
+    		future.get();
+    	}
+    }
+    
+    /**
+     * @param outputDir
+     * @param fileName
+     * @return
+     * @throws IOException
+     */
+    private Writer createWriter(File outputDir, String fileName) throws IOException {
+    	if (!outputDir.exists() && !outputDir.mkdirs()) {
+    		throw new IOException("failed to create output directory " + outputDir);
+    	}
+    	return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outputDir, fileName)), "UTF-8"));
+    }
+    
+    /**
+     * Processing of one row, by one of the worker threads
+     * @author pranab
+     *
+     */
+    private static interface RowTask {
+    	public void process(int row, int worker);
+    }
+    
+    /**
+     * Growable int array
+     * @author pranab
+     *
+     */
+    private static class IntList {
+    	private int[] values = new int[8];
+    	private int size;
+    	
+    	public void add(int value) {
+    		if (size == values.length) {
+    			values = Arrays.copyOf(values, 2 * size);
+    		}
+    		values[size++] = value;
+    	}
+    	
+    	public void add(int first, int second, int third) {
+    		add(first);
+    		add(second);
+    		add(third);
+    	}
+    	
+    	public void clear() {
+    		size = 0;
+    	}
+    	
+    	public int[] toArray() {
+    		return Arrays.copyOf(values, size);
+    	}
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new LocalRecommendationEngine(), args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,483 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+import org.chombo.util.Utility;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.sifarish.feature.TopMatchAccumulator;
+import org.sifarish.social.CorrelationStat;
+
+/**
+ * Long running process that tails an engagement event log (userID,itemID,eventType) and keeps item pair 
+ * correlation statistics up to date. Implicit rating of an user for an item is derived from the most engaging
+ * event type and its count, as in ImplicitRatingEstimator. Events are partitioned by user across worker threads,
+ * so that user state is owned by one thread. When a rating changes, statistics of all pairs of the item with the 
+ * other items rated by the user are updated, in a concurrent map with a lock per pair. Top neighbors of 
+ * each item are written periodically to the snapshot file as item,neighbor,correlation,weight, with the same 
+ * correlation as PearsonCorrelator. The snapshot is written to a temporary file and renamed. Events with invalid
+ * event type are logged and skipped. If a worker fails, the process fails instead of waiting on it
+ * @author pranab
+ *
+ */
+public class OnlineItemSimilarityUpdater extends Configured implements Tool {
+	private Configuration conf;
+	private String fieldDelimRegex;
+	private String fieldDelim;
+	private int ratingScale;
+	private EngagementToPreferenceMapper ratingMapper;
+	private ConcurrentHashMap<String, Integer> itemIndexes = new ConcurrentHashMap<String, Integer>();
+	private ConcurrentHashMap<Integer, String> itemIDs = new ConcurrentHashMap<Integer, String>();
+	private AtomicInteger nextItemIndex = new AtomicInteger();
+	private ConcurrentHashMap<Long, CorrelationStat> pairStats;
+	private AtomicLong eventCount = new AtomicLong();
+	private AtomicLong invalidEventCount = new AtomicLong();
+	private List<BlockingQueue<List<String>>> queues = new ArrayList<BlockingQueue<List<String>>>();
+	private volatile boolean running = true;
+	private volatile Throwable workerFailure;
+	private int pollInterval;
+	private CountDownLatch finished = new CountDownLatch(1);
+	private static final List<String> END_OF_EVENTS = new ArrayList<String>();
+	private static final Logger LOG = Logger.getLogger(OnlineItemSimilarityUpdater.class);
+	
+    @Override
+    public int run(String[] args) throws Exception   {
+    	conf = getConf();
+    	fieldDelimRegex = conf.get("field.delim.regex", ",");
+    	fieldDelim = conf.get("field.delim", ",");
+    	ratingScale = conf.getInt("rating.scale", 100);
+    	int workerCount = conf.getInt("online.worker.count", Runtime.getRuntime().availableProcessors());
+    	int batchSize = conf.getInt("online.batch.size", 1000);
+    	pollInterval = conf.getInt("online.poll.interval.ms", 200);
+    	int snapshotInterval = conf.getInt("online.snapshot.interval.sec", 10);
+    	boolean stopAtEof = conf.getBoolean("online.stop.at.eof", false);
+    	pairStats = new ConcurrentHashMap<Long, CorrelationStat>(1024, 0.75f, 4 * workerCount);
+    	
+    	InputStream fs  = Utility.getFileStream(conf, "rating.mapper.config.path"); 
+        ObjectMapper mapper = new ObjectMapper();
+        ratingMapper = mapper.readValue(fs, EngagementToPreferenceMapper.class);
+        
+        //stop tailing on shutdown and let the events already read get processed
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stop();
+				try {
+					finished.await(60, TimeUnit.SECONDS);
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+        }, "similarity-updater-shutdown"));
+        
+        //workers
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int i = 0; i < workerCount; ++i) {
+        	BlockingQueue<List<String>> queue = new ArrayBlockingQueue<List<String>>(64);
+        	queues.add(queue);
+        	Thread worker = new Thread(new Worker(queue), "similarity-worker-" + i);
+        	workers.add(worker);
+        	worker.start();
+        }
+        
+        //periodic snapshot
+        final File snapshotFile = new File(args[1]);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					writeSnapshot(snapshotFile);
+				} catch (IOException ex) {
+					LOG.error("failed to write snapshot", ex);
+				}
+			}
+        }, snapshotInterval, snapshotInterval, TimeUnit.SECONDS);
+        
+        try {
+	        try {
+	        	tail(new File(args[0]), workerCount, batchSize, pollInterval, stopAtEof);
+	        	for (BlockingQueue<List<String>> queue : queues) {
+	        		dispatch(queue, END_OF_EVENTS);
+	        	}
+	        	for (Thread worker : workers) {
+	        		worker.join();
+	        	}
+	        	checkWorkers();
+	        } finally {
+	        	scheduler.shutdown();
+	        	scheduler.awaitTermination(snapshotInterval, TimeUnit.SECONDS);
+	        	for (Thread worker : workers) {
+	        		worker.interrupt();
+	        	}
+	        }
+	        writeSnapshot(snapshotFile);
+        } finally {
+        	finished.countDown();
+        }
+        return 0;
+    }
+    
+    /**
+     * Hands over a batch to a worker, without blocking indefinitely on a failed worker
+     * @param queue
+     * @param batch
+     * @throws Exception
+     */
+    private void dispatch(BlockingQueue<List<String>> queue, List<String> batch) throws Exception {
+    	while (!queue.offer(batch, pollInterval, TimeUnit.MILLISECONDS)) {
+    		checkWorkers();
+    	}
+    }
+    
+    /**
+     * @throws IllegalStateException if any worker has failed
+     */
+    private void checkWorkers() {
+    	if (null != workerFailure) {
+    		throw new IllegalStateException("similarity worker failed", workerFailure);
+    	}
+    }
+    
+    /**
+     * Reads the event log as it grows and dispatches batches of events to workers by user. Incomplete 
+     * last line is held back until the rest of it is written
+     * @param eventFile
+     * @param workerCount
+     * @param batchSize
+     * @param pollInterval
+     * @param stopAtEof
+     * @throws Exception
+     */
+    private void tail(File eventFile, int workerCount, int batchSize, int pollInterval, boolean stopAtEof) 
+    	throws Exception {
+    	List<List<String>> batches = new ArrayList<List<String>>();
+    	for (int i = 0; i < workerCount; ++i) {
+    		batches.add(new ArrayList<String>(batchSize));
+    	}
+    	
+    	Reader reader = new InputStreamReader(new FileInputStream(eventFile), "UTF-8");
+    	try {
+	    	char[] buffer = new char[64 * 1024];
+	    	StringBuilder line = new StringBuilder();
+	    	while (running) {
+	    		int count = reader.read(buffer);
+	    		if (count < 0) {
+	    			//caught up, hand over partial batches
+	    			flush(batches, batchSize);
+	    			if (stopAtEof) {
+	    				break;
+	    			}
+	    			checkWorkers();
+	    			Thread.sleep(pollInterval);
+	    			continue;
+	    		}
+	    		
+	    		for (int c = 0; c < count; ++c) {
+	    			if (buffer[c] == '\n') {
+	    				if (line.length() > 0) {
+	    					String event = line.toString();
+	    					int worker = getWorker(event, workerCount);
+	    					List<String> batch = batches.get(worker);
+	    					batch.add(event);
+	    					if (batch.size() == batchSize) {
+	    						dispatch(queues.get(worker), batch);
+	    						batches.set(worker, new ArrayList<String>(batchSize));
+	    					}
+	    					line.setLength(0);
+	    				}
+	    			} else if (buffer[c] != '\r') {
+	    				line.append(buffer[c]);
+	    			}
+	    		}
+	    	}
+	    	
+	    	//stopped, events already read still get processed
+	    	flush(batches, batchSize);
+    	} finally {
+    		reader.close();
+    	}
+    }
+    
+    /**
+     * Hands over non empty partial batches to workers
+     * @param batches
+     * @param batchSize
+     * @throws Exception
+     */
+    private void flush(List<List<String>> batches, int batchSize) throws Exception {
+		for (int i = 0; i < batches.size(); ++i) {
+			if (!batches.get(i).isEmpty()) {
+				dispatch(queues.get(i), batches.get(i));
+				batches.set(i, new ArrayList<String>(batchSize));
+			}
+		}
+    }
+    
+    /**
+     * @param event
+     * @param workerCount
+     * @return worker for the user of the event
+     */
+    private int getWorker(String event, int workerCount) {
+    	int pos = event.indexOf(fieldDelim);
+    	String userID = pos > 0 ? event.substring(0, pos) : event;
+    	return (userID.hashCode() & Integer.MAX_VALUE) % workerCount;
+    }
+    
+    /**
+     * Stops tailing, the process finishes after the events already read are processed
+     */
+    public void stop() {
+    	running = false;
+    }
+    
+    /**
+     * @param itemID
+     * @return dense index for the item
+     */
+    private int getItemIndex(String itemID) {
+    	Integer index = itemIndexes.get(itemID);
+    	if (null == index) {
+    		//reverse mapping first, so that the ID of any published index is resolved
+    		Integer newIndex = nextItemIndex.getAndIncrement();
+    		itemIDs.put(newIndex, itemID);
+    		index = itemIndexes.putIfAbsent(itemID, newIndex);
+    		if (null == index) {
+    			index = newIndex;
+    		} else {
+    			itemIDs.remove(newIndex);
+    		}
+    	}
+    	return index;
+    }
+    
+    /**
+     * Replaces the contribution of an user to the statistics of an item pair
+     * @param item
+     * @param ratedBefore true if the user has rated the item before
+     * @param oldRating
+     * @param newRating
+     * @param other
+     * @param otherRating
+     */
+    private void updatePairStat(int item, boolean ratedBefore, int oldRating, int newRating, int other, int otherRating) {
+    	boolean itemFirst = item < other;
+    	long key = itemFirst ? ((long)item << 32) | other : ((long)other << 32) | item;
+    	CorrelationStat stat = pairStats.get(key);
+    	if (null == stat) {
+    		CorrelationStat newStat = new CorrelationStat();
+    		newStat.initialize();
+    		stat = pairStats.putIfAbsent(key, newStat);
+    		if (null == stat) {
+    			stat = newStat;
+    		}
+    	}
+    	
+    	synchronized (stat) {
+    		if (ratedBefore) {
+    			if (itemFirst) {
+    				stat.remove(oldRating, otherRating);
+    			} else {
+    				stat.remove(otherRating, oldRating);
+    			}
+    		}
+			if (itemFirst) {
+				stat.accumulate(newRating, otherRating);
+			} else {
+				stat.accumulate(otherRating, newRating);
+			}
+    	}
+    }
+    
+    /**
+     * Top neighbors of all items
+     * @param snapshotFile
+     * @throws IOException
+     */
+    private void writeSnapshot(File snapshotFile) throws IOException {
+    	int corrScale = conf.getInt("correlation.scale", 1000);
+    	int minRatingSetIntersection =  conf.getInt("min.rating.intersection.set", 3);
+    	TopMatchAccumulator topMatches = new TopMatchAccumulator(true, conf.getInt("top.match.count", 10), 0);
+    	for (Map.Entry<Long, CorrelationStat> entry : pairStats.entrySet()) {
+    		CorrelationStat stat = entry.getValue();
+    		int corr = 0;
+    		long weight = 0;
+    		synchronized (stat) {
+    			weight = stat.getCount();
+    			if (weight >= minRatingSetIntersection) {
+    				corr = stat.getCorrelation(corrScale);
+    			}
+    		}
+    		if (corr > 0) {
+    			String first = itemIDs.get((int)(entry.getKey() >>> 32));
+    			String second = itemIDs.get((int)(entry.getKey() & 0xffffffffL));
+    			topMatches.add(first, corrScale - corr, second + fieldDelim + corr + fieldDelim + weight);
+    			topMatches.add(second, corrScale - corr, first + fieldDelim + corr + fieldDelim + weight);
+    		}
+    	}
+    	
+    	File tempFile = new File(snapshotFile.getPath() + ".tmp");
+    	Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tempFile), "UTF-8"));
+    	try {
+    		for (String itemID : topMatches.getSourceIds()) {
+    			for (TopMatchAccumulator.Match match : topMatches.getTopMatches(itemID)) {
+    				writer.write(itemID + fieldDelim + match.getValue() + "\n");
+    			}
+    		}
+    	} finally {
+    		writer.close();
+    	}
+    	if (!tempFile.renameTo(snapshotFile)) {
+    		throw new IOException("failed to rename snapshot file " + tempFile);
+    	}
+    	LOG.info("snapshot written events:" + eventCount.get() + " invalid events:" + invalidEventCount.get() + 
+    		" pairs:" + pairStats.size() + 
+    		" items:" + topMatches.getSourceIds().size());
+    }
+    
+    /**
+     * Processes events of a partition of users
+     * @author pranab
+     *
+     */
+    private class Worker implements Runnable {
+    	private BlockingQueue<List<String>> queue;
+    	private Map<String, Map<Integer, int[]>> userRatings = new HashMap<String, Map<Integer, int[]>>();
+    	private static final int EVENT_TYPE = 0;
+    	private static final int EVENT_COUNT = 1;
+    	private static final int RATING = 2;
+    	
+    	public Worker(BlockingQueue<List<String>> queue) {
+    		this.queue = queue;
+    	}
+    	
+		@Override
+		public void run() {
+			try {
+				for (List<String> batch = queue.take(); batch != END_OF_EVENTS; batch = queue.take()) {
+					for (String event : batch) {
+						try {
+							process(event);
+						} catch (IllegalArgumentException ex) {
+							//bad event type, skip it
+							LOG.warn("invalid event " + event + " " + ex.getMessage());
+							invalidEventCount.incrementAndGet();
+						}
+					}
+					eventCount.addAndGet(batch.size());
+				}
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+			} catch (RuntimeException ex) {
+				//tailer fails instead of waiting on this worker
+				LOG.error("similarity worker failed", ex);
+				workerFailure = ex;
+				running = false;
+			}
+		}
+		
+		/**
+		 * @param event
+		 */
+		private void process(String event) {
+			String[] items = event.split(fieldDelimRegex);
+			if (items.length < 3) {
+				LOG.warn("invalid event " + event);
+				return;
+			}
+			int eventType = Integer.parseInt(items[2]);
+			Map<Integer, int[]> ratings = userRatings.get(items[0]);
+			if (null == ratings) {
+				ratings = new HashMap<Integer, int[]>();
+				userRatings.put(items[0], ratings);
+			}
+			int item = getItemIndex(items[1]);
+			int[] state = ratings.get(item);
+			int count = 1;
+			if (null != state) {
+				if (eventType == state[EVENT_TYPE]) {
+					count = state[EVENT_COUNT] + 1;
+				} else if (eventType > state[EVENT_TYPE]) {
+					//less engaging event
+					return;
+				}
+			}
+			
+			//score before updating state, so that an invalid event type leaves the state as is
+			int newRating = ratingMapper.scoreForEvent(eventType, count) * ratingScale;
+			boolean ratedBefore = null != state;
+			int oldRating = 0;
+			if (!ratedBefore) {
+				state = new int[] {eventType, count, 0};
+				ratings.put(item, state);
+			} else {
+				oldRating = state[RATING];
+				state[EVENT_TYPE] = eventType;
+				state[EVENT_COUNT] = count;
+			}
+			
+			//a first rating is accumulated even if it's 0
+			if (!ratedBefore || newRating != oldRating) {
+				state[RATING] = newRating;
+				for (Map.Entry<Integer, int[]> entry : ratings.entrySet()) {
+					if (entry.getKey() != item) {
+						updatePairStat(item, ratedBefore, oldRating, newRating, entry.getKey(), entry.getValue()[RATING]);
+					}
+				}
+			}
+		}
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new OnlineItemSimilarityUpdater(), args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.sifarish.util.OntologyIndex;
+
+import com.hp.hpl.jena.rdf.model.Model;
+import com.hp.hpl.jena.rdf.model.ModelFactory;
+import com.hp.hpl.jena.rdf.model.RDFNode;
+import com.hp.hpl.jena.rdf.model.Resource;
+import com.hp.hpl.jena.rdf.model.Statement;
+import com.hp.hpl.jena.rdf.model.StmtIterator;
+
+/**
+ * Compiles an RDF model into an OntologyIndex, for ResourceDescribedEntity to match tags without traversing 
+ * the model. Every statement with a resource object is an edge, as in the traversal. Takes the RDF file path 
+ * and the index file path
+ * @author pranab
+ *
+ */
+public class OntologyIndexBuilder extends Configured implements Tool {
+
+    @Override
+    public int run(String[] args) throws Exception   {
+    	Configuration conf = getConf();
+		FileSystem dfs = FileSystem.get(conf);
+        FSDataInputStream input = dfs.open(new Path(args[0]));
+        Model model = ModelFactory.createDefaultModel();	
+        try {
+        	model.read(input, "");
+        } finally {
+        	input.close();
+        }
+        
+        OntologyIndex.Builder builder = build(model);
+        FSDataOutputStream output = dfs.create(new Path(args[1]), true);
+        try {
+        	builder.write(output);
+        } finally {
+        	output.close();
+        }
+    	return 0;
+    }
+    
+    /**
+     * @param model
+     * @return
+     */
+    public static OntologyIndex.Builder build(Model model) {
+    	OntologyIndex.Builder builder = new OntologyIndex.Builder();
+    	StmtIterator iter = model.listStatements();
+		while (iter.hasNext()) {
+		    Statement stmt = iter.nextStatement();  
+		    int subject = addNode(builder, stmt.getSubject(), model);
+		    RDFNode object = stmt.getObject();
+		    if (object.isResource()) {
+		    	builder.addEdge(subject, addNode(builder, (Resource)object, model));
+		    }
+		}
+		return builder;
+    }
+    
+    /**
+     * @param builder
+     * @param resource
+     * @param model
+     * @return
+     */
+    private static int addNode(OntologyIndex.Builder builder, Resource resource, Model model) {
+    	boolean named = !resource.isAnon();
+    	int count = builder.getNodeCount();
+    	int node = builder.addNode(named ? resource.getURI() : resource.toString(), named);
+    	if (node == count) {
+    		builder.setContext(node, ResourceDescribedEntity.resourceToString(resource, model));
+    	}
+    	return node;
+    }
+    
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new OntologyIndexBuilder(), args);
+        System.exit(exitCode);
+	}
+}
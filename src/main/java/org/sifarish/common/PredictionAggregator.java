@@ -0,0 +1,179 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Predicts ratings of an user for items correlated with the items rated by the user and aggregates them 
+ * per target item, with the same integer arithmetic as UtilityPredictor followed by UtilityAggregator. Items 
+ * are dense int indexes. Correlations of an item are other item, correlation and intersection length triplets.
+ * State is indexed by target item and reset only for the targets touched
+ * @author pranab
+ *
+ */
+public class PredictionAggregator {
+	private boolean linearCorrelation;
+	private int correlationScale;
+	private int maxRating;
+	private double correlationModifier;
+	private boolean corrLengthWeightedAverage;
+	private boolean inputRatingStdDevWeightedAverage;
+	private boolean ratingAggregatorAverage;
+	private int corrScale;
+	private int maxStdDev;
+	private int[] sums;
+	private int[] weightSums;
+	private int[] counts;
+	private int[][] predRatings;
+	private int[] targets;
+	private int targetCount;
+	
+	/**
+	 * @param conf
+	 * @param itemCount
+	 */
+	public PredictionAggregator(Configuration conf, int itemCount) {
+    	linearCorrelation = conf.getBoolean("correlation.linear", true);
+    	correlationScale = conf.getInt("correlation.linear.scale", 1000);
+    	maxRating = conf.getInt("max.rating", 100);
+    	correlationModifier = conf.getFloat("correlation.modifier", (float)1.0);
+    	corrLengthWeightedAverage = conf.getBoolean("corr.length.weighted.average", true);
+    	inputRatingStdDevWeightedAverage = conf.getBoolean("input.rating.stdDev.weighted.average", true);
+    	ratingAggregatorAverage = conf.getBoolean("rating.aggregator.average", true);
+    	corrScale = conf.getInt("correlation.scale", 1000);
+    	maxStdDev = (35 * maxRating)  / 100;
+    	
+		sums = new int[itemCount];
+		weightSums = new int[itemCount];
+		counts = new int[itemCount];
+		predRatings = new int[itemCount][];
+		targets = new int[16];
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		for (int i = 0; i < targetCount; ++i) {
+			int target = targets[i];
+			sums[target] = weightSums[target] = counts[target] = 0;
+		}
+		targetCount = 0;
+	}
+	
+	/**
+	 * Predicts and aggregates ratings for all items correlated with a rated item
+	 * @param rating
+	 * @param itemCorr
+	 * @param ratingStdDev std dev of ratings of the rated item, -1 if not known
+	 */
+	public void predict(int rating, int[] itemCorr, int ratingStdDev) {
+		for (int c = 0; c < itemCorr.length; c += 3) {
+			int ratingCorr = linearCorrelation ? itemCorr[c + 1] : -itemCorr[c + 1];
+			ratingCorr = UtilityPredictor.modifyCorrelation(ratingCorr, correlationScale, correlationModifier);
+			int predRating = UtilityPredictor.predictRating(rating, ratingCorr, linearCorrelation, correlationScale, maxRating);
+			if (predRating > 0) {
+				int target = itemCorr[c];
+				if (ratingAggregatorAverage) {
+					if (corrLengthWeightedAverage) {
+						add(target, predRating * itemCorr[c + 2], itemCorr[c + 2]);
+					} else if (inputRatingStdDevWeightedAverage) {
+						if (ratingStdDev < 0) {
+							throw new IllegalStateException("No rating std dev found");
+						}
+						int normStdDev = UtilityAggregator.invMapStdDev(ratingStdDev, maxStdDev);
+						add(target, predRating * normStdDev, normStdDev);
+					} else {
+						add(target, predRating, 1);
+					}
+				} else {
+					add(target, predRating, 0);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param target
+	 * @param value
+	 * @param weight
+	 */
+	private void add(int target, int value, int weight) {
+		if (counts[target] == 0) {
+			if (targetCount == targets.length) {
+				targets = Arrays.copyOf(targets, 2 * targetCount);
+			}
+			targets[targetCount++] = target;
+		}
+		if (ratingAggregatorAverage) {
+			sums[target] += value;
+			weightSums[target] += weight;
+		} else {
+			//keep all for median
+			if (null == predRatings[target]) {
+				predRatings[target] = new int[4];
+			} else if (counts[target] == predRatings[target].length) {
+				predRatings[target] = Arrays.copyOf(predRatings[target], 2 * counts[target]);
+			}
+			predRatings[target][counts[target]] = value;
+		}
+		++counts[target];
+	}
+	
+	/**
+	 * @return target items with at least one prediction
+	 */
+	public int[] getTargets() {
+		return Arrays.copyOf(targets, targetCount);
+	}
+	
+	/**
+	 * @param target
+	 * @return
+	 */
+	public int getCount(int target) {
+		return counts[target];
+	}
+
+	/**
+	 * Average or median based utility score, same as UtilityAggregator
+	 * @param target
+	 * @return
+	 */
+	public int getUtilityScore(int target) {
+		int utilityScore = 0;
+		if (ratingAggregatorAverage) {
+			utilityScore = sums[target] / weightSums[target];
+		} else {
+			int count = counts[target];
+			int[] ratings = predRatings[target];
+			int medianRating = 0;
+			if (count > 1) {
+				Arrays.sort(ratings, 0, count);
+				medianRating = count % 2 == 1 ? ratings[count / 2] : (ratings[count / 2 - 1] + ratings[count / 2]) / 2;
+			} else {
+				medianRating = ratings[0];
+			}
+			utilityScore = medianRating * corrScale;
+		}
+		return utilityScore;
+	}
+}
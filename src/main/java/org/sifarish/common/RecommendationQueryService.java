@@ -0,0 +1,243 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded query service for top N recommendations of an user, over a RecommendationSnapshot. A new snapshot 
+ * is loaded on the side and swapped in atomically, so that queries are never blocked. Can be used through 
+ * the java API or as a local HTTP service started with the snapshot path as argument, with 
+ * GET /recommendations?user=U&count=N&exclude=I1,I2 returning itemID,score lines and 
+ * POST /reload loading a new snapshot from the same path. The HTTP service listens on loopback unless 
+ * query.service.host is set, and count is limited to query.service.max.count
+ * @author pranab
+ *
+ */
+public class RecommendationQueryService extends Configured implements Tool {
+	private AtomicReference<RecommendationSnapshot> snapshot = new AtomicReference<RecommendationSnapshot>();
+	private String fieldDelim = ",";
+	private String snapshotPath;
+	private int defaultCount = 10;
+	private int maxCount = 1000;
+	private HttpServer server;
+	private static final Logger LOG = Logger.getLogger(RecommendationQueryService.class);
+	
+	/**
+	 * 
+	 */
+	public RecommendationQueryService() {
+	}
+	
+	/**
+	 * @param fieldDelim
+	 */
+	public RecommendationQueryService(String fieldDelim) {
+		this.fieldDelim = fieldDelim;
+	}
+	
+	/**
+	 * Loads a new snapshot and swaps it in. Queries in progress complete on the old snapshot
+	 * @param path
+	 * @throws IOException
+	 */
+	public void reload(String path) throws IOException {
+		long start = System.currentTimeMillis();
+		RecommendationSnapshot newSnapshot = RecommendationSnapshot.load(new File(path), fieldDelim);
+		snapshot.set(newSnapshot);
+		snapshotPath = path;
+		LOG.info("loaded snapshot " + path + " users:" + newSnapshot.getUserCount() + " recommendations:" + 
+			newSnapshot.getRecommendationCount() + " time:" + (System.currentTimeMillis() - start));
+	}
+	
+	/**
+	 * @param userID
+	 * @param count
+	 * @param excludedItems may be null
+	 * @return top items for the user, best first
+	 */
+	public List<RecommendationSnapshot.Recommendation> getTopItems(String userID, int count, Set<String> excludedItems) {
+		RecommendationSnapshot current = snapshot.get();
+		if (null == current) {
+			throw new IllegalStateException("no snapshot loaded");
+		}
+		return current.getTopItems(userID, count, excludedItems);
+	}
+	
+	/**
+	 * Starts HTTP service
+	 * @param host address to bind to
+	 * @param port
+	 * @param threadCount
+	 * @throws IOException
+	 */
+	public void start(String host, int port, int threadCount) throws IOException {
+		server = HttpServer.create(new InetSocketAddress(host, port), 0);
+		server.createContext("/recommendations", new QueryHandler());
+		server.createContext("/reload", new ReloadHandler());
+		server.setExecutor(Executors.newFixedThreadPool(threadCount));
+		server.start();
+		LOG.info("query service started on " + host + ":" + port);
+	}
+	
+	/**
+	 * 
+	 */
+	public void stop() {
+		if (null != server) {
+			server.stop(0);
+		}
+	}
+	
+    @Override
+    public int run(String[] args) throws Exception   {
+    	Configuration conf = getConf();
+    	fieldDelim = conf.get("field.delim", ",");
+    	defaultCount = conf.getInt("query.service.default.count", 10);
+    	maxCount = conf.getInt("query.service.max.count", 1000);
+    	reload(args.length > 0 ? args[0] : conf.get("query.service.snapshot.path"));
+    	start(conf.get("query.service.host", "127.0.0.1"), conf.getInt("query.service.port", 8090), 
+    		conf.getInt("query.service.thread.count", Runtime.getRuntime().availableProcessors()));
+    	return 0;
+    }
+    
+    /**
+     * @param exchange
+     * @return query parameters
+     * @throws IOException
+     */
+    private static Map<String, String> getParams(HttpExchange exchange) throws IOException {
+    	Map<String, String> params = new HashMap<String, String>();
+    	String query = exchange.getRequestURI().getRawQuery();
+    	if (null != query) {
+    		for (String param : query.split("&")) {
+    			int pos = param.indexOf('=');
+    			if (pos > 0) {
+    				params.put(param.substring(0, pos), URLDecoder.decode(param.substring(pos + 1), "UTF-8"));
+    			}
+    		}
+    	}
+    	return params;
+    }
+    
+    /**
+     * @param exchange
+     * @param status
+     * @param body
+     * @throws IOException
+     */
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+    	byte[] bytes = body.getBytes("UTF-8");
+    	exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+    	exchange.sendResponseHeaders(status, bytes.length);
+    	OutputStream out = exchange.getResponseBody();
+    	try {
+    		out.write(bytes);
+    	} finally {
+    		out.close();
+    	}
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    private class QueryHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			Map<String, String> params = getParams(exchange);
+			String userID = params.get("user");
+			if (null == userID) {
+				respond(exchange, 400, "missing user\n");
+				return;
+			}
+			int count = defaultCount;
+			if (params.containsKey("count")) {
+				try {
+					count = Integer.parseInt(params.get("count"));
+				} catch (NumberFormatException ex) {
+					respond(exchange, 400, "invalid count\n");
+					return;
+				}
+			}
+			count = Math.max(0, Math.min(count, maxCount));
+			Set<String> excludedItems = null;
+			if (params.containsKey("exclude")) {
+				excludedItems = new HashSet<String>(Arrays.asList(params.get("exclude").split(",")));
+			}
+			
+			StringBuilder stBld = new StringBuilder();
+			for (RecommendationSnapshot.Recommendation rec : getTopItems(userID, count, excludedItems)) {
+				stBld.append(rec.getItemID()).append(fieldDelim).append(rec.getScore()).append("\n");
+			}
+			respond(exchange, 200, stBld.toString());
+		}
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    private class ReloadHandler implements HttpHandler {
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			if (!exchange.getRequestMethod().equals("POST")) {
+				respond(exchange, 405, "use POST\n");
+				return;
+			}
+			try {
+				//only the snapshot path the service was started with
+				reload(snapshotPath);
+				respond(exchange, 200, "reloaded\n");
+			} catch (IOException ex) {
+				LOG.error("failed to load snapshot", ex);
+				respond(exchange, 500, "failed to load snapshot\n");
+			}
+		}
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        ToolRunner.run(new RecommendationQueryService(), args);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable recommendations of all users, loaded from UtilityAggregator or BusinessGoalInjector output 
+ * (userID,itemID,score,...). Items of each user are kept sorted by descending score in primitive arrays, 
+ * with the user's range given by an offset array, so that top N is a scan from the start of the range
+ * @author pranab
+ *
+ */
+public class RecommendationSnapshot {
+	private Map<String, Integer> userIndexes;
+	private String[] itemIDs;
+	private int[] offsets;
+	private int[] items;
+	private int[] scores;
+	
+	/**
+	 * @param userIndexes
+	 * @param itemIDs
+	 * @param offsets
+	 * @param items
+	 * @param scores
+	 */
+	private RecommendationSnapshot(Map<String, Integer> userIndexes, String[] itemIDs, int[] offsets, int[] items, 
+			int[] scores) {
+		this.userIndexes = userIndexes;
+		this.itemIDs = itemIDs;
+		this.offsets = offsets;
+		this.items = items;
+		this.scores = scores;
+	}
+	
+	/**
+	 * Loads from a file or all the files in a directory
+	 * @param path
+	 * @param fieldDelim
+	 * @return
+	 * @throws IOException
+	 */
+	public static RecommendationSnapshot load(File path, String fieldDelim) throws IOException {
+		Map<String, Integer> userIndexes = new HashMap<String, Integer>();
+		Map<String, Integer> itemIndexes = new HashMap<String, Integer>();
+		List<String> itemList = new ArrayList<String>();
+		int[] users = new int[1024];
+		int[] items = new int[1024];
+		int[] scores = new int[1024];
+		int size = 0;
+		
+		List<File> files = new ArrayList<File>();
+		if (path.isDirectory()) {
+			for (File file : path.listFiles()) {
+				if (file.isFile() && !file.getName().startsWith("_") && !file.getName().startsWith(".")) {
+					files.add(file);
+				}
+			}
+		} else {
+			files.add(path);
+		}
+		for (File file : files) {
+			BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			try {
+				String line = null;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(fieldDelim);
+					if (size == users.length) {
+						users = Arrays.copyOf(users, 2 * size);
+						items = Arrays.copyOf(items, 2 * size);
+						scores = Arrays.copyOf(scores, 2 * size);
+					}
+					users[size] = getIndex(userIndexes, null, fields[0]);
+					items[size] = getIndex(itemIndexes, itemList, fields[1]);
+					scores[size] = Integer.parseInt(fields[2]);
+					++size;
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		
+		//group by user
+		int userCount = userIndexes.size();
+		int[] offsets = new int[userCount + 1];
+		for (int i = 0; i < size; ++i) {
+			++offsets[users[i] + 1];
+		}
+		for (int u = 0; u < userCount; ++u) {
+			offsets[u + 1] += offsets[u];
+		}
+		int[] next = Arrays.copyOf(offsets, userCount);
+		long[] sortKeys = new long[size];
+		for (int i = 0; i < size; ++i) {
+			//negated score in the upper half, item in the lower half
+			sortKeys[next[users[i]]++] = ((long)-scores[i] << 32) | items[i];
+		}
+		int[] groupedItems = new int[size];
+		int[] groupedScores = new int[size];
+		for (int u = 0; u < userCount; ++u) {
+			Arrays.sort(sortKeys, offsets[u], offsets[u + 1]);
+			for (int i = offsets[u]; i < offsets[u + 1]; ++i) {
+				groupedItems[i] = (int)(sortKeys[i] & 0xffffffffL);
+				groupedScores[i] = -(int)(sortKeys[i] >> 32);
+			}
+		}
+		
+		return new RecommendationSnapshot(userIndexes, itemList.toArray(new String[itemList.size()]), offsets, 
+				groupedItems, groupedScores);
+	}
+	
+	/**
+	 * @param indexes
+	 * @param ids
+	 * @param id
+	 * @return
+	 */
+	private static int getIndex(Map<String, Integer> indexes, List<String> ids, String id) {
+		Integer index = indexes.get(id);
+		if (null == index) {
+			index = indexes.size();
+			indexes.put(id, index);
+			if (null != ids) {
+				ids.add(id);
+			}
+		}
+		return index;
+	}
+	
+	/**
+	 * @return
+	 */
+	public int getUserCount() {
+		return userIndexes.size();
+	}
+	
+	/**
+	 * @return
+	 */
+	public int getRecommendationCount() {
+		return items.length;
+	}
+	
+	/**
+	 * Top items for an user, best first
+	 * @param userID
+	 * @param count
+	 * @param excludedItems items to skip, may be null
+	 * @return item IDs and scores, empty if user not found
+	 */
+	public List<Recommendation> getTopItems(String userID, int count, Set<String> excludedItems) {
+		List<Recommendation> recommendations = new ArrayList<Recommendation>();
+		Integer user = userIndexes.get(userID);
+		if (null != user) {
+			for (int i = offsets[user]; i < offsets[user + 1] && recommendations.size() < count; ++i) {
+				String itemID = itemIDs[items[i]];
+				if (null == excludedItems || !excludedItems.contains(itemID)) {
+					recommendations.add(new Recommendation(itemID, scores[i]));
+				}
+			}
+		}
+		return recommendations;
+	}
+	
+	/**
+	 * @author pranab
+	 *
+	 */
+	public static class Recommendation {
+		private String itemID;
+		private int score;
+		
+		public Recommendation(String itemID, int score) {
+			this.itemID = itemID;
+			this.score = score;
+		}
+
+		public String getItemID() {
+			return itemID;
+		}
+
+		public int getScore() {
+			return score;
+		}
+	}
+}
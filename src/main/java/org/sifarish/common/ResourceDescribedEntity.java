@@ -18,8 +18,10 @@
 
 package org.sifarish.common;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -29,6 +31,7 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.sifarish.util.OntologyIndex;
 
 import com.hp.hpl.jena.rdf.model.Model;
 import com.hp.hpl.jena.rdf.model.ModelFactory;
@@ -40,12 +43,16 @@ import com.hp.hpl.jena.rdf.model.Statement;
 import com.hp.hpl.jena.rdf.model.StmtIterator;
 
 /**
- * RDF based semantic similarity using Apache Jena
+ * RDF based semantic similarity using Apache Jena. If semantic.rdf.indexFilePath is set, the ontology index 
+ * built by OntologyIndexBuilder is used instead of the RDF model. The index is memory mapped if it's a local 
+ * file e.g. from the distributed cache, otherwise read from HDFS
  * @author pranab
  * 
  */
 public class ResourceDescribedEntity extends TaggedEntity {
 	private Model model;
+	private OntologyIndex ontologyIndex;
+	private Map<String, Integer> nodeIds = new HashMap<String, Integer>();
     private static final Logger LOG = Logger.getLogger(ResourceDescribedEntity.class);
 
 	@Override
@@ -57,6 +64,10 @@ public class ResourceDescribedEntity extends TaggedEntity {
 	public int match(TaggedEntity other) throws IOException {
 		String thisTag = getTag();
 		String thatTag = other.getTag();
+		if (null != ontologyIndex) {
+			return matchWithIndex(thisTag, thatTag);
+		}
+		
 		int dist = 0;
 		Resource matchingResource = null;
 		
@@ -76,17 +87,60 @@ public class ResourceDescribedEntity extends TaggedEntity {
 			matchingResource = ResourceFactory.createResource(thisTag);
 		}
 		
-		matchingContext = matchingResource != null ? resourceToString(matchingResource) : "";
+		matchingContext = matchingResource != null ? resourceToString(matchingResource, model) : "";
+		
+		LOG.debug("dist:" + dist);
+		return dist;
+	}
+	
+	/**
+	 * Min distance common node from the closures in the index
+	 * @param thisTag
+	 * @param thatTag
+	 * @return
+	 */
+	private int matchWithIndex(String thisTag, String thatTag) {
+		int dist = 0;
+		int thisNode = getNodeId(thisTag);
+		int matchingNode = -1;
+		if (!thisTag.equals(thatTag)) {
+			int thatNode = getNodeId(thatTag);
+			dist = Integer.MAX_VALUE;
+			if (thisNode >= 0 && thatNode >= 0) {
+				long commonNode = ontologyIndex.findCommonNode(thisNode, thatNode);
+				if (commonNode >= 0) {
+					dist = (int)(commonNode >>> 32);
+					matchingNode = (int)commonNode;
+				}
+			}
+		} else {
+			matchingNode = thisNode;
+		}
 		
+		matchingContext = matchingNode >= 0 ? ontologyIndex.getContext(matchingNode) : "";
 		LOG.debug("dist:" + dist);
 		return dist;
 	}
 	
+	/**
+	 * @param tag
+	 * @return node ID or -1 if not in the ontology
+	 */
+	private int getNodeId(String tag) {
+		Integer node = nodeIds.get(tag);
+		if (null == node) {
+			node = ontologyIndex.getNodeId(tag);
+			nodeIds.put(tag, node);
+		}
+		return node;
+	}
+	
 	/**
 	 * @param resource
+	 * @param model
 	 * @return
 	 */
-	private String resourceToString(Resource resource) {
+	static String resourceToString(Resource resource, Model model) {
 		StringBuilder stBld = new StringBuilder();
 		StmtIterator iter = model.listStatements(resource, (Property)null, (RDFNode)null);
 		while (iter.hasNext()) {
@@ -178,10 +232,35 @@ public class ResourceDescribedEntity extends TaggedEntity {
 		}		
 	}
 	
+	/**
+	 * @param indexFilePath
+	 * @throws IOException
+	 */
+	private void loadIndex(String indexFilePath) throws IOException {
+		File localFile = new File(indexFilePath);
+		if (localFile.exists()) {
+			ontologyIndex = OntologyIndex.map(localFile);
+		} else {
+			FileSystem dfs = FileSystem.get((Configuration)params.get("config"));
+            Path src = new Path(indexFilePath);
+            FSDataInputStream fs = dfs.open(src);
+            try {
+            	ontologyIndex = OntologyIndex.read(fs, (int)dfs.getFileStatus(src).getLen());
+            } finally {
+            	fs.close();
+            }
+		}
+	}
+	
 	@Override
 	public void initialize(Map<String, Object> params) throws IOException {
 		this.params = params;
-		loadModel() ;		
+		String indexFilePath = (String)params.get("semantic.rdf.indexFilePath");
+		if (null != indexFilePath) {
+			loadIndex(indexFilePath);
+		} else {
+			loadModel() ;
+		}
 		Configuration conf = (Configuration)params.get("config");
         if (conf.getBoolean("debug.on", false)) {
          	LOG.setLevel(Level.DEBUG);
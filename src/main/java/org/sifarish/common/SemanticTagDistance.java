@@ -0,0 +1,309 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.Utility;
+import org.sifarish.feature.SemanticSimilarity;
+
+/**
+ * Tag pair score table for the table lookup mode of SemanticSimilarity. The first MR collects the distinct
+ * tags from the ItemDynamicAttributeSimilarity input and numbers them, with output tagID,tag. The second MR
+ * scores all tag pairs with the semantic.matcher.class matcher, spreading tag rows over the reducers, and 
+ * outputs tagID,tagID,score,matchingContext for pairs with non zero score. Matchers are assumed to be 
+ * symmetric and not dependent on entity or group ID. Arguments are the input and the table directory, 
+ * which has the sub directories tags and pairs
+ * @author pranab
+ *
+ */
+public class SemanticTagDistance extends Configured implements Tool {
+    @Override
+    public int run(String[] args) throws Exception   {
+    	Path tagPath = new Path(args[1], SemanticSimilarity.TAG_DIR);
+    	
+    	//distinct tags
+        Job job = new Job(getConf());
+        job.setJobName("Distinct semantic tag MR");
+        job.setJarByClass(SemanticTagDistance.class);
+        FileInputFormat.addInputPaths(job, args[0]);
+        FileOutputFormat.setOutputPath(job, tagPath);
+        job.setMapperClass(SemanticTagDistance.TagMapper.class);
+        job.setCombinerClass(SemanticTagDistance.DistinctTagCombiner.class);
+        job.setReducerClass(SemanticTagDistance.TagReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(NullWritable.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        Utility.setConfiguration(job.getConfiguration());
+        
+        //dense IDs need global ordering
+        job.setNumReduceTasks(1);
+        if (!job.waitForCompletion(true)) {
+        	return 1;
+        }
+        
+        //tag pair scores
+        job = new Job(getConf());
+        job.setJobName("Semantic tag pair score MR");
+        job.setJarByClass(SemanticTagDistance.class);
+        FileInputFormat.addInputPath(job, tagPath);
+        FileOutputFormat.setOutputPath(job, new Path(args[1], SemanticSimilarity.PAIR_DIR));
+        job.setMapperClass(SemanticTagDistance.TagRowMapper.class);
+        job.setReducerClass(SemanticTagDistance.TagPairReducer.class);
+        job.setMapOutputKeyClass(IntWritable.class);
+        job.setMapOutputValueClass(NullWritable.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.getConfiguration().set("semantic.tag.file.path", tagPath.toString());
+        job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+    
+    /**
+     * Distinct tags of a split
+     * @author pranab
+     *
+     */
+    public static class TagMapper extends Mapper<LongWritable, Text, Text, NullWritable> {
+    	private String fieldDelimRegex;
+    	private int firstTagOrdinal;
+    	private Set<String> tags = new HashSet<String>();
+    	private Text keyOut = new Text();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
+        	
+        	//entity ID and optionally partitioning field before tags
+        	firstTagOrdinal = conf.getInt("paritioning.field.ordinal", -1) >= 0 ? 2 : 1;
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String[] items = value.toString().split(fieldDelimRegex);
+        	for (int i = firstTagOrdinal; i < items.length; ++i) {
+        		if (tags.add(items[i])) {
+        			keyOut.set(items[i]);
+        			context.write(keyOut, NullWritable.get());
+        		}
+        	}
+        }
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    public static class DistinctTagCombiner extends Reducer<Text, NullWritable, Text, NullWritable> {
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Text  key, Iterable<NullWritable> values, Context context)
+        		throws IOException, InterruptedException {
+        	context.write(key, NullWritable.get());
+        }
+    }
+    
+    /**
+     * Numbers tags in sorted order
+     * @author pranab
+     *
+     */
+    public static class TagReducer extends Reducer<Text, NullWritable, NullWritable, Text> {
+    	private String fieldDelim;
+    	private int tagId;
+    	private Text valOut = new Text();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Text  key, Iterable<NullWritable> values, Context context)
+        		throws IOException, InterruptedException {
+        	valOut.set("" + tagId++ + fieldDelim + key.toString());
+        	context.write(NullWritable.get(), valOut);
+        	context.getCounter("Tag", "Distinct").increment(1);
+        }
+    }
+    
+    /**
+     * Tag ID as the row to score
+     * @author pranab
+     *
+     */
+    public static class TagRowMapper extends Mapper<LongWritable, Text, IntWritable, NullWritable> {
+    	private String fieldDelim;
+    	private IntWritable keyOut = new IntWritable();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String line = value.toString();
+        	keyOut.set(Integer.parseInt(line.substring(0, line.indexOf(fieldDelim))));
+        	context.write(keyOut, NullWritable.get());
+        }
+    }
+    
+    /**
+     * Scores a tag against itself and all tags with higher ID
+     * @author pranab
+     *
+     */
+    public static class TagPairReducer extends Reducer<IntWritable, NullWritable, NullWritable, Text> {
+    	private String fieldDelim;
+    	private String[] tags;
+    	private TaggedEntity thisEntity;
+    	private TaggedEntity thatEntity;
+    	private int scale;
+    	private Text valOut = new Text();
+    	private StringBuilder stBld = new StringBuilder();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+        	scale = conf.getInt("semantic.match.scale", 10);
+        	loadTags(conf);
+        	
+        	//same params as in ItemDynamicAttributeSimilarity
+        	Map<String, Object> params = new HashMap<String, Object>();
+        	params.put("config", conf);
+        	String semParams = conf.get("semantic.matcher.params");
+        	if (!StringUtils.isBlank(semParams)) {
+	        	for (String semanticParam :  semParams.split(",")) {
+	        		params.put(semanticParam, conf.get(semanticParam));
+	        	}
+        	}
+        	try {
+        		Class<?> matcherCls = Class.forName(conf.get("semantic.matcher.class"));
+				thisEntity = (TaggedEntity)matcherCls.newInstance();
+				thatEntity = (TaggedEntity)matcherCls.newInstance();
+			} catch (ClassNotFoundException e) {
+				throw new IOException("failed to create semantic matcher");
+			} catch (InstantiationException e) {
+				throw new IOException("failed to create semantic matcher");
+			} catch (IllegalAccessException e) {
+				throw new IOException("failed to create semantic matcher");
+			}
+			thisEntity.initialize(params);
+        }
+        
+        /**
+         * @param conf
+         * @throws IOException
+         */
+        private void loadTags(Configuration conf) throws IOException {
+        	FileSystem dfs = FileSystem.get(conf);
+        	List<String> tagList = new ArrayList<String>();
+        	Path file = new Path(conf.get("semantic.tag.file.path"), "part-r-00000");
+    		BufferedReader reader = new BufferedReader(new InputStreamReader(dfs.open(file), "UTF-8"));
+    		try {
+    			String line = null;
+    			while ((line = reader.readLine()) != null) {
+    				tagList.add(line.split(fieldDelim, 2)[1]);
+    			}
+    		} finally {
+    			reader.close();
+    		}
+    		tags = tagList.toArray(new String[tagList.size()]);
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(IntWritable  key, Iterable<NullWritable> values, Context context)
+        		throws IOException, InterruptedException {
+        	int thisTag = key.get();
+        	thisEntity.setTag(tags[thisTag]);
+        	for (int thatTag = thisTag; thatTag < tags.length; ++thatTag) {
+        		thatEntity.setTag(tags[thatTag]);
+        		int score = SemanticSimilarity.matchScore(thisEntity, thatEntity, scale);
+        		if (score > 0) {
+        			stBld.delete(0, stBld.length());
+        			stBld.append(thisTag).append(fieldDelim).append(thatTag).append(fieldDelim).append(score).
+        				append(fieldDelim).append(thisEntity.getMatchingContext());
+        			valOut.set(stBld.toString());
+        			context.write(NullWritable.get(), valOut);
+        			context.getCounter("Tag pair", "Emitted").increment(1);
+        		} else {
+        			context.getCounter("Tag pair", "Zero score").increment(1);
+        		}
+        	}
+        }
+    }
+    
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new SemanticTagDistance(), args);
+        System.exit(exitCode);
+	}
+}
@@ -34,11 +34,13 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
-import org.chombo.util.TextPair;
+import org.chombo.util.SecondarySort;
 import org.chombo.util.Tuple;
 import org.chombo.util.Utility;
+import org.sifarish.util.IdDictionary;
 
 /**
+ * Aggregates predicted ratings by user and item. With id.encoded, user and item IDs are shuffled as ints
  * @author pranab
  *
  */
@@ -57,11 +59,14 @@ public class UtilityAggregator extends Configured implements Tool{
         job.setMapperClass(UtilityAggregator.AggregateMapper.class);
         job.setReducerClass(UtilityAggregator.AggregateReducer.class);
         
-        job.setMapOutputKeyClass(TextPair.class);
+        job.setMapOutputKeyClass(Tuple.class);
         job.setMapOutputValueClass(Tuple.class);
 
         job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(Text.class);
+        
+        //partitioned by user
+        job.setPartitionerClass(SecondarySort.TupleIntPartitioner.class);
  
         Utility.setConfiguration(job.getConfiguration());
         job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
@@ -73,16 +78,18 @@ public class UtilityAggregator extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class AggregateMapper extends Mapper<LongWritable, Text, TextPair, Tuple> {
+    public static class AggregateMapper extends Mapper<LongWritable, Text, Tuple, Tuple> {
     	private String fieldDelim;
-    	private TextPair keyOut = new TextPair();
+    	private Tuple keyOut = new Tuple();
     	private Tuple valOut = new Tuple();
+    	private boolean idEncoded;
     	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
          */
         protected void setup(Context context) throws IOException, InterruptedException {
         	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        	idEncoded = context.getConfiguration().getBoolean("id.encoded", false);
         }    
     	
         /* (non-Javadoc)
@@ -94,7 +101,8 @@ public class UtilityAggregator extends Configured implements Tool{
            	String[] items = value.toString().split(fieldDelim);
            	
            	//userID, itemID
-           	keyOut.set(items[0], items[1]);   	
+           	keyOut.initialize();
+           	keyOut.add(IdDictionary.tupleId(items[0], idEncoded), IdDictionary.tupleId(items[1], idEncoded));
            	
            	//rating, weight, correlation, rating std dev
            	valOut.initialize();
@@ -107,7 +115,7 @@ public class UtilityAggregator extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class AggregateReducer extends Reducer<TextPair, Tuple, NullWritable, Text> {
+    public static class AggregateReducer extends Reducer<Tuple, Tuple, NullWritable, Text> {
     	private String fieldDelim;
     	private int sum ;
     	private int sumWt;
@@ -141,7 +149,7 @@ public class UtilityAggregator extends Configured implements Tool{
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
          */
-        protected void reduce(TextPair  key, Iterable<Tuple> values, Context context)
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
         throws IOException, InterruptedException {
 			sum = sumWt = 0;
 			int count = 0;
@@ -163,7 +171,7 @@ public class UtilityAggregator extends Configured implements Tool{
 							throw new IllegalStateException("No rating std dev found");
 						}
 						
-						int normStdDev = invMapeStdDev(stdDev);
+						int normStdDev = invMapStdDev(stdDev, maxStdDev);
 						sum += predRating * normStdDev;
 						sumWt += normStdDev;
 					}	else {
@@ -201,23 +209,23 @@ public class UtilityAggregator extends Configured implements Tool{
 			}
 			
 			//userID, itemID, score, count
-        	valueOut.set(key.getFirst() + fieldDelim + key.getSecond() + fieldDelim + utilityScore + fieldDelim + count);
+        	valueOut.set(key.get(0) + fieldDelim + key.get(1) + fieldDelim + utilityScore + fieldDelim + count);
 	   		context.write(NullWritable.get(), valueOut);
         }
-        
-        /**
-         * Inverse scaling of std dev
-         * @param stdDev
-         * @return
-         */
-        private int invMapeStdDev(int stdDev) {
-        	int norm = maxStdDev - stdDev;
-        	if (norm <= 0) {
-        		norm = 1;
-        	}
-        	return norm;
-        }
-        
+    }
+    
+    /**
+     * Inverse scaling of std dev
+     * @param stdDev
+     * @param maxStdDev
+     * @return
+     */
+    public static int invMapStdDev(int stdDev, int maxStdDev) {
+    	int norm = maxStdDev - stdDev;
+    	if (norm <= 0) {
+    		norm = 1;
+    	}
+    	return norm;
     }
     
     /**
@@ -37,13 +37,16 @@ import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.SecondarySort;
 import org.chombo.util.TextInt;
 import org.chombo.util.Tuple;
 import org.chombo.util.Utility;
+import org.sifarish.util.IdDictionary;
 
 /**
  * Predicts rating for an user and item. based on another item the user has rated and the 
- * correlation between the items. This is the second MR to run after rating correlations are available
+ * correlation between the items. This is the second MR to run after rating correlations are available.
+ * With id.encoded, user and item IDs are shuffled as ints
  * @author pranab
  *
  */
@@ -62,14 +65,14 @@ public class UtilityPredictor extends Configured implements Tool{
         job.setMapperClass(UtilityPredictor.PredictionMapper.class);
         job.setReducerClass(UtilityPredictor.PredictorReducer.class);
         
-        job.setMapOutputKeyClass(TextInt.class);
+        job.setMapOutputKeyClass(Tuple.class);
         job.setMapOutputValueClass(Tuple.class);
 
         job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(Text.class);
  
-        job.setGroupingComparatorClass(ItemIdGroupComprator.class);
-        job.setPartitionerClass(ItemIdPartitioner.class);
+        job.setGroupingComparatorClass(SecondarySort.TuplePairGroupComprator.class);
+        job.setPartitionerClass(SecondarySort.TupleIntPartitioner.class);
 
         Utility.setConfiguration(job.getConfiguration());
         job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
@@ -81,11 +84,11 @@ public class UtilityPredictor extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class PredictionMapper extends Mapper<LongWritable, Text, TextInt, Tuple> {
+    public static class PredictionMapper extends Mapper<LongWritable, Text, Tuple, Tuple> {
     	private String fieldDelim;
     	private String subFieldDelim;
     	private boolean isRatingFileSplit;
-    	private TextInt keyOut = new TextInt();
+    	private Tuple keyOut = new Tuple();
     	private Tuple valOut = new Tuple();
     	private String[] ratings;
     	private Integer two = 2;
@@ -93,6 +96,7 @@ public class UtilityPredictor extends Configured implements Tool{
     	private Integer zero = 0;
     	private boolean linearCorrelation;
     	private boolean isRatingStatFileSplit;
+    	private boolean idEncoded;
     	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
@@ -106,6 +110,7 @@ public class UtilityPredictor extends Configured implements Tool{
         	isRatingStatFileSplit = ((FileSplit)context.getInputSplit()).getPath().getName().startsWith(ratingStatFilePrefix);
         	
         	linearCorrelation = context.getConfiguration().getBoolean("correlation.linear", true);
+        	idEncoded = context.getConfiguration().getBoolean("id.encoded", false);
         	System.out.println("isRatingFileSplit:" + isRatingFileSplit);
         }    
     	
@@ -116,7 +121,7 @@ public class UtilityPredictor extends Configured implements Tool{
         protected void map(LongWritable key, Text value, Context context)
             throws IOException, InterruptedException {
         	String[] items = value.toString().split(fieldDelim);
-    		String itemID = items[0];
+    		Object itemID = IdDictionary.tupleId(items[0], idEncoded);
         	if (isRatingFileSplit) {
         		//user rating
                	for (int i = 1; i < items.length; ++i) {
@@ -124,40 +129,45 @@ public class UtilityPredictor extends Configured implements Tool{
             		ratings = items[i].split(subFieldDelim);
             		
             		//itemID
-            		keyOut.set(itemID, two);
+            		keyOut.initialize();
+            		keyOut.add(itemID, two);
             		
             		//userID, rating
-            		valOut.add(ratings[0],  new Integer(ratings[1]), two);
+            		valOut.add(IdDictionary.tupleId(ratings[0], idEncoded),  new Integer(ratings[1]), two);
        	   			context.write(keyOut, valOut);
                	}
         	} else  if (isRatingStatFileSplit) {
         		//rating stat
         		int ratingStdDev = Integer.parseInt(items[2]);
-        		keyOut.set(itemID, one);
+        		keyOut.initialize();
+        		keyOut.add(itemID, one);
            		valOut.initialize();
         		valOut.add(ratingStdDev,   one);
    	   			context.write(keyOut, valOut);
         	} else {
         		//correlation
-        		keyOut.set(items[0], zero);
+        		Object otherItemID = IdDictionary.tupleId(items[1], idEncoded);
+        		keyOut.initialize();
+        		keyOut.add(itemID, zero);
         		valOut.initialize();
    	   			if (linearCorrelation) {
    	   				//other itemID, correlation, intersection length (weight)
-   	   				valOut.add(items[1], new Integer( items[2]), new Integer(items[3]), zero);
+   	   				valOut.add(otherItemID, new Integer( items[2]), new Integer(items[3]), zero);
    	   			} else {
    	   				//other itemID, correlation, intersection length (weight)
-   	   				valOut.add(items[1], new Integer("-" + items[2]), new Integer(items[3]), zero);
+   	   				valOut.add(otherItemID, new Integer("-" + items[2]), new Integer(items[3]), zero);
    	   			}
    	   			context.write(keyOut, valOut);
 
-   	   			keyOut.set(items[1], zero);
+        		keyOut.initialize();
+   	   			keyOut.add(otherItemID, zero);
         		valOut.initialize();
    	   			if (linearCorrelation) {
    	   				//other itemID, correlation, intersection length (weight)
-   	   				valOut.add(items[0], new Integer( items[2]), new Integer(items[3]), zero);
+   	   				valOut.add(itemID, new Integer( items[2]), new Integer(items[3]), zero);
    	   			} else {
    	   				//other itemID, correlation, intersection length (weight)
-   	   				valOut.add(items[0], new Integer("-" + items[2]), new Integer(items[3]), zero);
+   	   				valOut.add(itemID, new Integer("-" + items[2]), new Integer(items[3]), zero);
    	   			}
    	   			context.write(keyOut, valOut);
         	}
@@ -168,15 +178,14 @@ public class UtilityPredictor extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class PredictorReducer extends Reducer<TextInt, Tuple, NullWritable, Text> {
+    public static class PredictorReducer extends Reducer<Tuple, Tuple, NullWritable, Text> {
     	private String fieldDelim;
     	private Text valueOut = new Text();
     	private List<Tuple> ratingCorrelations = new ArrayList<Tuple>();
     	private boolean linearCorrelation;
     	private int correlationScale;
     	private int maxRating;
-    	private String userID;
-    	private String itemID;
+    	private Object itemID;
     	private int rating;
     	private int ratingCorr;
     	private int weight;
@@ -199,7 +208,7 @@ public class UtilityPredictor extends Configured implements Tool{
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
          */
-        protected void reduce(TextInt  key, Iterable<Tuple> values, Context context)
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
         throws IOException, InterruptedException {
         	ratingCorrelations.clear();
         	++logCounter;
@@ -215,19 +224,18 @@ public class UtilityPredictor extends Configured implements Tool{
            		} else {
            			//in user rating
            			if (!ratingCorrelations.isEmpty()) {
-	           			String userID = value.getString(0);
+	           			Object userID = value.get(0);
 	           			rating = value.getInt(1);
 	           			
 	    				//all rating correlations
 	           			for (Tuple  ratingCorrTup : ratingCorrelations) { 
         					context.getCounter("Predictor", "User rating").increment(1);
-	           				itemID = ratingCorrTup.getString(0);
+	           				itemID = ratingCorrTup.get(0);
 	           				ratingCorr = ratingCorrTup.getInt(1);
 	           				weight = ratingCorrTup.getInt(2);
 	           				
-	           				modifyCorrelation();
-	           				int predRating = linearCorrelation? (rating * ratingCorr) / maxRating : 
-	           					(rating  * correlationScale + ratingCorr) /maxRating ;
+	           				ratingCorr = modifyCorrelation(ratingCorr, correlationScale, correlationModifier);
+	           				int predRating = predictRating(rating, ratingCorr, linearCorrelation, correlationScale, maxRating);
 	           				if (predRating > 0) {
 	           					//userID, itemID, predicted rating, correlation length, correlation coeff, input rating std dev
 	           					ratingStdDev = ratingStat != null ? ratingStat.getInt(0) :  -1;
@@ -243,14 +251,32 @@ public class UtilityPredictor extends Configured implements Tool{
         }
         
         
-        /**
-         * 
-         */
-        private void modifyCorrelation() {
-        	double ratingCorrDb  =( (double)ratingCorr) / correlationScale;
-        	ratingCorrDb = Math.pow(ratingCorrDb, correlationModifier);
-        	ratingCorr = (int)(ratingCorrDb * correlationScale);
-        }
+    }
+    
+    /**
+     * @param ratingCorr
+     * @param correlationScale
+     * @param correlationModifier
+     * @return correlation raised to the modifier power
+     */
+    public static int modifyCorrelation(int ratingCorr, int correlationScale, double correlationModifier) {
+    	double ratingCorrDb  =( (double)ratingCorr) / correlationScale;
+    	ratingCorrDb = Math.pow(ratingCorrDb, correlationModifier);
+    	return (int)(ratingCorrDb * correlationScale);
+    }
+    
+    /**
+     * @param rating
+     * @param ratingCorr
+     * @param linearCorrelation
+     * @param correlationScale
+     * @param maxRating
+     * @return predicted rating
+     */
+    public static int predictRating(int rating, int ratingCorr, boolean linearCorrelation, int correlationScale, 
+    		int maxRating) {
+    	return linearCorrelation? (rating * ratingCorr) / maxRating : 
+				(rating  * correlationScale + ratingCorr) /maxRating ;
     }
     
     /**
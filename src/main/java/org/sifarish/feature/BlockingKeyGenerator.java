@@ -0,0 +1,162 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Generates blocking keys for sorted neighborhood matching. There is one blocking key expression per 
+ * pass. Passes are separated by semicolon. Each expression is a comma separated list of components of 
+ * the form ordinal:function:argument, where function is one of the following, applied on the normalized 
+ * field value
+ * prefix:n   first n characters
+ * suffix:n   last n characters
+ * token:n    n th whitespace separated token
+ * field      whole field
+ * For example 2:prefix:3,4:token:0;5:field defines 2 passes
+ * @author pranab
+ *
+ */
+public class BlockingKeyGenerator {
+	private List<KeyComponent[]> passes = new ArrayList<KeyComponent[]>();
+	private StringBuilder stBld = new StringBuilder();
+	
+	/**
+	 * @param spec
+	 */
+	public BlockingKeyGenerator(String spec) {
+		for (String passSpec : spec.split(";")) {
+			String[] compSpecs = passSpec.trim().split(",");
+			KeyComponent[] components = new KeyComponent[compSpecs.length];
+			for (int i = 0; i < compSpecs.length; ++i) {
+				components[i] = new KeyComponent(compSpecs[i].trim());
+			}
+			passes.add(components);
+		}
+	}
+	
+	/**
+	 * @return
+	 */
+	public int getPassCount() {
+		return passes.size();
+	}
+	
+	/**
+	 * @param pass
+	 * @param items
+	 * @return blocking key of the record for the pass
+	 */
+	public String getKey(int pass, String[] items) {
+		stBld.delete(0, stBld.length());
+		for (KeyComponent component : passes.get(pass)) {
+			stBld.append(component.extract(items));
+		}
+		return stBld.toString();
+	}
+	
+	/**
+	 * Order preserving int encoding of the first 4 characters of the key. Used as the sort part of the
+	 * map output key. Ties are sorted by full key in the reducer
+	 * @param key
+	 * @return
+	 */
+	public static int sortPrefix(String key) {
+		int prefix = 0;
+		for (int i = 0; i < 4; ++i) {
+			int ch = i < key.length() ? (key.charAt(i) & 0xff) : 0;
+			prefix = (prefix << 8) | ch;
+		}
+		
+		//flip sign bit so that signed int comparison follows unsigned byte order
+		return prefix ^ 0x80000000;
+	}
+	
+	/**
+	 * @param value
+	 * @return lower case value with only letters, digits and single spaces
+	 */
+	public static String normalize(String value) {
+		StringBuilder normBld = new StringBuilder(value.length());
+		boolean space = false;
+		for (int i = 0; i < value.length(); ++i) {
+			char ch = Character.toLowerCase(value.charAt(i));
+			if (Character.isLetterOrDigit(ch)) {
+				if (space && normBld.length() > 0) {
+					normBld.append(' ');
+				}
+				normBld.append(ch);
+				space = false;
+			} else if (Character.isWhitespace(ch)) {
+				space = true;
+			}
+		}
+		return normBld.toString();
+	}
+	
+	/**
+	 * Component of a blocking key expression
+	 * @author pranab
+	 *
+	 */
+	private static class KeyComponent {
+		private int ordinal;
+		private String function;
+		private int argument;
+		
+		/**
+		 * @param spec
+		 */
+		public KeyComponent(String spec) {
+			String[] items = spec.split(":");
+			ordinal = Integer.parseInt(items[0]);
+			function = items.length > 1 ? items[1] : "field";
+			if (!function.equals("field")) {
+				if (items.length < 3) {
+					throw new IllegalArgumentException("missing argument in blocking key component:" + spec);
+				}
+				argument = Integer.parseInt(items[2]);
+			}
+			if (!(function.equals("prefix") || function.equals("suffix") || function.equals("token") || 
+					function.equals("field"))) {
+				throw new IllegalArgumentException("invalid blocking key function:" + function);
+			}
+		}
+		
+		/**
+		 * @param items
+		 * @return
+		 */
+		public String extract(String[] items) {
+			String value = ordinal < items.length ? normalize(items[ordinal]) : "";
+			String part = null;
+			if (function.equals("prefix")) {
+				part = value.length() > argument ? value.substring(0, argument) : value;
+			} else if (function.equals("suffix")) {
+				part = value.length() > argument ? value.substring(value.length() - argument) : value;
+			} else if (function.equals("token")) {
+				String[] tokens = value.split(" ");
+				part = argument < tokens.length ? tokens[argument] : "";
+			} else {
+				part = value;
+			}
+			return part;
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.sifarish.util.Utility;
+
+/**
+ * Map only job for assigning records to overlapping canopies. A record belongs to every canopy whose center
+ * is within the loose threshold T1. A record not within T1 of any center goes to the canopy of the nearest 
+ * center. List of canopy IDs is appended to the record as the last field, which SameTypeSimilarity uses as 
+ * the partitioning key when canopy.partitioned is set
+ * @author pranab
+ *
+ */
+public class CanopyAssigner extends Configured implements Tool {
+    @Override
+    public int run(String[] args) throws Exception {
+        Job job = new Job(getConf());
+        String jobName = "Canopy assignment MR";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(CanopyAssigner.class);
+        
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        job.setMapperClass(CanopyAssigner.AssignerMapper.class);
+        
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+ 
+        Utility.setConfiguration(job.getConfiguration());
+        CanopyGenerator.validateThresholds(job.getConfiguration());
+
+        job.setNumReduceTasks(0);
+        
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new CanopyAssigner(), args);
+        System.exit(exitCode);
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    public static class AssignerMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+        private Text valueHolder = new Text();
+        private String fieldDelimRegex;
+        private String fieldDelim;
+        private String canopyIdDelim;
+        private CanopyDistance canopyDistance;
+        private double looseThreshold;
+        private List<String[]> centers = new ArrayList<String[]>();
+        private int idOrdinal;
+        private StringBuilder stBld = new StringBuilder();
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
+        	fieldDelim = conf.get("field.delim", ",");
+        	canopyIdDelim = conf.get("canopy.id.delim", ":");
+        	canopyDistance = CanopyGenerator.createCanopyDistance(conf);
+        	looseThreshold = Double.parseDouble(conf.get("canopy.loose.threshold", "0.4"));
+        	idOrdinal = canopyDistance.getIdOrdinal();
+        	
+        	//canopy centers
+            FileSystem dfs = FileSystem.get(conf);
+            FSDataInputStream fs = dfs.open(new Path(conf.get("canopy.center.file.path")));
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fs));
+            String line = null;
+            while((line = reader.readLine()) != null) {
+            	centers.add(line.split(fieldDelimRegex));
+            }
+            reader.close();
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+            String[] items  =  value.toString().split(fieldDelimRegex);
+            stBld.delete(0, stBld.length());
+            stBld.append(value.toString()).append(fieldDelim);
+            
+            int count = 0;
+            double minDist = Double.MAX_VALUE;
+            String nearest = null;
+            for (String[] center : centers) {
+            	double dist = canopyDistance.findDistance(items, center);
+            	if (dist <= looseThreshold) {
+            		if (count > 0) {
+            			stBld.append(canopyIdDelim);
+            		}
+            		stBld.append(center[idOrdinal]);
+            		++count;
+            	}
+            	if (dist < minDist) {
+            		minDist = dist;
+            		nearest = center[idOrdinal];
+            	}
+            }
+            
+            if (count == 0) {
+				context.getCounter("Canopy", "Nearest center").increment(1);
+            	stBld.append(nearest);
+            	count = 1;
+            }
+			context.getCounter("Canopy", "Assignment").increment(count);
+            valueHolder.set(stBld.toString());
+			context.write(NullWritable.get(), valueHolder);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.sifarish.util.Field;
+
+/**
+ * Cheap distance between entities for canopy clustering, based on a subset of fields. Numeric fields 
+ * are mapped to coarse bins within the min max range of the field. Other fields are matched for equality. 
+ * Distance is the average field distance, between 0 and 1. Missing values are considered matching
+ * @author pranab
+ *
+ */
+public class CanopyDistance {
+	private List<Field> fields = new ArrayList<Field>();
+	private int binCount;
+	private int idOrdinal;
+	
+	/**
+	 * @param schema
+	 * @param ordinals ordinals of fields to use
+	 * @param binCount number of bins for numeric fields
+	 */
+	public CanopyDistance(SingleTypeSchema schema, int[] ordinals, int binCount) {
+		for (int ordinal : ordinals) {
+			Field selField = null;
+			for (Field field : schema.getEntity().getFields()) {
+				if (field.getOrdinal() == ordinal) {
+					selField = field;
+					break;
+				}
+			}
+			if (null == selField) {
+				throw new IllegalArgumentException("canopy field not found in schema ordinal:" + ordinal);
+			}
+			fields.add(selField);
+		}
+		this.binCount = binCount;
+		idOrdinal = schema.getEntity().getIdField().getOrdinal();
+	}
+	
+	/**
+	 * @return
+	 */
+	public int getIdOrdinal() {
+		return idOrdinal;
+	}
+	
+	/**
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	public double findDistance(String[] first, String[] second) {
+		double sum = 0;
+		for (Field field : fields) {
+			String firstAttr = first[field.getOrdinal()].trim();
+			String secondAttr = second[field.getOrdinal()].trim();
+			if (firstAttr.isEmpty() || secondAttr.isEmpty()) {
+				continue;
+			}
+			
+			String dataType = field.getDataType();
+			if (dataType.equals("int") || dataType.equals("double")) {
+				try {
+					int diff = Math.abs(numericBin(field, firstAttr) - numericBin(field, secondAttr));
+					sum += diff >= binCount ? 1.0 : ((double)diff) / binCount;
+				} catch (NumberFormatException ex) {
+					sum += firstAttr.equals(secondAttr) ? 0 : 1.0;
+				}
+			} else {
+				sum += firstAttr.equalsIgnoreCase(secondAttr) ? 0 : 1.0;
+			}
+		}
+		return sum / fields.size();
+	}
+	
+	/**
+	 * @param field
+	 * @param attr
+	 * @return
+	 */
+	private int numericBin(Field field, String attr) {
+		//strip unit if any
+		double value = Double.parseDouble(attr.split("\\s+")[0]);
+		int bin = 0;
+		int range = field.getMax() - field.getMin();
+		if (range > 0) {
+			bin = (int)((value - field.getMin()) * binCount / range);
+		} else {
+			bin = (int)value;
+		}
+		return bin;
+	}
+}
@@ -0,0 +1,227 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.sifarish.util.Utility;
+
+/**
+ * Mapreduce for finding canopy centers using a cheap distance. Each mapper greedily selects local centers,
+ * such that every record is within the tight threshold T2 of some center. A single reducer  repeats
+ * the greedy selection on the local centers. Output is the center records. The entity ID of a center
+ * is the canopy ID
+ * @author pranab
+ *
+ */
+public class CanopyGenerator extends Configured implements Tool {
+    @Override
+    public int run(String[] args) throws Exception {
+        Job job = new Job(getConf());
+        String jobName = "Canopy center generation MR";
+        job.setJobName(jobName);
+        
+        job.setJarByClass(CanopyGenerator.class);
+        
+        FileInputFormat.addInputPath(job, new Path(args[0]));
+        FileOutputFormat.setOutputPath(job, new Path(args[1]));
+
+        job.setMapperClass(CanopyGenerator.CenterMapper.class);
+        job.setReducerClass(CanopyGenerator.CenterReducer.class);
+        
+        job.setMapOutputKeyClass(NullWritable.class);
+        job.setMapOutputValueClass(Text.class);
+
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+ 
+        Utility.setConfiguration(job.getConfiguration());
+        validateThresholds(job.getConfiguration());
+
+        //all local centers need to be merged in one place
+        job.setNumReduceTasks(1);
+        
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new CanopyGenerator(), args);
+        System.exit(exitCode);
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    public static class CenterMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+        private Text valueHolder = new Text();
+        private String fieldDelimRegex;
+        private CanopyDistance canopyDistance;
+        private double tightThreshold;
+        private List<String[]> centers = new ArrayList<String[]>();
+        private List<String> centerRecords = new ArrayList<String>();
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
+        	canopyDistance = createCanopyDistance(conf);
+        	tightThreshold = Double.parseDouble(conf.get("canopy.tight.threshold", "0.2"));
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+            String[] items  =  value.toString().split(fieldDelimRegex);
+            if (!isCovered(items, centers, canopyDistance, tightThreshold)) {
+            	centers.add(items);
+            	centerRecords.add(value.toString());
+            }
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#cleanup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+        	for (String record : centerRecords) {
+        		valueHolder.set(record);
+        		context.write(NullWritable.get(), valueHolder);
+        	}
+			context.getCounter("Canopy", "Local center").increment(centerRecords.size());
+        }
+    }
+
+    /**
+     * @author pranab
+     *
+     */
+    public static class CenterReducer extends Reducer<NullWritable, Text, NullWritable, Text> {
+        private String fieldDelimRegex;
+        private CanopyDistance canopyDistance;
+        private double tightThreshold;
+        private List<String[]> centers = new ArrayList<String[]>();
+        
+    	/* (non-Javadoc)
+    	 * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+    	 */
+    	protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
+        	canopyDistance = createCanopyDistance(conf);
+        	tightThreshold = Double.parseDouble(conf.get("canopy.tight.threshold", "0.2"));
+    	}
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(NullWritable  key, Iterable<Text> values, Context context)
+        	throws IOException, InterruptedException {
+        	for (Text value : values) {
+                String[] items  =  value.toString().split(fieldDelimRegex);
+                if (!isCovered(items, centers, canopyDistance, tightThreshold)) {
+                	centers.add(items);
+    				context.write(NullWritable.get(), value);
+        			context.getCounter("Canopy", "Center").increment(1);
+                }
+        	}
+        }
+    }
+    
+    /**
+     * @param items
+     * @param centers
+     * @param canopyDistance
+     * @param threshold
+     * @return true if the record is within threshold of any of the centers
+     */
+    private static boolean isCovered(String[] items, List<String[]> centers, CanopyDistance canopyDistance, 
+    		double threshold) {
+    	boolean covered = false;
+    	for (String[] center : centers) {
+    		if (canopyDistance.findDistance(items, center) <= threshold) {
+    			covered = true;
+    			break;
+    		}
+    	}
+    	return covered;
+    }
+    
+    /**
+     * Every record within the tight threshold of a center must also be within the loose threshold, 
+     * so that it gets assigned to the canopy of the center
+     * @param conf
+     */
+    public static void validateThresholds(Configuration conf) {
+    	double tightThreshold = Double.parseDouble(conf.get("canopy.tight.threshold", "0.2"));
+    	double looseThreshold = Double.parseDouble(conf.get("canopy.loose.threshold", "0.4"));
+    	if (looseThreshold < tightThreshold) {
+    		throw new IllegalArgumentException("canopy.loose.threshold " + looseThreshold + 
+    			" should not be less than canopy.tight.threshold " + tightThreshold);
+    	}
+    }
+    
+    /**
+     * Creates cheap distance from schema and configured canopy fields
+     * @param conf
+     * @return
+     * @throws IOException
+     */
+    public static CanopyDistance createCanopyDistance(Configuration conf) throws IOException {
+        String filePath = conf.get("same.schema.file.path");
+        FileSystem dfs = FileSystem.get(conf);
+        Path src = new Path(filePath);
+        FSDataInputStream fs = dfs.open(src);
+        ObjectMapper mapper = new ObjectMapper();
+        SingleTypeSchema schema = mapper.readValue(fs, SingleTypeSchema.class);
+        
+        String[] items = conf.get("canopy.field.ordinals").split(",");
+        int[] ordinals = new int[items.length];
+        for (int i = 0; i < items.length; ++i) {
+        	ordinals[i] = Integer.parseInt(items[i].trim());
+        }
+        return new CanopyDistance(schema, ordinals, conf.getInt("canopy.numeric.bin.count", 10));
+    }
+}
@@ -17,82 +17,116 @@
 
 package org.sifarish.feature;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
- * Cosine distance
+ * Cosine distance. Text is converted to a SparseVector with term IDs from a dictionary held by this instance,
+ * so that callers comparing the same item many times can vectorize it once
  * @author pranab
  *
  */
 public class CosineSimilarity  extends DynamicAttrSimilarityStrategy{
-	private Map<String, int[]> countVec = new HashMap<String, int[]>();
+	private Map<String, Integer> termDictionary = new HashMap<String, Integer>();
+	private long[] termPositions = new long[16];
+	private int[] termCounts = new int[16];
+	private int[] termIds = new int[16];
+	private int[] weights = new int[16];
 
 	/* (non-Javadoc)
 	 * @see org.sifarish.feature.DynamicAttrSimilarityStrategy#findDistance(java.lang.String, java.lang.String)
 	 */
 	@Override
 	public double findDistance(String src, String target) {
-		double distance = 1.0;
-		countVec.clear();
+		clearTerms();
+		return findDistance(vectorize(src), vectorize(target));
+	}
+	
+	/**
+	 * Cosine similarity by merge join over sorted term IDs
+	 * @param src
+	 * @param target
+	 * @return
+	 */
+	public double findDistance(SparseVector src, SparseVector target) {
 		intersectionLength = 0;
-		
-		String[] srcTerms = src.split(fieldDelimRegex);
-		String[] trgTerms = target.split(fieldDelimRegex);
-		
-		//count vectors
-		initVector(srcTerms, 0);
-		initVector(trgTerms, 1);
-		
-		//distance
-		int crossProd = 0;
-		int srcSqSum = 0;
-		int trgSqSum = 0;
-		
-		for (Entry<String, int[]>  entry :  countVec.entrySet()) {
-			int[] val = entry.getValue();
-			crossProd += val[0] * val[1];
-			srcSqSum += val[0] * val[0];
-			trgSqSum += val[1] * val[1];
-			if (val[0] > 0 && val[1] > 0) {
-				++intersectionLength;
+		int[] srcTermIds = src.getTermIds();
+		int[] srcWeights = src.getWeights();
+		int[] trgTermIds = target.getTermIds();
+		int[] trgWeights = target.getWeights();
+		long crossProd = 0;
+		int i = 0;
+		int j = 0;
+		while (i < srcTermIds.length && j < trgTermIds.length) {
+			if (srcTermIds[i] < trgTermIds[j]) {
+				++i;
+			} else if (srcTermIds[i] > trgTermIds[j]) {
+				++j;
+			} else {
+				crossProd += srcWeights[i] * trgWeights[j];
+				if (srcWeights[i] > 0 && trgWeights[j] > 0) {
+					++intersectionLength;
+				}
+				++i;
+				++j;
 			}
 		}
-		distance = ((double)crossProd) /( Math.sqrt(srcSqSum) * Math.sqrt(trgSqSum));
-		if (distance > 0) {
-			System.out.println("source:" + src);
-			System.out.println("target:" + target);
-			System.out.println("distance: " + distance);
-		}
-		return distance;
+		return ((double)crossProd) /( src.getNorm() * target.getNorm());
 	}
 	
 	/**
-	 * @param terms
-	 * @param which
+	 * Forgets term IDs. Vectors created before can not be compared with vectors created after
 	 */
-	private void initVector(String[] terms, int which) {
-		String attr;
-		int count = 0;
-		for (String term  : terms){
-			term = term.trim();
+	public void clearTerms() {
+		termDictionary.clear();
+	}
+	
+	/**
+	 * @param text
+	 * @return
+	 */
+	public SparseVector vectorize(String text) {
+		String[] terms = text.split(fieldDelimRegex);
+		if (termPositions.length < terms.length) {
+			termPositions = new long[terms.length];
+			termCounts = new int[terms.length];
+			termIds = new int[terms.length];
+			weights = new int[terms.length];
+		}
+		
+		//term ID in upper half and position in lower half, so that sorting keeps positions in order for a term
+		for (int i = 0; i < terms.length; ++i) {
+			String term = terms[i].trim();
+			int count = 0;
 			if (isCountIncluded){
 				String[] items = term.split(":");
 				term = items[0];
 				count = Integer.parseInt(items[1]);
 			} 
-			
-			 int[] vec = countVec.get(term);
-			 if (null == vec) {
-				 vec = new int[2];
-				 vec[0] = vec[1] = 0;
-				 countVec.put(term, vec);
-			 }
-			 vec[which] = isBooleanVec ?  1 : ( isCountIncluded? count : vec[which] + 1);
+			Integer termId = termDictionary.get(term);
+			if (null == termId) {
+				termId = termDictionary.size();
+				termDictionary.put(term, termId);
+			}
+			termPositions[i] = ((long)termId << 32) | i;
+			termCounts[i] = count;
 		}
+		Arrays.sort(termPositions, 0, terms.length);
 		
+		//repeated term is counted, unless boolean or the count is included in which case the last count holds
+		int size = 0;
+		for (int i = 0; i < terms.length; ++i) {
+			int termId = (int)(termPositions[i] >>> 32);
+			int count = termCounts[(int)termPositions[i]];
+			if (size > 0 && termIds[size - 1] == termId) {
+				weights[size - 1] = isBooleanVec ?  1 : ( isCountIncluded? count : weights[size - 1] + 1);
+			} else {
+				termIds[size] = termId;
+				weights[size++] = isBooleanVec ?  1 : ( isCountIncluded? count : 1);
+			}
+		}
+		return new SparseVector(termIds, weights, size);
 	}
 
-
 }
@@ -19,9 +19,8 @@ package org.sifarish.feature;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
@@ -50,6 +49,7 @@ import org.sifarish.util.Utility;
 
 /**
  * Similarity between two different entity types based distance measure of attributes
+ * With inline.top.match set, only the top matches for each source entity seen by a reducer are output
  * @author pranab
  */
 public class DiffTypeSimilarity  extends Configured implements Tool {
@@ -194,7 +194,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         private Text valueHolder = new Text();
         private MixedTypeSchema schema;
         private int firstTypeSize;
-        private List<String> firstTypeValues = new ArrayList<String>();
+        private List<MappedSource> firstTypeValues = new ArrayList<MappedSource>();
         private int firstIdOrdinal;
         private int secondIdOrdinal;
         private String firstId;
@@ -207,7 +207,10 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         private List<Field> fields;
         private List<Field> targetFields;
         private int scale;
-        private Map<Integer, MappedValue> mappedFields = new HashMap<Integer, MappedValue>();
+        private Field[] targetFieldsByOrdinal;
+        private HardConstraintIndex hardConstraintIndex;
+        private List<String> targetValues = new ArrayList<String>();
+        private List<String[]> targetItems = new ArrayList<String[]>();
         private static final int INVALID_ORDINAL = -1;
         private int srcCount;
         private int targetCount;
@@ -223,6 +226,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         private boolean firstType;
         private String valueSt;
         private String[] items;
+        private TopMatchAccumulator topMatchAccumulator;
  
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
@@ -236,6 +240,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
             FSDataInputStream fs = dfs.open(src);
             ObjectMapper mapper = new ObjectMapper();
             schema = mapper.readValue(fs, MixedTypeSchema.class);
+            schema.compileCategoricalFields();
         	
         	firstTypeSize = schema.getEntityByType(0).getFieldCount();
         	firstIdOrdinal = schema.getEntityByType(0).getIdField().getOrdinal();
@@ -248,6 +253,14 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         	
         	fields = schema.getEntityByType(0).getFields();
         	targetFields = schema.getEntityByType(1).getFields();
+        	int maxTargetOrdinal = -1;
+        	for (Field targetField : targetFields) {
+        		maxTargetOrdinal = Math.max(maxTargetOrdinal, targetField.getOrdinal());
+        	}
+        	targetFieldsByOrdinal = new Field[maxTargetOrdinal + 1];
+        	for (Field targetField : targetFields) {
+        		targetFieldsByOrdinal[targetField.getOrdinal()] = targetField;
+        	}
         	scale = context.getConfiguration().getInt("distance.scale", 1000);
         	distStrategy = schema.createDistanceStrategy(scale);
         	fieldDelimRegex = context.getConfiguration().get("field.delim.regex", "\\[\\]");
@@ -255,18 +268,48 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         	textSimStrategy = schema.createTextSimilarityStrategy();
         	outputVerbose = context.getConfiguration().getBoolean("sim.output.verbose", true);
            	identifyWithFilePrefix = context.getConfiguration().getBoolean("identify.with.file.prefix", false);
+           	
+           	//index for skipping pairs violating hard constraints
+           	if (conf.getBoolean("hard.constraint.filter", false)) {
+           		hardConstraintIndex = new HardConstraintIndex(schema, targetFieldsByOrdinal);
+           		if (!hardConstraintIndex.isEnabled()) {
+           			hardConstraintIndex = null;
+           		}
+           	}
+           	
+           	//inline top match
+           	if (conf.getBoolean("inline.top.match", false)) {
+           		topMatchAccumulator = new TopMatchAccumulator(conf);
+           	}
                     	
         	System.out.println("firstTypeSize: " + firstTypeSize + " firstIdOrdinal:" +firstIdOrdinal + 
         			" secondIdOrdinal:" + secondIdOrdinal + " Source field count:" + fields.size() + 
         			" Target field count:" + targetFields.size());
         }
         
+    	/* (non-Javadoc)
+    	 * @see org.apache.hadoop.mapreduce.Reducer#cleanup(org.apache.hadoop.mapreduce.Reducer.Context)
+    	 */
+    	protected void cleanup(Context context) throws IOException, InterruptedException {
+    		if (null != topMatchAccumulator) {
+    			//partial top matches for source entities seen by this reducer
+    			for (String srcId : topMatchAccumulator.getSourceIds()) {
+    				for (TopMatchAccumulator.Match match : topMatchAccumulator.getTopMatches(srcId)) {
+    					valueHolder.set(match.getValue());
+    					context.write(NullWritable.get(), valueHolder);
+    				}
+    			}
+    		}
+    	}
+        
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
          */
         protected void reduce(LongWritable key, Iterable<Text> values, Context context)
         throws IOException, InterruptedException {
         	firstTypeValues.clear();
+        	targetValues.clear();
+        	targetItems.clear();
         	srcCount = 0;
         	targetCount = 0;
         	simCount = 0;
@@ -284,64 +327,111 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
         		}
         		
         		if (firstType){
-        			firstTypeValues.add(valueSt);
+        			//mapped once for all targets
+        			firstTypeValues.add(mapFields(valueSt, context));
         			++srcCount;
         		} else {
     				String second = valueSt;
     				items = second.split(fieldDelimRegex);
-    				secondId = items[secondIdOrdinal];
-    				if (secondClassAttrOrdinal >= 0) {
-    					secondClassAttr = items[secondClassAttrOrdinal];
+    				if (null != hardConstraintIndex) {
+    					//all targets needed for the index
+    					targetValues.add(second);
+    					targetItems.add(items);
+    				} else {
+	        			for (MappedSource first : firstTypeValues){
+	        				//prntDetail =  ++simResultCnt % 10000 == 0;
+	        				sim = findSimilarity(first, items, context);
+	        				emitSimilarity(first, second, items, sim, stBld, context);
+	        			}
     				}
-        			for (String first : firstTypeValues){
-        				//prntDetail =  ++simResultCnt % 10000 == 0;
-        				sim = findSimilarity(first, second, context);
-        				items = first.split(fieldDelimRegex);
-        				firstId = items[firstIdOrdinal];
-           				if (firstClassAttrOrdinal >= 0) {
-           					firstClassAttr = items[firstClassAttrOrdinal];
-        				}
-            				
-        				if (outputVerbose) {
-        					if (firstClassAttrOrdinal > 0) {
-        						stBld.append(firstId).append(fieldDelim).append(firstClassAttr).append(fieldDelim).append(secondClassAttr).
-        							append(second).append(fieldDelim).append(sim);
-        					} else {
-        						stBld.append(firstId).append(fieldDelim).append(second).append(fieldDelim).append(sim);
-        					}
-        					valueHolder.set(stBld.toString());
-        				} else {
-        					if (firstClassAttrOrdinal > 0) {
-        						stBld.append(firstId).append(fieldDelim).append(secondId).append(fieldDelim).append(firstClassAttr).
-        							append(fieldDelim).append(secondClassAttr).append(sim);
-        					} else {
-        						stBld.append(firstId).append(fieldDelim).append(secondId).append(fieldDelim).append(sim);
-        					}
-        					valueHolder.set(stBld.toString());
-        				}
-        				context.write(NullWritable.get(), valueHolder);
-        				++simCount;
-        			}
         			++targetCount;
         		}
         	}
+        	
+        	if (null != hardConstraintIndex) {
+        		findSimilarityWithIndex(stBld, context);
+        	}
 			context.getCounter("Data", "Source Count").increment(srcCount);
 			context.getCounter("Data", "Target Count").increment(targetCount);
 			context.getCounter("Data", "Similarity Count").increment(simCount);
         	
         }
         
+    	/**
+    	 * Candidate targets for each source from the hard constraint index
+    	 * @param stBld
+    	 * @param context
+    	 * @throws IOException
+    	 * @throws InterruptedException
+    	 */
+    	private void findSimilarityWithIndex(StringBuilder stBld, Context context) 
+    		throws IOException, InterruptedException {
+    		hardConstraintIndex.build(targetItems);
+    		for (MappedSource first : firstTypeValues) {
+    			BitSet candidates = hardConstraintIndex.findCandidates(first);
+    			context.getCounter("Data", "Hard Constraint Pruned").increment(targetItems.size() - candidates.cardinality());
+    			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+    				String[] items = targetItems.get(i);
+    				int sim = findSimilarity(first, items, context);
+    				emitSimilarity(first, targetValues.get(i), items, sim, stBld, context);
+    			}
+    		}
+    	}
+    	
+    	/**
+    	 * @param first
+    	 * @param second
+    	 * @param items split target
+    	 * @param sim
+    	 * @param stBld
+    	 * @param context
+    	 * @throws IOException
+    	 * @throws InterruptedException
+    	 */
+    	private void emitSimilarity(MappedSource first, String second, String[] items, int sim, StringBuilder stBld, 
+    		Context context) throws IOException, InterruptedException {
+			secondId = items[secondIdOrdinal];
+			if (secondClassAttrOrdinal >= 0) {
+				secondClassAttr = items[secondClassAttrOrdinal];
+			}
+			firstId = first.getId();
+			firstClassAttr = first.getClassAttr();
+				
+			if (outputVerbose) {
+				if (firstClassAttrOrdinal > 0) {
+					stBld.append(firstId).append(fieldDelim).append(firstClassAttr).append(fieldDelim).append(secondClassAttr).
+						append(second).append(fieldDelim).append(sim);
+				} else {
+					stBld.append(firstId).append(fieldDelim).append(second).append(fieldDelim).append(sim);
+				}
+				valueHolder.set(stBld.toString());
+			} else {
+				if (firstClassAttrOrdinal > 0) {
+					stBld.append(firstId).append(fieldDelim).append(secondId).append(fieldDelim).append(firstClassAttr).
+						append(fieldDelim).append(secondClassAttr).append(sim);
+				} else {
+					stBld.append(firstId).append(fieldDelim).append(secondId).append(fieldDelim).append(sim);
+				}
+				valueHolder.set(stBld.toString());
+			}
+			if (null != topMatchAccumulator) {
+				topMatchAccumulator.add(firstId, sim, valueHolder.toString());
+			} else {
+				context.write(NullWritable.get(), valueHolder);
+			}
+			stBld.delete(0, stBld.length());
+			++simCount;
+    	}
+    	
     	/**
     	 * @param source
-    	 * @param target
+    	 * @param trgItems
     	 * @param context
     	 * @return
     	 * @throws IOException 
     	 */
-    	private int findSimilarity(String source, String target, Context context) throws IOException {
+    	private int findSimilarity(MappedSource source, String[] trgItems, Context context) throws IOException {
     		int sim = 0;
-    		mapFields(source, context);
-    		String[] trgItems = target.split(fieldDelimRegex);
     		
     		double dist = 0;
 			context.getCounter("Data", "Target Field Count").increment(targetFields.size());
@@ -359,7 +449,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
 					System.out.println("ordinal: " + ordinal +  " target:" + trgItem);
 				}
 				
-				MappedValue mappedValueObj = mappedFields.get(ordinal);
+				MappedValue mappedValueObj = source.getMappedValue(ordinal);
 				if (null == mappedValueObj){
     				//non mapped passive attributes
 					continue;
@@ -396,7 +486,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
     				} else if (field.getDataType().equals("int")) {
     					if (!mappedValues.isEmpty()) {
 	    					int trgItemInt = Integer.parseInt(trgItem);
-    						int srcItemInt = getAverageMappedValue(mappedValues);
+    						int srcItemInt = mappedValueObj.getAverage();
     						dist = getDistForNumeric(srcField, srcItemInt, field, trgItemInt);
     					} else {
     						//missing source
@@ -425,7 +515,7 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
 					//missing target value
 					if (schema.getMissingValueHandler().equals("default")){
 						context.getCounter("Data", "Missing Target").increment(1);
-						dist = getDistForMissingTrg(field, mappedValues);
+						dist = getDistForMissingTrg(field, mappedValueObj);
 					} else {
 						skipAttr = true;
 					}
@@ -519,15 +609,16 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
     	
     	/**
     	 * @param trgField
-    	 * @param mappedValues
+    	 * @param mappedValue
     	 * @return
     	 */
-    	private double getDistForMissingTrg(Field trgField, List<String> mappedValues){
+    	private double getDistForMissingTrg(Field trgField, MappedValue mappedValue){
     		double dist = 0;
 			if (trgField.getDataType().equals("categorical") || trgField.getDataType().equals("text")) {
 				dist = 1;
 			}  else if (trgField.getDataType().equals("int")) {
-				int srcValInt = getAverageMappedValue(mappedValues);
+				int srcValInt = mappedValue.hasAverage() ? mappedValue.getAverage() : 
+					getAverageMappedValue(mappedValue.getValues());
 				int max = trgField.getMax();
 				int min = trgField.getMin();
 				if (max > min) {
@@ -543,12 +634,15 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
     	}
     	
     	/**
+    	 * Maps source field values to target fields
     	 * @param source
     	 * @param context
+    	 * @return mapped source
     	 */
-    	private void mapFields(String source, Context context){
-	    	mappedFields.clear();
+    	private MappedSource mapFields(String source, Context context){
 			String[] srcItems = source.split(fieldDelimRegex);
+			MappedSource mappedSource = new MappedSource(srcItems[firstIdOrdinal], 
+					firstClassAttrOrdinal >= 0 ? srcItems[firstClassAttrOrdinal] : null, targetFieldsByOrdinal.length);
 			
 			if (prntDetail){
 				System.out.println("src record: " + srcItems[0]);
@@ -558,15 +652,16 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
 				if (null != mappings){
 					for (FieldMapping fldMapping : mappings) {
 						int matchingOrdinal = fldMapping.getMatchingOrdinal();
-						if (-1 == matchingOrdinal) {
+						if (-1 == matchingOrdinal || matchingOrdinal >= targetFieldsByOrdinal.length) {
+							//not mapped or no target field
 							continue;
 						}
 						
-						MappedValue mappedValue = mappedFields.get(matchingOrdinal);
+						MappedValue mappedValue = mappedSource.getMappedValue(matchingOrdinal);
 						if (null == mappedValue){
 							mappedValue = new MappedValue();
 							mappedValue.setField(field);
-							mappedFields.put(matchingOrdinal, mappedValue);
+							mappedSource.setMappedValue(matchingOrdinal, mappedValue);
 						}
 						List<String> mappedValues = mappedValue.getValues();
 						
@@ -610,6 +705,17 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
 					}
 				} 
 			}
+			
+			//averages for int targets
+			for (int ordinal = 0; ordinal < targetFieldsByOrdinal.length; ++ordinal) {
+				MappedValue mappedValue = mappedSource.getMappedValue(ordinal);
+				Field targetField = targetFieldsByOrdinal[ordinal];
+				if (null != mappedValue && null != targetField && targetField.getDataType().equals("int") && 
+						!mappedValue.getValues().isEmpty()) {
+					mappedValue.setAverage(getAverageMappedValue(mappedValue.getValues()));
+				}
+			}
+			return mappedSource;
 	    }
     	
         /**
@@ -674,6 +780,8 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
     public static class MappedValue {
     	private List<String> values = new ArrayList<String>();
     	private Field field;
+    	private int average;
+    	private boolean averaged;
     	
 		public List<String> getValues() {
 			return values;
@@ -687,7 +795,55 @@ public class DiffTypeSimilarity  extends Configured implements Tool {
 		public void setField(Field field) {
 			this.field = field;
 		}
+		public int getAverage() {
+			return average;
+		}
+		public void setAverage(int average) {
+			this.average = average;
+			averaged = true;
+		}
+		public boolean hasAverage() {
+			return averaged;
+		}
+    }
+    
+    /**
+     * Source entity with values mapped to target fields, by target ordinal
+     * @author pranab
+     *
+     */
+    public static class MappedSource {
+    	private String id;
+    	private String classAttr;
+    	private MappedValue[] mappedValues;
     	
+    	/**
+    	 * @param id
+    	 * @param classAttr
+    	 * @param targetOrdinalCount
+    	 */
+    	public MappedSource(String id, String classAttr, int targetOrdinalCount) {
+    		this.id = id;
+    		this.classAttr = classAttr;
+    		mappedValues = new MappedValue[targetOrdinalCount];
+    	}
+		public String getId() {
+			return id;
+		}
+		public String getClassAttr() {
+			return classAttr;
+		}
+		
+		/**
+		 * @param ordinal target ordinal
+		 * @return mapped value or null if not mapped
+		 */
+		public MappedValue getMappedValue(int ordinal) {
+			return ordinal < mappedValues.length ? mappedValues[ordinal] : null;
+		}
+		public void setMappedValue(int ordinal, MappedValue mappedValue) {
+			mappedValues[ordinal] = mappedValue;
+		}
     }
     
 }
@@ -64,6 +64,24 @@ public abstract class DistanceStrategy  implements  IDistanceStrategy {
 	 */
 	public abstract  double getSimilarity(boolean isScaled);
 	
+	/**
+	 * Lower bound on the final scaled distance, when at most remainingCount more distances are 
+	 * accumulated and none of them decreases the aggregate
+	 * @param remainingCount
+	 * @return
+	 */
+	public abstract double getLowerBound(int remainingCount);
+	
+	/**
+	 * Effective distance is d/w + (1 - 1/w)d^2, which is non negative for any non negative distance 
+	 * when weight is at least 1
+	 * @param weight
+	 * @return true if accumulating a distance with the weight never decreases the aggregate
+	 */
+	public boolean isNonDecreasing(double weight) {
+		return weight >= 1.0;
+	}
+	
 	/**
 	 * @return
 	 */
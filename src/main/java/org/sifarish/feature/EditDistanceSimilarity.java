@@ -17,28 +17,34 @@
 
 package org.sifarish.feature;
 
-import java.util.HashSet;
-import java.util.Set;
-
-import org.apache.hadoop.conf.Configuration;
+import org.sifarish.util.EditDistance;
 
 /**
- * Distance based on edit distance of corresponding tokens in text
+ * Distance based on edit distance of corresponding tokens in text. Edit distance is the insert delete distance
+ * i.e. m + n - 2 * lcs, normalized by m + n. Optionally a max edit distance can be set, beyond which the 
+ * normalized distance is 1.0 and computation terminates early
  * @author pranab
  *
  */
 public class EditDistanceSimilarity extends DynamicAttrSimilarityStrategy {
-	private Set<String> sequences = new HashSet<String>();
-	private int maxSeqLength = 0;
-	private static final int MIN_TOKEN_LENGTH = 1;
+	private EditDistance editDistEngine = new EditDistance();
+	private int maxDistance;
 	private boolean tokenWise;
 	
 
 	public EditDistanceSimilarity(boolean tokenWise) {
+		this(tokenWise, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param tokenWise
+	 * @param maxDistance max edit distance, non positive for no limit
+	 */
+	public EditDistanceSimilarity(boolean tokenWise, int maxDistance) {
 		super();
 		this.tokenWise = tokenWise;
+		this.maxDistance = maxDistance > 0 ? maxDistance : Integer.MAX_VALUE;
 	}
-
 	
 	/* (non-Javadoc)
 	 * @see org.sifarish.feature.DynamicAttrSimilarityStrategy#findDistance(java.lang.String, java.lang.String)
@@ -62,42 +68,17 @@ public class EditDistanceSimilarity extends DynamicAttrSimilarityStrategy {
 	 */
 	private  double findDistanceTokenWise(String src, String target) {
 		double distance = 0;
-		int editDistance = 0;
-		//System.out.println("findDistanceTokenWise:" + src + ":"  + target);
-
 		String[] srcTerms = src.split(fieldDelimRegex);
 		String[] trgTerms = target.split(fieldDelimRegex);
 		if (srcTerms.length == trgTerms.length) {
 			for (int i = 0;  i  < srcTerms.length;  ++i ) {
 				String srcItem =  srcTerms[i];
 				String trgItem  = trgTerms[i];
-				editDistance = 0;
 			
 				//only if tokens are not equal
 				if (!srcItem.equals(trgItem)) {
-					if (srcItem.length() == 1) {
-						if (trgItem.indexOf(srcItem) >= 0) {
-							editDistance  = trgItem.length() - 1;
-						} else {
-							editDistance  = trgItem.length() + 1;
-						}
-					} else if (trgItem.length() == 1) {
-						if (srcItem.indexOf(srcItem) >= 0) {
-							editDistance  = srcItem.length() - 1;
-						} else {
-							editDistance  =srcItem.length() + 1;
-						}
-					} else {
-						sequences.clear();
-						maxSeqLength = 0;
-						generateSubSequences(srcItem, true);
-						generateSubSequences(trgItem, false);
-						editDistance  = srcItem.length() + trgItem.length() - 2 * maxSeqLength;
-					}
+					distance += normalizedDistance(srcItem, trgItem);
 				}
-				
-				//normalize
-				distance += ((double)editDistance) / (srcItem.length() + trgItem.length() );
 			}
 			
 			//average over number of tokens
@@ -107,7 +88,6 @@ public class EditDistanceSimilarity extends DynamicAttrSimilarityStrategy {
 			distance = 1.0;
 		}
 		
-		//System.out.println("edit distance:" + distance);
 		return distance;
 	}
 	
@@ -117,45 +97,21 @@ public class EditDistanceSimilarity extends DynamicAttrSimilarityStrategy {
 	 * @return
 	 */
 	private  double findDistanceFieldWise(String src, String target) {
-		double distance = 0;
-		int editDistance = 0;
-		sequences.clear();
-		maxSeqLength = 0;
-		generateSubSequences(src, true);
-		generateSubSequences(target, false);
-		editDistance  = src.length() + target.length() - 2 * maxSeqLength;
-		distance += ((double)editDistance) / (src.length() + target.length() );
-
-		return distance;
+		return normalizedDistance(src, target);
 	}
 	
 	/**
-	 * @param token
-	 * @param store
+	 * @param src
+	 * @param target
+	 * @return edit distance normalized by total length, 1.0 if edit distance is above max
 	 */
-	private void generateSubSequences(String token, boolean store) {
-		int len = token.length();
-		if (store) {
-			sequences.add(token);
-		} else {
-			if (sequences.contains(token) && len > maxSeqLength) {
-				maxSeqLength = len;
-			}
-		}
-		
-		String subToken = null;
-		if (len  > MIN_TOKEN_LENGTH ) { 
-			//create sub sequences by taking one char out and make recursive call
-			for (int i = 0; i < len; ++i) {
-				if (i == 0) {
-					subToken = token.substring(1);
-				} else if (i ==  len - 1) {
-					subToken = token.substring(0, len - 1);
-				} else {
-					subToken = token.substring(0, i ) + token.substring(i + 1);
-				}
-				generateSubSequences(subToken, store);
-			}
+	private double normalizedDistance(String src, String target) {
+		int lenSum = src.length() + target.length();
+		double distance = 0;
+		if (lenSum > 0) {
+			int editDistance = editDistEngine.distance(src, target, maxDistance);
+			distance = editDistance > maxDistance ? 1.0 : ((double)editDistance) / lenSum;
 		}
+		return distance;
 	}
 }
@@ -62,4 +62,22 @@ public class EuclideanDistance extends DistanceStrategy {
 		}
 		return sim;
 	}
+
+	/* (non-Javadoc)
+	 * @see org.sifarish.feature.DistanceStrategy#getLowerBound(int)
+	 */
+	@Override
+	public double getLowerBound(int remainingCount) {
+		int maxCount = count + remainingCount;
+		return maxCount > 0 ? (Math.sqrt(sumWt) * scale) / maxCount : 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.sifarish.feature.DistanceStrategy#isNonDecreasing(double)
+	 */
+	@Override
+	public boolean isNonDecreasing(double weight) {
+		//effective distance is squared
+		return true;
+	}
 }
@@ -0,0 +1,246 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+
+package org.sifarish.feature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sifarish.util.Field;
+import org.sifarish.util.FieldMapping;
+
+/**
+ * Index over the target entities of a bucket for hard constraints. Int target fields mapped from 
+ * source fields with equalHard, minHard or maxHard distance function are kept as value sorted arrays. 
+ * Categorical target fields with distance threshold are kept as value to bit set maps. Candidates for a 
+ * source are found by intersecting the bit sets of targets satisfying each constraint. Targets with missing 
+ * value and sources with no mapped value don't violate a constraint.
+ * @author pranab
+ *
+ */
+public class HardConstraintIndex {
+	private MixedTypeSchema schema;
+	private Field[] targetFieldsByOrdinal;
+	private List<Integer> numericOrdinals = new ArrayList<Integer>();
+	private List<Integer> categoricalOrdinals = new ArrayList<Integer>();
+	private int targetCount;
+	private int[][] sortedValues;
+	private int[][] sortedTargets;
+	private BitSet[] missingTargets;
+	private List<Map<String, BitSet>> valueTargets = new ArrayList<Map<String, BitSet>>();
+	
+	/**
+	 * @param schema
+	 * @param targetFieldsByOrdinal
+	 */
+	public HardConstraintIndex(MixedTypeSchema schema, Field[] targetFieldsByOrdinal) {
+		this.schema = schema;
+		this.targetFieldsByOrdinal = targetFieldsByOrdinal;
+		boolean[] numeric = new boolean[targetFieldsByOrdinal.length];
+		boolean[] categorical = new boolean[targetFieldsByOrdinal.length];
+		for (Field field : schema.getEntityByType(0).getFields()) {
+			List<FieldMapping> mappings = field.getMappings();
+			if (null == mappings) {
+				continue;
+			}
+			for (FieldMapping fldMapping : mappings) {
+				int ordinal = fldMapping.getMatchingOrdinal();
+				if (ordinal < 0 || ordinal >= targetFieldsByOrdinal.length || null == targetFieldsByOrdinal[ordinal]) {
+					continue;
+				}
+				Field targetField = targetFieldsByOrdinal[ordinal];
+				if (targetField.getDataType().equals("int") && isHard(field.getNumDistFunction())) {
+					numeric[ordinal] = true;
+				} else if (targetField.getDataType().equals("categorical") && targetField.getDistThreshold() > 0.0) {
+					categorical[ordinal] = true;
+				}
+			}
+		}
+		
+		for (int ordinal = 0; ordinal < targetFieldsByOrdinal.length; ++ordinal) {
+			if (numeric[ordinal]) {
+				numericOrdinals.add(ordinal);
+			} else if (categorical[ordinal]) {
+				categoricalOrdinals.add(ordinal);
+			}
+		}
+		sortedValues = new int[targetFieldsByOrdinal.length][];
+		sortedTargets = new int[targetFieldsByOrdinal.length][];
+		missingTargets = new BitSet[targetFieldsByOrdinal.length];
+		for (int ordinal = 0; ordinal < targetFieldsByOrdinal.length; ++ordinal) {
+			valueTargets.add(null);
+		}
+	}
+	
+	/**
+	 * @param distFun
+	 * @return true for hard numeric distance function
+	 */
+	public static boolean isHard(String distFun) {
+		return distFun.equals("equalHard") || distFun.equals("minHard") || distFun.equals("maxHard");
+	}
+	
+	/**
+	 * @return true if there are constrained fields
+	 */
+	public boolean isEnabled() {
+		return !numericOrdinals.isEmpty() || !categoricalOrdinals.isEmpty();
+	}
+	
+	/**
+	 * Builds index for the target entities of a bucket
+	 * @param targets split target records
+	 */
+	public void build(List<String[]> targets) {
+		targetCount = targets.size();
+		for (int ordinal : numericOrdinals) {
+			BitSet missing = new BitSet(targetCount);
+			long[] entries = new long[targetCount];
+			int count = 0;
+			for (int i = 0; i < targetCount; ++i) {
+				String item = targets.get(i)[ordinal];
+				if (item.isEmpty()) {
+					missing.set(i);
+				} else {
+					//value in the high bits, target index in the low bits
+					entries[count++] = ((long)Integer.parseInt(item) << 32) | i;
+				}
+			}
+			Arrays.sort(entries, 0, count);
+			int[] values = new int[count];
+			int[] targetIndexes = new int[count];
+			for (int i = 0; i < count; ++i) {
+				values[i] = (int)(entries[i] >> 32);
+				targetIndexes[i] = (int)entries[i];
+			}
+			sortedValues[ordinal] = values;
+			sortedTargets[ordinal] = targetIndexes;
+			missingTargets[ordinal] = missing;
+		}
+		
+		for (int ordinal : categoricalOrdinals) {
+			BitSet missing = new BitSet(targetCount);
+			Map<String, BitSet> targetsByValue = new HashMap<String, BitSet>();
+			for (int i = 0; i < targetCount; ++i) {
+				String item = targets.get(i)[ordinal];
+				if (item.isEmpty()) {
+					missing.set(i);
+				} else {
+					BitSet valueBits = targetsByValue.get(item);
+					if (null == valueBits) {
+						valueBits = new BitSet(targetCount);
+						targetsByValue.put(item, valueBits);
+					}
+					valueBits.set(i);
+				}
+			}
+			valueTargets.set(ordinal, targetsByValue);
+			missingTargets[ordinal] = missing;
+		}
+	}
+	
+	/**
+	 * Targets not violating any hard constraint for the source
+	 * @param source
+	 * @return candidate target indexes
+	 */
+	public BitSet findCandidates(DiffTypeSimilarity.MappedSource source) {
+		BitSet candidates = new BitSet(targetCount);
+		candidates.set(0, targetCount);
+		for (int ordinal : numericOrdinals) {
+			DiffTypeSimilarity.MappedValue mappedValue = source.getMappedValue(ordinal);
+			if (null == mappedValue || !mappedValue.hasAverage()) {
+				continue;
+			}
+			String distFun = mappedValue.getField().getNumDistFunction();
+			if (!isHard(distFun)) {
+				continue;
+			}
+			
+			int srcVal = mappedValue.getAverage();
+			int[] values = sortedValues[ordinal];
+			int start = 0;
+			int end = values.length;
+			if (distFun.equals("equalHard")) {
+				start = lowerBound(values, srcVal);
+				end = lowerBound(values, srcVal + 1L);
+			} else if (distFun.equals("minHard")) {
+				//target at least source
+				start = lowerBound(values, srcVal);
+			} else {
+				//target at most source
+				end = lowerBound(values, srcVal + 1L);
+			}
+			BitSet allowed = (BitSet)missingTargets[ordinal].clone();
+			int[] targetIndexes = sortedTargets[ordinal];
+			for (int i = start; i < end; ++i) {
+				allowed.set(targetIndexes[i]);
+			}
+			candidates.and(allowed);
+			if (candidates.isEmpty()) {
+				return candidates;
+			}
+		}
+		
+		for (int ordinal : categoricalOrdinals) {
+			DiffTypeSimilarity.MappedValue mappedValue = source.getMappedValue(ordinal);
+			if (null == mappedValue || mappedValue.getValues().isEmpty()) {
+				continue;
+			}
+			Field targetField = targetFieldsByOrdinal[ordinal];
+			BitSet allowed = (BitSet)missingTargets[ordinal].clone();
+			for (Map.Entry<String, BitSet> entry : valueTargets.get(ordinal).entrySet()) {
+				double dist = 1.0;
+				for (String value : mappedValue.getValues()) {
+					dist = Math.min(dist, schema.findCattegoricalDistance(value, entry.getKey(), ordinal));
+				}
+				if (!targetField.isDistanceThresholdCrossed(dist)) {
+					allowed.or(entry.getValue());
+				}
+			}
+			candidates.and(allowed);
+			if (candidates.isEmpty()) {
+				return candidates;
+			}
+		}
+		return candidates;
+	}
+	
+	/**
+	 * @param values sorted values
+	 * @param key
+	 * @return index of first value not less than key
+	 */
+	private static int lowerBound(int[] values, long key) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (values[mid] < key) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
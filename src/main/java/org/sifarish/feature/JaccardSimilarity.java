@@ -17,14 +17,32 @@
 
 package org.sifarish.feature;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sifarish.util.MinHash;
+
 /**
- * Jaccard similarity
+ * Jaccard similarity between term sets, with separate weights for non matching source and target terms. 
+ * Exact mode merges sorted and de duplicated term ID arrays. MinHash mode estimates jaccard from
+ * MinHash signatures and finds the intersection size from the estimate and the set sizes. Signatures of
+ * the last source and target are cached, since the same record is typically compared with many others
  * @author pranab
  *
  */
 public class JaccardSimilarity extends DynamicAttrSimilarityStrategy {
 	private double srcNonMatchingTermWeight;
 	private double trgNonMatchingTermWeight;
+	private Map<String, Integer> termDictionary = new HashMap<String, Integer>();
+	private MinHash minHash;
+	private String srcText;
+	private int[] srcSignature;
+	private int srcTermCount;
+	private String trgText;
+	private int[] trgSignature;
+	private int trgTermCount;
+	private static final long MIN_HASH_SEED = 1;
 
 	
 	/**
@@ -37,6 +55,17 @@ public class JaccardSimilarity extends DynamicAttrSimilarityStrategy {
 		this.trgNonMatchingTermWeight = trgNonMatchingTermWeight;
 	}
 
+	/**
+	 * MinHash mode
+	 * @param srcNonMatchingTermWeight
+	 * @param trgNonMatchingTermWeight
+	 * @param minHashFunctionCount
+	 */
+	public JaccardSimilarity(double srcNonMatchingTermWeight, double trgNonMatchingTermWeight, 
+			int minHashFunctionCount) {
+		this(srcNonMatchingTermWeight, trgNonMatchingTermWeight);
+		minHash = new MinHash(minHashFunctionCount, MIN_HASH_SEED);
+	}
 
 	/* (non-Javadoc)
 	 * @see org.sifarish.feature.DynamicAttrSimilarityStrategy#findDistance(java.lang.String, java.lang.String)
@@ -44,25 +73,116 @@ public class JaccardSimilarity extends DynamicAttrSimilarityStrategy {
 	@Override
 	public double findDistance(String src, String target) {
 		double distance = 1.0;
-		
-		String[] srcTerms = src.split(fieldDelimRegex);
-		String[] trgTerms = target.split(fieldDelimRegex);
-		
+		if (null != minHash) {
+			if (!src.equals(srcText)) {
+				String[] terms = src.split(fieldDelimRegex);
+				srcText = src;
+				srcSignature = minHash.signature(terms);
+				srcTermCount = distinctCount(terms);
+			}
+			if (!target.equals(trgText)) {
+				String[] terms = target.split(fieldDelimRegex);
+				trgText = target;
+				trgSignature = minHash.signature(terms);
+				trgTermCount = distinctCount(terms);
+			}
+			double similarity = MinHash.estimateSimilarity(srcSignature, trgSignature);
+			
+			//|A ^ B| = j * (|A| + |B|) / (1 + j)
+			double matchCount = similarity * (srcTermCount + trgTermCount) / (1.0 + similarity);
+			matchCount = Math.min(matchCount, Math.min(srcTermCount, trgTermCount));
+			distance = findDistance(matchCount, srcTermCount - matchCount, trgTermCount - matchCount);
+			intersectionLength = (int)Math.round(matchCount);
+		} else {
+			termDictionary.clear();
+			distance = findDistance(termSet(src), termSet(target));
+		}
+		return distance;
+	}
+
+	/**
+	 * Exact distance
+	 * @param srcTermSet sorted term IDs without duplicates
+	 * @param trgTermSet sorted term IDs without duplicates
+	 * @return
+	 */
+	public double findDistance(int[] srcTermSet, int[] trgTermSet) {
 		int matchCount = 0;
-		for (String srcTerm : srcTerms) {
-			for (String trgTerm : trgTerms) {
-				if (srcTerm.equals(trgTerm)) {
-					++matchCount;
-				}
+		int i = 0;
+		int j = 0;
+		while (i < srcTermSet.length && j < trgTermSet.length) {
+			if (srcTermSet[i] < trgTermSet[j]) {
+				++i;
+			} else if (srcTermSet[i] > trgTermSet[j]) {
+				++j;
+			} else {
+				++matchCount;
+				++i;
+				++j;
 			}
 		}
-		
-		int srcNonMatchCount = srcTerms.length - matchCount;
-		int trgNonMatchCount = trgTerms.length - matchCount;
-		distance = 1.0 - (double)matchCount / ((double)matchCount + srcNonMatchingTermWeight * srcNonMatchCount +
-				trgNonMatchingTermWeight * trgNonMatchCount);
 		intersectionLength = matchCount;
-		return distance;
+		return findDistance(matchCount, srcTermSet.length - matchCount, trgTermSet.length - matchCount);
+	}
+	
+	/**
+	 * @param matchCount
+	 * @param srcNonMatchCount
+	 * @param trgNonMatchCount
+	 * @return
+	 */
+	private double findDistance(double matchCount, double srcNonMatchCount, double trgNonMatchCount) {
+		return 1.0 - matchCount / (matchCount + srcNonMatchingTermWeight * srcNonMatchCount +
+				trgNonMatchingTermWeight * trgNonMatchCount);
+	}
+	
+	/**
+	 * Term set with term IDs from the dictionary of this instance
+	 * @param text
+	 * @return sorted term IDs without duplicates
+	 */
+	public int[] termSet(String text) {
+		String[] terms = text.split(fieldDelimRegex);
+		int[] termIds = new int[terms.length];
+		for (int i = 0; i < terms.length; ++i) {
+			Integer termId = termDictionary.get(terms[i]);
+			if (null == termId) {
+				termId = termDictionary.size();
+				termDictionary.put(terms[i], termId);
+			}
+			termIds[i] = termId;
+		}
+		Arrays.sort(termIds);
+		int size = 0;
+		for (int i = 0; i < termIds.length; ++i) {
+			if (size == 0 || termIds[size - 1] != termIds[i]) {
+				termIds[size++] = termIds[i];
+			}
+		}
+		return size == termIds.length ? termIds : Arrays.copyOf(termIds, size);
+	}
+	
+	/**
+	 * Forgets term IDs. Term sets created before can not be compared with term sets created after
+	 */
+	public void clearTerms() {
+		termDictionary.clear();
+	}
+	
+	/**
+	 * @param terms
+	 * @return
+	 */
+	private int distinctCount(String[] terms) {
+		String[] sorted = Arrays.copyOf(terms, terms.length);
+		Arrays.sort(sorted);
+		int count = 0;
+		for (int i = 0; i < sorted.length; ++i) {
+			if (i == 0 || !sorted[i].equals(sorted[i - 1])) {
+				++count;
+			}
+		}
+		return count;
 	}
 
 }
@@ -57,4 +57,10 @@ public class ManhattanDistance extends DistanceStrategy {
 		}
 		return 0;
 	}
+
+	@Override
+	public double getLowerBound(int remainingCount) {
+		int maxCount = count + remainingCount;
+		return maxCount > 0 ? (sumWt * scale) / maxCount : 0;
+	}
 }
@@ -67,4 +67,13 @@ public class MinkwoskiDistance extends DistanceStrategy {
 		return 0;
 	}
 
+	/* (non-Javadoc)
+	 * @see org.sifarish.feature.DistanceStrategy#getLowerBound(int)
+	 */
+	@Override
+	public double getLowerBound(int remainingCount) {
+		int maxCount = count + remainingCount;
+		return maxCount > 0 ? (Math.pow(sumWt, 1.0/power)  * scale) / maxCount : 0;
+	}
+
 }
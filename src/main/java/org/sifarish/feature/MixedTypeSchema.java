@@ -30,6 +30,7 @@ import org.sifarish.util.Field;
  */
 public class MixedTypeSchema  extends TypeSchema {
 	private List<Entity> entities;
+	private Field[] categoricalFields;
 	
 	/**
 	 * @return
@@ -101,6 +102,10 @@ public class MixedTypeSchema  extends TypeSchema {
 	 */
 	public double findCattegoricalDistance(String thisValue, String thatValue, int ordinal) {
 		double distance = 1.0;
+		if (null != categoricalFields) {
+			Field field = ordinal < categoricalFields.length ? categoricalFields[ordinal] : null;
+			return null != field ? field.findDistance(thisValue, thatValue) : distance;
+		}
 		
 		Entity entity = entities.get(1);
 		List<Field> fields = entity.getFields();
@@ -114,4 +119,30 @@ public class MixedTypeSchema  extends TypeSchema {
 		return distance;
 	}
 	
+	/**
+	 * Compiles categorical distance lookup tables and indexes fields used by findCattegoricalDistance 
+	 * by ordinal
+	 */
+	public void compileCategoricalFields() {
+		for (Entity entity : entities) {
+			for (Field field : entity.getFields()) {
+				if ("categorical".equals(field.getDataType())) {
+					field.compileCategoricalDistances();
+				}
+			}
+		}
+		
+		//first field with the ordinal, as in the scan
+		List<Field> fields = entities.get(1).getFields();
+		int maxOrdinal = -1;
+		for (Field field : fields) {
+			maxOrdinal = Math.max(maxOrdinal, field.getOrdinal());
+		}
+		categoricalFields = new Field[maxOrdinal + 1];
+		for (Field field : fields) {
+			if (field.getOrdinal() >= 0 && null == categoricalFields[field.getOrdinal()]) {
+				categoricalFields[field.getOrdinal()] = field;
+			}
+		}
+	}
 }
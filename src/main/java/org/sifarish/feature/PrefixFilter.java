@@ -0,0 +1,227 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefix, length and positional filtering for exact all pairs similarity join, as in AllPairs and PPJoin.
+ * Tokens of each vector are sorted in a global order. Any pair above the similarity threshold shares a 
+ * token in the prefixes of both vectors. The first such token is also the first common token overall, 
+ * which gives a unique token for processing each pair.
+ * 
+ * Jaccard similarity is m / (m + a(|x| - m) + b(|y| - m)), where m is the overlap and a, b are the non 
+ * matching term weights. With c = min(a, b), the required overlap is at least tc(|x| + |y|) / (1 - t + 2tc).
+ * Boolean cosine requires overlap of at least t sqrt(|x| |y|). Weighted cosine prefix is such that the 
+ * norm of the remaining suffix is below t times the vector norm. In all cases overlap must also be at 
+ * least the minimum intersection length.
+ * @author pranab
+ *
+ */
+public class PrefixFilter {
+	private boolean jaccard;
+	private boolean booleanVec;
+	private double threshold;
+	private double minWeight;
+	private int minOverlap;
+	private static final double EPSILON = 0.000001;
+	
+	/**
+	 * Global token order, by hash and then by token
+	 */
+	public static final Comparator<String> TOKEN_ORDER = new Comparator<String>() {
+		@Override
+		public int compare(String first, String second) {
+			int firstHash = first.hashCode();
+			int secondHash = second.hashCode();
+			return firstHash < secondHash ? -1 : (firstHash > secondHash ? 1 : first.compareTo(second));
+		}
+	};
+	
+	/**
+	 * @param jaccard true for jaccard, false for cosine
+	 * @param booleanVec
+	 * @param threshold similarity threshold
+	 * @param minWeight min of jaccard non matching term weights
+	 * @param minOverlap minimum intersection length
+	 */
+	public PrefixFilter(boolean jaccard, boolean booleanVec, double threshold, double minWeight, int minOverlap) {
+		this.jaccard = jaccard;
+		this.booleanVec = jaccard || booleanVec;
+		this.threshold = threshold;
+		this.minWeight = minWeight;
+		this.minOverlap = minOverlap;
+	}
+	
+	/**
+	 * @param terms
+	 * @param weights term weights, ignored for boolean vector
+	 * @return
+	 */
+	public TokenVector vectorize(String[] terms, int[] weights) {
+		Map<String, Integer> termWeights = new HashMap<String, Integer>();
+		for (int i = 0; i < terms.length; ++i) {
+			Integer weight = termWeights.get(terms[i]);
+			int newWeight = booleanVec ? 1 : (null == weight ? weights[i] : weight + weights[i]);
+			termWeights.put(terms[i], newWeight);
+		}
+		
+		List<String> tokenList = new ArrayList<String>(termWeights.keySet());
+		Collections.sort(tokenList, TOKEN_ORDER);
+		TokenVector vector = new TokenVector();
+		vector.tokens = tokenList.toArray(new String[tokenList.size()]);
+		vector.weights = new double[vector.tokens.length];
+		double sqSum = 0;
+		for (int i = 0; i < vector.tokens.length; ++i) {
+			vector.weights[i] = termWeights.get(vector.tokens[i]);
+			sqSum += vector.weights[i] * vector.weights[i];
+		}
+		vector.prefixLength = prefixLength(vector, sqSum);
+		return vector;
+	}
+	
+	/**
+	 * @param vector
+	 * @param sqSum
+	 * @return
+	 */
+	private int prefixLength(TokenVector vector, double sqSum) {
+		int size = vector.tokens.length;
+		
+		//overlap based
+		double overlap = minOverlap;
+		if (jaccard) {
+			overlap = Math.max(overlap, threshold * minWeight * size / (1.0 - threshold + threshold * minWeight));
+		} else if (booleanVec) {
+			overlap = Math.max(overlap, threshold * threshold * size);
+		}
+		int prefixLength = size - (int)Math.ceil(overlap - EPSILON) + 1;
+		
+		//norm based for weighted cosine
+		if (!booleanVec) {
+			double maxSuffixSqSum = threshold * threshold * sqSum;
+			double suffixSqSum = 0;
+			int suffixLength = 0;
+			for (int i = size - 1; i >= 0; --i) {
+				suffixSqSum += vector.weights[i] * vector.weights[i];
+				if (suffixSqSum >= maxSuffixSqSum) {
+					break;
+				}
+				++suffixLength;
+			}
+			prefixLength = Math.min(prefixLength, size - suffixLength);
+		}
+		return Math.max(0, Math.min(size, prefixLength));
+	}
+	
+	/**
+	 * @param first
+	 * @param second
+	 * @return minimum overlap required for the pair
+	 */
+	public int requiredOverlap(TokenVector first, TokenVector second) {
+		double overlap = minOverlap;
+		int firstSize = first.tokens.length;
+		int secondSize = second.tokens.length;
+		if (jaccard) {
+			double tc = threshold * minWeight;
+			overlap = Math.max(overlap, tc * (firstSize + secondSize) / (1.0 - threshold + 2 * tc));
+		} else if (booleanVec) {
+			overlap = Math.max(overlap, threshold * Math.sqrt((double)firstSize * secondSize));
+		}
+		return (int)Math.ceil(overlap - EPSILON);
+	}
+	
+	/**
+	 * Length filter
+	 * @param first
+	 * @param second
+	 * @return true if sizes allow the required overlap
+	 */
+	public boolean passesLengthFilter(TokenVector first, TokenVector second) {
+		return Math.min(first.tokens.length, second.tokens.length) >= requiredOverlap(first, second);
+	}
+	
+	/**
+	 * @param first
+	 * @param second
+	 * @return index of first common prefix token in first vector, -1 if none
+	 */
+	public int firstCommonPrefixToken(TokenVector first, TokenVector second) {
+		int i = 0;
+		int j = 0;
+		int found = -1;
+		while (i < first.prefixLength && j < second.prefixLength && found < 0) {
+			int cmp = TOKEN_ORDER.compare(first.tokens[i], second.tokens[j]);
+			if (cmp == 0) {
+				found = i;
+			} else if (cmp < 0) {
+				++i;
+			} else {
+				++j;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Positional filter for the first common token at the given positions
+	 * @param first
+	 * @param firstPos
+	 * @param second
+	 * @param secondPos
+	 * @return true if the remaining tokens can provide the required overlap
+	 */
+	public boolean passesPositionalFilter(TokenVector first, int firstPos, TokenVector second, int secondPos) {
+		int maxOverlap = 1 + Math.min(first.tokens.length - firstPos - 1, second.tokens.length - secondPos - 1);
+		return maxOverlap >= requiredOverlap(first, second);
+	}
+	
+	/**
+	 * Sorted tokens with weights and prefix length
+	 * @author pranab
+	 *
+	 */
+	public static class TokenVector {
+		private String[] tokens;
+		private double[] weights;
+		private int prefixLength;
+		
+		public String[] getTokens() {
+			return tokens;
+		}
+		
+		public int getPrefixLength() {
+			return prefixLength;
+		}
+		
+		/**
+		 * @param token
+		 * @return position of token
+		 */
+		public int position(String token) {
+			return Arrays.binarySearch(tokens, token, TOKEN_ORDER);
+		}
+	}
+}
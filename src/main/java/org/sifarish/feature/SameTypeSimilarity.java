@@ -19,7 +19,10 @@ package org.sifarish.feature;
 import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
@@ -57,6 +60,16 @@ import org.sifarish.util.Utility;
 /**
  * Mapreduce for finding similarities between same type of entities with fixed set of attributes. For example, 
  * products   where the attributes are the different product features
+ * 
+ * With sorted.neighborhood set, records are sorted by one or more blocking keys, one sort per pass, and 
+ * each record is compared only with the next snm.window.size records in sort order. A pair close in 
+ * more than one pass is output once for each such pass
+ * 
+ * With canopy.partitioned set, the list of canopy IDs appended by CanopyAssigner is used as the partitioning
+ * key. A pair sharing multiple canopies is output only for the smallest shared canopy ID
+ * 
+ * With inline.top.match set, only the top matches for each entity seen by a reducer are output, which 
+ * can be merged with TopMatches
  *  
  * @author pranab
  *
@@ -73,7 +86,11 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         FileInputFormat.addInputPath(job, new Path(args[0]));
         FileOutputFormat.setOutputPath(job, new Path(args[1]));
 
-        job.setMapperClass(SameTypeSimilarity.SimilarityMapper.class);
+        if (job.getConfiguration().getBoolean("sorted.neighborhood", false)) {
+        	job.setMapperClass(SameTypeSimilarity.SortedNeighborhoodMapper.class);
+        } else {
+        	job.setMapperClass(SameTypeSimilarity.SimilarityMapper.class);
+        }
         job.setReducerClass(SameTypeSimilarity.SimilarityReducer.class);
         
         job.setMapOutputKeyClass(TextIntInt.class);
@@ -118,6 +135,8 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         private  int partitonOrdinal;
         private int hashPair;
         private int hashCode;
+        private boolean canopyPartitioned;
+        private String canopyIdDelim;
         private static final Logger LOG = Logger.getLogger(SimilarityMapper.class);
  
         /* (non-Javadoc)
@@ -136,6 +155,8 @@ public class SameTypeSimilarity  extends Configured implements Tool {
             schema = mapper.readValue(fs, SingleTypeSchema.class);
             partitonOrdinal = schema.getPartitioningColumn();
             idOrdinal = schema.getEntity().getIdField().getOrdinal();
+            canopyPartitioned = conf.getBoolean("canopy.partitioned", false);
+            canopyIdDelim = conf.get("canopy.id.delim", ":");
             if (conf.getBoolean("debug.on", false)) {
             	LOG.setLevel(Level.DEBUG);
             }
@@ -150,8 +171,27 @@ public class SameTypeSimilarity  extends Configured implements Tool {
             throws IOException, InterruptedException {
             String[] items  =  value.toString().split(fieldDelimRegex);
             
-            String partition = partitonOrdinal >= 0 ? items[partitonOrdinal] :  "none";
-            	
+            if (canopyPartitioned) {
+            	//canopy ID list is the last field
+            	for (String canopyId : items[items.length - 1].split(canopyIdDelim)) {
+            		emitHashPairs(items, canopyId, value, context);
+            	}
+            } else {
+            	String partition = partitonOrdinal >= 0 ? items[partitonOrdinal] :  "none";
+            	emitHashPairs(items, partition, value, context);
+            }
+        }
+        
+        /**
+         * @param items
+         * @param partition
+         * @param value
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void emitHashPairs(String[] items, String partition, Text value, Context context) 
+        	throws IOException, InterruptedException {
        		hashCode = items[idOrdinal].hashCode();
        		if (hashCode < 0) {
        			hashCode = - hashCode;
@@ -174,6 +214,52 @@ public class SameTypeSimilarity  extends Configured implements Tool {
     	
     }
     
+    /**
+     * Mapper for sorted neighborhood. For each pass emits the record keyed by partition and pass, with the 
+     * blocking key prefix for secondary sorting
+     * @author pranab
+     *
+     */
+    public static class SortedNeighborhoodMapper extends Mapper<LongWritable, Text, TextIntInt, Text> {
+        private TextIntInt keyHolder = new TextIntInt();
+        private Text valueHolder = new Text();
+        private String fieldDelimRegex;
+        private  int partitonOrdinal;
+        private BlockingKeyGenerator keyGenerator;
+ 
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+			Configuration conf = context.getConfiguration();
+        	fieldDelimRegex = conf.get("field.delim.regex", "\\[\\]");
+            String filePath = conf.get("same.schema.file.path");
+            FileSystem dfs = FileSystem.get(conf);
+            Path src = new Path(filePath);
+            FSDataInputStream fs = dfs.open(src);
+            ObjectMapper mapper = new ObjectMapper();
+            SingleTypeSchema schema = mapper.readValue(fs, SingleTypeSchema.class);
+            partitonOrdinal = schema.getPartitioningColumn();
+            keyGenerator = new BlockingKeyGenerator(conf.get("snm.blocking.keys"));
+       }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+            String[] items  =  value.toString().split(fieldDelimRegex);
+            String partition = partitonOrdinal >= 0 ? items[partitonOrdinal] :  "none";
+            valueHolder.set(value.toString());
+            for (int pass = 0; pass < keyGenerator.getPassCount(); ++pass) {
+            	String blockingKey = keyGenerator.getKey(pass, items);
+            	keyHolder.set(partition, pass, BlockingKeyGenerator.sortPrefix(blockingKey));
+	   			context.write(keyHolder, valueHolder);
+            }
+        }
+    }
+    
     /**
      * @author pranab
      *
@@ -202,6 +288,18 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         private boolean  outputIdFirst ;
         private boolean interSetMatching;
         private int setIdSize;
+        private boolean sortedNeighborhood;
+        private BlockingKeyGenerator keyGenerator;
+        private int windowSize;
+        private LinkedList<String> window = new LinkedList<String>();
+        private boolean canopyPartitioned;
+        private String canopyIdDelim;
+        private String canopyId;
+        private TopMatchAccumulator topMatchAccumulator;
+        private List<String[]> sortRun = new ArrayList<String[]>();
+        private List<Field> evalFields = new ArrayList<Field>();
+        private List<Integer> activeFields = new ArrayList<Integer>();
+        private boolean earlyAbandon;
         private static final Logger LOG = Logger.getLogger(SimilarityReducer.class);
         
         
@@ -219,6 +317,7 @@ public class SameTypeSimilarity  extends Configured implements Tool {
             ObjectMapper mapper = new ObjectMapper();
             schema = mapper.readValue(fs, SingleTypeSchema.class);
             schema.processStructuredFields();
+            schema.compileCategoricalFields();
             schema.setConf(conf);
         	
             idOrdinal = schema.getEntity().getIdField().getOrdinal();
@@ -249,6 +348,18 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         	//distance threshold for output
         	distThreshold = conf.getInt("dist.threshold", scale);
         	
+        	//fields in evaluation order, listed ordinals first
+        	initializeEvalFields(conf.get("field.evaluation.order"));
+        	
+        	//abandon pair when distance lower bound crosses threshold
+        	earlyAbandon = conf.getBoolean("early.abandon", true);
+        	for (Field field : evalFields) {
+        		if (!distStrategy.isNonDecreasing(field.getWeight())) {
+        			//lower bound not valid
+        			earlyAbandon = false;
+        		}
+        	}
+        	
         	//output ID first
         	 outputIdFirst =   conf.getBoolean("output.id.first", true);      	
 
@@ -256,17 +367,54 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         	 interSetMatching = conf.getBoolean("inter.set.matching",  false);
         	 setIdSize = conf.getInt("set.ID.size",  0);
         	 
+        	 //canopy as partition
+        	 canopyPartitioned = conf.getBoolean("canopy.partitioned", false);
+        	 canopyIdDelim = conf.get("canopy.id.delim", ":");
+        	 
+        	 //inline top match
+        	 if (conf.getBoolean("inline.top.match", false)) {
+        		 topMatchAccumulator = new TopMatchAccumulator(conf);
+        	 }
+        	 
+        	 //sorted neighborhood
+        	 sortedNeighborhood = conf.getBoolean("sorted.neighborhood", false);
+        	 if (sortedNeighborhood) {
+        		 keyGenerator = new BlockingKeyGenerator(conf.get("snm.blocking.keys"));
+        		 windowSize = conf.getInt("snm.window.size", 10);
+        	 }
+        	 
              if (conf.getBoolean("debug.on", false)) {
              	LOG.setLevel(Level.DEBUG);
              }
       }
         
+    	/* (non-Javadoc)
+    	 * @see org.apache.hadoop.mapreduce.Reducer#cleanup(org.apache.hadoop.mapreduce.Reducer.Context)
+    	 */
+    	protected void cleanup(Context context) throws IOException, InterruptedException {
+    		if (null != topMatchAccumulator) {
+    			//partial top matches for entities seen by this reducer
+    			for (String srcId : topMatchAccumulator.getSourceIds()) {
+    				for (TopMatchAccumulator.Match match : topMatchAccumulator.getTopMatches(srcId)) {
+    					valueHolder.set(match.getValue());
+    					context.write(NullWritable.get(), valueHolder);
+    				}
+    			}
+    		}
+    	}
+    	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
          */
         protected void reduce(TextIntInt  key, Iterable<Text> values, Context context)
         throws IOException, InterruptedException {
+        	if (sortedNeighborhood) {
+        		reduceSortedNeighborhood(key, values, context);
+        		return;
+        	}
+        	
         	valueList.clear();
+        	canopyId = key.getFirst().toString();
         	int secondPart = key.getSecond().get();
         	LOG.debug("key hash pair:" + secondPart);
         	if (secondPart/1000 == secondPart%1000){
@@ -285,8 +433,7 @@ public class SameTypeSimilarity  extends Configured implements Tool {
 	            		if (!firstId.equals(secondId)){
 		        			dist  = findDistance( first,  second,  context);
 		        			if (dist <= distThreshold) {
-		        				valueHolder.set(createValueField());
-		        				context.write(NullWritable.get(), valueHolder);
+		        				emitMatch(context);
 		        			}
 	            		} else {
 	    					context.getCounter("Distance Data", "Same ID").increment(1);
@@ -308,8 +455,7 @@ public class SameTypeSimilarity  extends Configured implements Tool {
 	                		LOG.debug("ID pair:" + firstId + "  " +  secondId);
 		        			dist  = findDistance( first,  second,  context);
 		        			if (dist <= distThreshold) {
-		        				valueHolder.set(createValueField());
-		        				context.write(NullWritable.get(), valueHolder);
+		        				emitMatch(context);
 		        			}
 	            		}
 	        		}
@@ -318,6 +464,76 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         	
         }    
         
+        /**
+         * Records arrive sorted by blocking key prefix. Records with the same prefix are sorted by the 
+         * full blocking key and then slided through the window
+         * @param key
+         * @param values
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void reduceSortedNeighborhood(TextIntInt  key, Iterable<Text> values, Context context)
+        	throws IOException, InterruptedException {
+        	int pass = key.getSecond().get();
+        	window.clear();
+        	sortRun.clear();
+        	int runPrefix = 0;
+        	for (Text value : values){
+        		//secondary sort part of the key changes as values are iterated
+        		int prefix = key.getThird().get();
+        		if (!sortRun.isEmpty() && prefix != runPrefix) {
+        			slideSortRun(context);
+        		}
+        		runPrefix = prefix;
+        		String record = value.toString();
+        		String[] run = new String[2];
+        		run[0] = keyGenerator.getKey(pass, record.split(fieldDelimRegex));
+        		run[1] = record;
+        		sortRun.add(run);
+        	}
+        	slideSortRun(context);
+        }
+        
+        /**
+         * Sorts records with same blocking key prefix by full blocking key and matches each with the 
+         * records in the window
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void slideSortRun(Context context) throws IOException, InterruptedException {
+        	Collections.sort(sortRun, new Comparator<String[]>() {
+				@Override
+				public int compare(String[] first, String[] second) {
+					return first[0].compareTo(second[0]);
+				}
+        	});
+        	
+        	for (String[] run : sortRun) {
+        		String second = run[1];
+        		secondId =  second.split(fieldDelimRegex)[idOrdinal];
+        		for (String first : window) {
+        			firstId =  first.split(fieldDelimRegex)[idOrdinal];
+        			if (!firstId.equals(secondId)){
+	        			dist  = findDistance( first,  second,  context);
+	        			if (dist <= distThreshold) {
+	        				emitMatch(context);
+	        			}
+        			} else {
+    					context.getCounter("Distance Data", "Same ID").increment(1);
+        			}
+        		}
+        		
+        		window.add(second);
+        		if (window.size() > windowSize) {
+        			window.removeFirst();
+        		}
+        	}
+			context.getCounter("Sorted Neighborhood", "Sort run").increment(1);
+        	sortRun.clear();
+        }
+        
         /**
          * @param first
          * @param second
@@ -342,27 +558,24 @@ public class SameTypeSimilarity  extends Configured implements Tool {
         	
     		firstItems = first.split(fieldDelimRegex);
     		secondItems = second.split(fieldDelimRegex);
+    		
+    		//if partitioned by canopy, match only in the first shared canopy
+    		if (canopyPartitioned && !isFirstSharedCanopy()) {
+    			netDist =  distThreshold + 1;
+				context.getCounter("Distance Data", "Matched in other canopy").increment(1);
+    			return netDist;
+    		}
+    		
     		double dist = 0;
     		boolean valid = false;
     		distStrategy.initialize();
-    		List<Integer> activeFields = null;
     		
     		boolean thresholdCrossed = false;
-    		for (Field field :  schema.getEntity().getFields()) {
-    			if (null != facetedFields) {
-    				//if facetted set but field not included, then skip it
-    				if (!ArrayUtils.contains(facetedFields, field.getOrdinal())) {
-    					continue;
-    				}
-    			}
-    			
-    			//track fields participating is dist calculation
-    			if (includePassiveFields && null == passiveFields) {
-    				if (null == activeFields) {
-    					activeFields = new ArrayList<Integer>();
-    				}
-    				activeFields.add(field.getOrdinal());
-    			}
+    		boolean abandoned = false;
+    		int remaining = evalFields.size();
+    		for (Field field :  evalFields) {
+    			--remaining;
+    			dist = 0;
     			
     			//extract fields
     			String firstAttr = "";
@@ -424,6 +637,13 @@ public class SameTypeSimilarity  extends Configured implements Tool {
     			
     			//aggregate attribute  distance for all entity attributes
 				distStrategy.accumulate(dist, field.getWeight());
+				
+				//skip the remaining attributes if distance can not come down to the threshold
+				if (earlyAbandon && distStrategy.getLowerBound(remaining) >= distThreshold + 1) {
+					context.getCounter("Distance Data", "Early abandon").increment(1);
+					abandoned = true;
+					break;
+				}
     		}  
     		
     		//initialize passive fields
@@ -431,10 +651,73 @@ public class SameTypeSimilarity  extends Configured implements Tool {
 				intializePassiveFieldOrdinal(activeFields, firstItems.length);
 			}
 			
-    		netDist = thresholdCrossed?  distThreshold + 1  : distStrategy.getSimilarity();
+    		netDist = thresholdCrossed || abandoned ?  distThreshold + 1  : distStrategy.getSimilarity();
     		return netDist;
         }
         
+        /**
+         * Outputs the match or retains it for inline top match
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void emitMatch(Context context) throws IOException, InterruptedException {
+        	if (null != topMatchAccumulator) {
+        		topMatchAccumulator.add(firstId, dist, createValueField());
+        	} else {
+        		valueHolder.set(createValueField());
+        		context.write(NullWritable.get(), valueHolder);
+        	}
+        }
+        
+        /**
+         * @return true if the current canopy is the smallest canopy shared by the pair
+         */
+        private boolean isFirstSharedCanopy() {
+        	String firstShared = null;
+        	String[] secondCanopies = secondItems[secondItems.length - 1].split(canopyIdDelim);
+        	for (String firstCanopy : firstItems[firstItems.length - 1].split(canopyIdDelim)) {
+        		if (null == firstShared || firstCanopy.compareTo(firstShared) < 0) {
+        			if (ArrayUtils.contains(secondCanopies, firstCanopy)) {
+        				firstShared = firstCanopy;
+        			}
+        		}
+        	}
+        	return canopyId.equals(firstShared);
+        }
+        
+        /**
+         * Fields participating in distance calculation. Fields with ordinals in the evaluation order come
+         * first, the rest in schema order. With early abandon, most discriminating fields should come first
+         * @param evalOrder comma separated ordinals
+         */
+        private void initializeEvalFields(String evalOrder) {
+        	List<Field> fields = new ArrayList<Field>();
+        	for (Field field :  schema.getEntity().getFields()) {
+    			//if facetted set but field not included, then skip it
+    			if (null == facetedFields || ArrayUtils.contains(facetedFields, field.getOrdinal())) {
+    				fields.add(field);
+    				activeFields.add(field.getOrdinal());
+    			}
+        	}
+        	
+        	if (!StringUtils.isBlank(evalOrder)) {
+        		for (String item : evalOrder.split(",")) {
+        			int ordinal = Integer.parseInt(item.trim());
+        			for (Field field : fields) {
+        				if (field.getOrdinal() == ordinal && !evalFields.contains(field)) {
+        					evalFields.add(field);
+        				}
+        			}
+        		}
+        	}
+        	for (Field field : fields) {
+        		if (!evalFields.contains(field)) {
+        			evalFields.add(field);
+        		}
+        	}
+        }
+        
         /**
          * @param activeFields
          * @param numFields
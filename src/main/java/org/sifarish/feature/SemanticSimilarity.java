@@ -17,18 +17,28 @@
 
 package org.sifarish.feature;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.sifarish.common.TaggedEntity;
+import org.sifarish.util.LongIntHashMap;
 
 /**
+ * Semantic similarity between tag lists. With semantic.tag.table.path set, tag pair scores and matching
+ * contexts are looked up in the table created by SemanticTagDistance instead of running the matcher. Tag
+ * pairs not in the table have score 0 and empty context
  * @author pranab
  *
  */
@@ -38,22 +48,34 @@ public class SemanticSimilarity extends DynamicAttrSimilarityStrategy {
 	private int topMatchCount;
 	private int scale;
 	private List<MatchedItem> matchedItems = new ArrayList<MatchedItem>();
+	private Map<String, Integer> tagIds;
+	private LongIntHashMap tagPairs;
+	private int[] pairScores;
+	private String[] pairContexts;
+	private int[] thatTagIds = new int[16];
     private static final Logger LOG = Logger.getLogger(SemanticSimilarity.class);
+    public static final String TAG_DIR = "tags";
+    public static final String PAIR_DIR = "pairs";
 	
 	public SemanticSimilarity(String matcherClass, int topMatchCount, Map<String,Object> params) throws IOException   {
         Class<?> iterCls;
 		try {
-			iterCls = Class.forName(matcherClass);
-			thisEntity = (TaggedEntity)iterCls.newInstance();
-			thatEntity = (TaggedEntity)iterCls.newInstance();
-			thisEntity.initialize(params);
 			this.topMatchCount = topMatchCount;
 			scale = (Integer)params.get("semanticScale");
-					
 			Configuration conf = (Configuration)params.get("config");
 	        if (conf.getBoolean("debug.on", false)) {
 	         	LOG.setLevel(Level.DEBUG);
 	        }
+	        
+	        String tablePath = conf.get("semantic.tag.table.path");
+	        if (null != tablePath) {
+	        	loadTable(conf, tablePath);
+	        } else {
+				iterCls = Class.forName(matcherClass);
+				thisEntity = (TaggedEntity)iterCls.newInstance();
+				thatEntity = (TaggedEntity)iterCls.newInstance();
+				thisEntity.initialize(params);
+	        }
 		} catch (ClassNotFoundException e) {
 			throw new IOException("failed to intialize SemanticSimilarity");
 		}catch (InstantiationException e) {
@@ -77,20 +99,19 @@ public class SemanticSimilarity extends DynamicAttrSimilarityStrategy {
 		
 		String[] thisTagItems = src.split(fieldDelimRegex);
 		String[] thatTagItems = target.split(fieldDelimRegex);
-		for (String thisTagItem : thisTagItems) {
-			thisEntity.setTag(thisTagItem);
-			for (String thatTagItem :thatTagItems) {
-				LOG.debug("thisTagItem:" + thisTagItem + " thatTagItem:" + thatTagItem);
-				thatEntity.setTag(thatTagItem);
-				matchScore = thisEntity.match(thatEntity);
-				matchScore = matchScore <= scale ? matchScore : scale;
-				if (!thatEntity.isResultCorrelation()) {
-					matchScore = scale - matchScore;
-					LOG.debug("matchScore:" + matchScore);
+		if (null != tagPairs) {
+			findMatchesInTable(thisTagItems, thatTagItems);
+		} else {
+			for (String thisTagItem : thisTagItems) {
+				thisEntity.setTag(thisTagItem);
+				for (String thatTagItem :thatTagItems) {
+					LOG.debug("thisTagItem:" + thisTagItem + " thatTagItem:" + thatTagItem);
+					thatEntity.setTag(thatTagItem);
+					matchScore = matchScore(thisEntity, thatEntity, scale);
+					matchingContext = thisEntity.getMatchingContext();
+					LOG.debug("matchScore:" + matchScore + " matchingContext:" + matchingContext);
+					matchedItems.add(new MatchedItem(matchScore, matchingContext));
 				}
-				matchingContext = thisEntity.getMatchingContext();
-				LOG.debug("matchScore:" + matchScore + " matchingContext:" + matchingContext);
-				matchedItems.add(new MatchedItem(matchScore, matchingContext));
 			}
 		}
 		LOG.debug("matched items size:" + matchedItems.size());
@@ -111,13 +132,147 @@ public class SemanticSimilarity extends DynamicAttrSimilarityStrategy {
 		return avScore;
 	}
 	
+	/**
+	 * Match score, higher for closer tags
+	 * @param thisEntity
+	 * @param thatEntity
+	 * @param scale
+	 * @return
+	 * @throws IOException
+	 */
+	public static int matchScore(TaggedEntity thisEntity, TaggedEntity thatEntity, int scale) throws IOException {
+		int matchScore = thisEntity.match(thatEntity);
+		matchScore = matchScore <= scale ? matchScore : scale;
+		if (!thatEntity.isResultCorrelation()) {
+			matchScore = scale - matchScore;
+		}
+		return matchScore;
+	}
+	
+	/**
+	 * @param thisTag
+	 * @param thatTag
+	 * @return key for the tag pair in either order
+	 */
+	public static long tagPairKey(int thisTag, int thatTag) {
+		return thisTag < thatTag ? ((long)thisTag << 32) | thatTag : ((long)thatTag << 32) | thisTag;
+	}
+	
+	/**
+	 * @param thisTagItems
+	 * @param thatTagItems
+	 */
+	private void findMatchesInTable(String[] thisTagItems, String[] thatTagItems) {
+		if (thatTagIds.length < thatTagItems.length) {
+			thatTagIds = new int[thatTagItems.length];
+		}
+		for (int j = 0; j < thatTagItems.length; ++j) {
+			Integer tagId = tagIds.get(thatTagItems[j]);
+			thatTagIds[j] = null != tagId ? tagId : -1;
+		}
+		
+		for (String thisTagItem : thisTagItems) {
+			Integer thisTagId = tagIds.get(thisTagItem);
+			for (int j = 0; j < thatTagItems.length; ++j) {
+				int pair = -1;
+				if (null != thisTagId && thatTagIds[j] >= 0) {
+					pair = tagPairs.get(tagPairKey(thisTagId, thatTagIds[j]), -1);
+				}
+				if (pair >= 0) {
+					matchedItems.add(new MatchedItem(pairScores[pair], pairContexts[pair]));
+				} else {
+					matchedItems.add(new MatchedItem(0, ""));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Loads tag IDs and tag pair scores and contexts
+	 * @param conf
+	 * @param tablePath
+	 * @throws IOException
+	 */
+	private void loadTable(Configuration conf, String tablePath) throws IOException {
+		String fieldDelim = conf.get("field.delim", ",");
+		FileSystem dfs = FileSystem.get(conf);
+		tagIds = new HashMap<String, Integer>();
+		for (Path file : listFiles(dfs, new Path(tablePath, TAG_DIR))) {
+    		BufferedReader reader = new BufferedReader(new InputStreamReader(dfs.open(file), "UTF-8"));
+    		try {
+    			String line = null;
+    			while ((line = reader.readLine()) != null) {
+    				String[] items = line.split(fieldDelim, 2);
+    				tagIds.put(items[1], Integer.parseInt(items[0]));
+    			}
+    		} finally {
+    			reader.close();
+    		}
+		}
+		
+		//context as the last field, since it may contain the delimiter
+		tagPairs = new LongIntHashMap();
+		pairScores = new int[1024];
+		pairContexts = new String[1024];
+		Map<String, String> contexts = new HashMap<String, String>();
+		int pairCount = 0;
+		for (Path file : listFiles(dfs, new Path(tablePath, PAIR_DIR))) {
+    		BufferedReader reader = new BufferedReader(new InputStreamReader(dfs.open(file), "UTF-8"));
+    		try {
+    			String line = null;
+    			while ((line = reader.readLine()) != null) {
+    				String[] items = line.split(fieldDelim, 4);
+    				if (pairCount == pairScores.length) {
+    					int[] scores = new int[2 * pairCount];
+    					String[] pairCtxs = new String[2 * pairCount];
+    					System.arraycopy(pairScores, 0, scores, 0, pairCount);
+    					System.arraycopy(pairContexts, 0, pairCtxs, 0, pairCount);
+    					pairScores = scores;
+    					pairContexts = pairCtxs;
+    				}
+    				String context = items.length > 3 ? items[3] : "";
+    				String sharedContext = contexts.get(context);
+    				if (null == sharedContext) {
+    					contexts.put(context, context);
+    					sharedContext = context;
+    				}
+    				tagPairs.put(tagPairKey(Integer.parseInt(items[0]), Integer.parseInt(items[1])), pairCount);
+    				pairScores[pairCount] = Integer.parseInt(items[2]);
+    				pairContexts[pairCount++] = sharedContext;
+    			}
+    		} finally {
+    			reader.close();
+    		}
+		}
+		LOG.debug("tag count:" + tagIds.size() + " tag pair count:" + pairCount);
+	}
+	
+	/**
+	 * @param fs
+	 * @param dir
+	 * @return output files in a directory
+	 * @throws IOException
+	 */
+	private List<Path> listFiles(FileSystem fs, Path dir) throws IOException {
+		List<Path> files = new ArrayList<Path>();
+		for (FileStatus status : fs.listStatus(dir)) {
+			String name = status.getPath().getName();
+			if (!status.isDir() && !name.startsWith("_") && !name.startsWith(".")) {
+				files.add(status.getPath());
+			}
+		}
+		return files;
+	}
+	
 	@Override
 	public double findDistance(String thisEntityID, String thisTag,
 			String thatEntityID, String thatTag, String groupingID) throws IOException {
-		thisEntity.setEntityID(thisEntityID);
-		thisEntity.setGroupID(groupingID);
-		thatEntity.setEntityID(thisEntityID);
-		thatEntity.setGroupID(groupingID);
+		if (null != thisEntity) {
+			thisEntity.setEntityID(thisEntityID);
+			thisEntity.setGroupID(groupingID);
+			thatEntity.setEntityID(thisEntityID);
+			thatEntity.setGroupID(groupingID);
+		}
 		
 		return findDistance( thisTag, thatTag);
 	}
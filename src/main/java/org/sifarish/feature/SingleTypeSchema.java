@@ -73,4 +73,15 @@ public class SingleTypeSchema  extends TypeSchema {
 			}
 		}
 	}
+	
+	/**
+	 * Compiles categorical distance lookup tables
+	 */
+	public void compileCategoricalFields() {
+		for (Field field : entity.getFields()) {
+			if ("categorical".equals(field.getDataType())) {
+				field.compileCategoricalDistances();
+			}
+		}
+	}
 }
@@ -0,0 +1,63 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+/**
+ * Term vector with term IDs in ascending order, weights and the L2 norm. Term IDs are assigned by 
+ * the CosineSimilarity instance creating the vector, so only vectors from the same instance can be compared
+ * @author pranab
+ *
+ */
+public class SparseVector {
+	private int[] termIds;
+	private int[] weights;
+	private double norm;
+	
+	/**
+	 * @param termIds sorted term IDs
+	 * @param weights
+	 * @param size
+	 */
+	public SparseVector(int[] termIds, int[] weights, int size) {
+		this.termIds = new int[size];
+		this.weights = new int[size];
+		System.arraycopy(termIds, 0, this.termIds, 0, size);
+		System.arraycopy(weights, 0, this.weights, 0, size);
+		long sqSum = 0;
+		for (int i = 0; i < size; ++i) {
+			sqSum += weights[i] * weights[i];
+		}
+		norm = Math.sqrt(sqSum);
+	}
+
+	public int size() {
+		return termIds.length;
+	}
+
+	public int[] getTermIds() {
+		return termIds;
+	}
+
+	public int[] getWeights() {
+		return weights;
+	}
+
+	public double getNorm() {
+		return norm;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.feature;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+
+/**
+ * Keeps the top matches for each source entity, for inline top match selection. Rank is the same
+ * as used by TopMatches, lower is better. Either the top top.match.count matches are kept with a bounded 
+ * heap, or all matches with rank within top.match.distance. Partial lists can be merged with TopMatches.
+ * @author pranab
+ *
+ */
+public class TopMatchAccumulator {
+	private boolean nearestByCount;
+	private int topMatchCount;
+	private int topMatchDistance;
+	private Map<String, PriorityQueue<Match>> matches = new HashMap<String, PriorityQueue<Match>>();
+	private int size;
+	
+	private static final Comparator<Match> WORST_FIRST = new Comparator<Match>() {
+		@Override
+		public int compare(Match first, Match second) {
+			return first.rank > second.rank ? -1 : (first.rank < second.rank ? 1 : 0);
+		}
+	};
+	
+	private static final Comparator<Match> BEST_FIRST = new Comparator<Match>() {
+		@Override
+		public int compare(Match first, Match second) {
+			return first.rank < second.rank ? -1 : (first.rank > second.rank ? 1 : 0);
+		}
+	};
+	
+	/**
+	 * @param nearestByCount
+	 * @param topMatchCount
+	 * @param topMatchDistance
+	 */
+	public TopMatchAccumulator(boolean nearestByCount, int topMatchCount, int topMatchDistance) {
+		this.nearestByCount = nearestByCount;
+		this.topMatchCount = topMatchCount;
+		this.topMatchDistance = topMatchDistance;
+	}
+	
+	/**
+	 * Creates from the same configuration parameters as TopMatches
+	 * @param conf
+	 */
+	public TopMatchAccumulator(Configuration conf) {
+		this(conf.getBoolean("nearest.by.count", true), conf.getInt("top.match.count", 10), 
+				conf.getInt("top.match.distance", 200));
+	}
+	
+	/**
+	 * @param srcId
+	 * @param rank
+	 * @param match
+	 */
+	public void add(String srcId, int rank, String match) {
+		if (!nearestByCount && rank > topMatchDistance) {
+			return;
+		}
+		
+		PriorityQueue<Match> queue = matches.get(srcId);
+		if (null == queue) {
+			queue = new PriorityQueue<Match>(nearestByCount ? topMatchCount + 1 : 11, WORST_FIRST);
+			matches.put(srcId, queue);
+		}
+		
+		if (nearestByCount && queue.size() == topMatchCount) {
+			//replace worst only if better
+			if (rank < queue.peek().rank) {
+				queue.poll();
+				queue.add(new Match(rank, match));
+			}
+		} else {
+			queue.add(new Match(rank, match));
+			++size;
+		}
+	}
+	
+	/**
+	 * @return
+	 */
+	public Set<String> getSourceIds() {
+		return matches.keySet();
+	}
+	
+	/**
+	 * @param srcId
+	 * @return matches for the source, best first
+	 */
+	public List<Match> getTopMatches(String srcId) {
+		List<Match> sorted = new ArrayList<Match>(matches.get(srcId));
+		Collections.sort(sorted, BEST_FIRST);
+		return sorted;
+	}
+	
+	/**
+	 * @return total number of matches held
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * 
+	 */
+	public void clear() {
+		matches.clear();
+		size = 0;
+	}
+	
+	/**
+	 * @author pranab
+	 *
+	 */
+	public static class Match {
+		private int rank;
+		private String value;
+		
+		public Match(int rank, String value) {
+			this.rank = rank;
+			this.value = value;
+		}
+
+		public int getRank() {
+			return rank;
+		}
+
+		public String getValue() {
+			return value;
+		}
+	}
+}
@@ -23,6 +23,8 @@ import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -40,9 +42,12 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.chombo.util.TextInt;
 import org.chombo.util.Utility;
+import org.sifarish.util.NeighborIndex;
 
 /**
- * Top match map reduce based on distance with neighbors
+ * Top match map reduce based on distance with neighbors. Mappers keep only the local top matches for each
+ * entity, unless top.match.mapper.aggregation is turned off. With top.match.output.format set to neighborIndex,
+ * each reducer writes a binary NeighborIndex shard to the job output directory instead of text output
  * @author pranab
  *
  */
@@ -94,6 +99,8 @@ public class TopMatches extends Configured implements Tool {
         private boolean classify;
         private String firstClassAttr;
         private String secondClassAttr;
+        private TopMatchAccumulator topMatchAccumulator;
+        private int aggregationCacheSize;
 
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
@@ -102,7 +109,22 @@ public class TopMatches extends Configured implements Tool {
            	fieldDelim = context.getConfiguration().get("field.delim", "\\[\\]");
             fieldDelimRegex = context.getConfiguration().get("field.delim.regex", "\\[\\]");
             classify = context.getConfiguration().getBoolean("knn.classify", false);
+            
+            //in mapper aggregation of top matches
+            if (context.getConfiguration().getBoolean("top.match.mapper.aggregation", true)) {
+            	topMatchAccumulator = new TopMatchAccumulator(context.getConfiguration());
+            	aggregationCacheSize = context.getConfiguration().getInt("top.match.mapper.cache.size", 100000);
+            }
         }    
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#cleanup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+        	if (null != topMatchAccumulator) {
+        		flush(context);
+        	}
+        }
 
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
@@ -123,7 +145,33 @@ public class TopMatches extends Configured implements Tool {
             } else {
 	            outVal.set(trgEntityId + fieldDelim + items[items.length - 1]);
             }
-			context.write(outKey, outVal);
+            
+            if (null != topMatchAccumulator) {
+            	topMatchAccumulator.add(srcEntityId, rank, outVal.toString());
+            	if (topMatchAccumulator.size() >= aggregationCacheSize) {
+            		flush(context);
+            	}
+            } else {
+            	context.write(outKey, outVal);
+            }
+        }
+        
+        /**
+         * Emits local top matches and clears the cache
+         * @param context
+         * @throws IOException
+         * @throws InterruptedException
+         */
+        private void flush(Context context) throws IOException, InterruptedException {
+        	for (String srcId : topMatchAccumulator.getSourceIds()) {
+        		for (TopMatchAccumulator.Match match : topMatchAccumulator.getTopMatches(srcId)) {
+        			outKey.set(srcId, match.getRank());
+        			outVal.set(match.getValue());
+        			context.write(outKey, outVal);
+        		}
+        	}
+        	context.getCounter("Mapper aggregation", "Flush").increment(1);
+        	topMatchAccumulator.clear();
         }
 	}
 	
@@ -144,6 +192,7 @@ public class TopMatches extends Configured implements Tool {
         private List<String> neighbors = new ArrayList<String>();
         private NearestNeighborClassifier classifier;
         private String sourceClass;
+        private NeighborIndex.Builder indexBuilder;
     	
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
@@ -160,6 +209,38 @@ public class TopMatches extends Configured implements Tool {
         	if (classify) {
         		classifier = new VotingClassifier();
         	}
+        	if (context.getConfiguration().get("top.match.output.format", "text").equals("neighborIndex")) {
+        		indexBuilder = new NeighborIndex.Builder(context.getConfiguration().getInt("top.match.index.distance.quantum", 1));
+        	}
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#cleanup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+        	if (null != indexBuilder) {
+        		//shard for this reducer, in the task attempt work directory so that the output committer 
+        		//promotes it only for the successful attempt
+        		Configuration conf = context.getConfiguration();
+        		int shard = context.getTaskAttemptID().getTaskID().getId();
+        		Path shardPath = new Path(FileOutputFormat.getWorkOutputPath(context), NeighborIndex.getShardFileName(shard));
+        		FSDataOutputStream out = FileSystem.get(conf).create(shardPath, true);
+        		try {
+        			indexBuilder.write(out, context.getNumReduceTasks());
+        		} finally {
+        			out.close();
+        		}
+        	}
+        }
+        
+        /**
+         * Adds neighbor to the index
+         * @param value neighbor ID and distance
+         */
+        private void addToIndex(String value) {
+        	int pos = value.lastIndexOf(fieldDelim);
+        	indexBuilder.add(srcEntityId, value.substring(0, pos), 
+        			Integer.parseInt(value.substring(pos + fieldDelim.length())));
         }
     	
     	/* (non-Javadoc)
@@ -176,6 +257,8 @@ public class TopMatches extends Configured implements Tool {
 					if (classify) {
 						neighbors.add(value.toString());
 						sourceClass = value.toString().split("*")[1];
+					} else if (null != indexBuilder) {
+						addToIndex(value.toString());
 					} else  {
 						outVal.set(srcEntityId +fieldDelim + value.toString());
 						context.write(NullWritable.get(), outVal);
@@ -190,6 +273,8 @@ public class TopMatches extends Configured implements Tool {
 						if (classify) {
 							neighbors.add(value.toString());
 							sourceClass = value.toString().split("*")[1];
+						} else if (null != indexBuilder) {
+							addToIndex(value.toString());
 						} else {
 							outVal.set(srcEntityId + "," + value.toString());
 							context.write(NullWritable.get(), outVal);
@@ -219,7 +304,7 @@ public class TopMatches extends Configured implements Tool {
 	     public int getPartition(TextInt key, Text value, int numPartitions) {
 	    	 //consider only base part of  key
 		     Text id = key.getFirst();
-		     return id.hashCode() % numPartitions;
+		     return NeighborIndex.getShard(id.hashCode(), numPartitions);
 	     }
    }
     
@@ -33,6 +33,7 @@ public class TypeSchema {
 	private String textMatchingAlgorithm;
 	private double srcNonMatchingTermWeight = 1.0;
 	private double trgNonMatchingTermWeight = 1.0;
+	private int minHashFunctionCount = 64;
 	private double[] locationComponentWeights;
 	private double[] eventComponentWeights;
 	private Configuration conf;
@@ -88,6 +89,14 @@ public class TypeSchema {
 	public void setTrgNonMatchingTermWeight(double trgNonMatchingTermWeight) {
 		this.trgNonMatchingTermWeight = trgNonMatchingTermWeight;
 	}
+	public int getMinHashFunctionCount() {
+		return minHashFunctionCount;
+	}
+
+	public void setMinHashFunctionCount(int minHashFunctionCount) {
+		this.minHashFunctionCount = minHashFunctionCount;
+	}
+
 	public double[] getLocationComponentWeights() {
 		return locationComponentWeights;
 	}
@@ -137,11 +146,15 @@ public class TypeSchema {
 		if (null  !=  textMatchingAlgorithm) {
 			if (textMatchingAlgorithm.equals("jaccard")){
 				textSimStrategy = new JaccardSimilarity(srcNonMatchingTermWeight, trgNonMatchingTermWeight);
+			} else if (textMatchingAlgorithm.equals("jaccardMinHash")){
+				textSimStrategy = new JaccardSimilarity(srcNonMatchingTermWeight, trgNonMatchingTermWeight, 
+						minHashFunctionCount);
 			} else if (textMatchingAlgorithm.equals("cosine")){
 				textSimStrategy = new CosineSimilarity();
 			} else if (textMatchingAlgorithm.equals("editDistance")){
 				boolean tokenWise = conf.getBoolean("edit.dist.token", true);
-				textSimStrategy = new EditDistanceSimilarity(tokenWise);
+				int maxDistance = conf.getInt("edit.dist.max.distance", -1);
+				textSimStrategy = new EditDistanceSimilarity(tokenWise, maxDistance);
 			}
 		}
 		return textSimStrategy;
@@ -0,0 +1,160 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.social;
+
+/**
+ * Sufficient statistics for pearson correlation between two rating sets over the common users. Correlation 
+ * is calculated with the same integer arithmetic as the original per user calculation, i.e. integer means, 
+ * truncated std deviations and integer covariance
+ * @author pranab
+ *
+ */
+public class CorrelationStat {
+	private long count;
+	private long sumOne;
+	private long sumTwo;
+	private long sqSumOne;
+	private long sqSumTwo;
+	private long prodSum;
+	
+	/**
+	 * 
+	 */
+	public void initialize() {
+		count = sumOne = sumTwo = sqSumOne = sqSumTwo = prodSum = 0;
+	}
+	
+	/**
+	 * @param ratingOne
+	 * @param ratingTwo
+	 */
+	public void accumulate(long ratingOne, long ratingTwo) {
+		++count;
+		sumOne += ratingOne;
+		sumTwo += ratingTwo;
+		sqSumOne += ratingOne * ratingOne;
+		sqSumTwo += ratingTwo * ratingTwo;
+		prodSum += ratingOne * ratingTwo;
+	}
+	
+	/**
+	 * Removes a pair of ratings accumulated earlier
+	 * @param ratingOne
+	 * @param ratingTwo
+	 */
+	public void remove(long ratingOne, long ratingTwo) {
+		--count;
+		sumOne -= ratingOne;
+		sumTwo -= ratingTwo;
+		sqSumOne -= ratingOne * ratingOne;
+		sqSumTwo -= ratingTwo * ratingTwo;
+		prodSum -= ratingOne * ratingTwo;
+	}
+	
+	/**
+	 * Adds statistics calculated elsewhere. Statistics are additive over users, so that persisted 
+	 * statistics can be updated with those for changed ratings
+	 * @param count
+	 * @param sumOne
+	 * @param sumTwo
+	 * @param sqSumOne
+	 * @param sqSumTwo
+	 * @param prodSum
+	 */
+	public void merge(long count, long sumOne, long sumTwo, long sqSumOne, long sqSumTwo, long prodSum) {
+		this.count += count;
+		this.sumOne += sumOne;
+		this.sumTwo += sumTwo;
+		this.sqSumOne += sqSumOne;
+		this.sqSumTwo += sqSumTwo;
+		this.prodSum += prodSum;
+	}
+	
+	public long getCount() {
+		return count;
+	}
+
+	public long getSumOne() {
+		return sumOne;
+	}
+
+	public long getSumTwo() {
+		return sumTwo;
+	}
+
+	public long getSqSumOne() {
+		return sqSumOne;
+	}
+
+	public long getSqSumTwo() {
+		return sqSumTwo;
+	}
+
+	public long getProdSum() {
+		return prodSum;
+	}
+
+	/**
+	 * @param sqSum
+	 * @param mean
+	 * @return
+	 */
+	private long stdDev(long sqSum, long mean) {
+		long var = sqSum / count - mean * mean;
+		return (long)Math.sqrt(var);
+	}
+	
+	/**
+	 * @return true if covariance is zero
+	 */
+	public boolean isZeroCovariance() {
+		return covariance() == 0;
+	}
+	
+	/**
+	 * @return true if either std deviation is zero
+	 */
+	public boolean isZeroStdDev() {
+		return stdDev(sqSumOne, sumOne / count) * stdDev(sqSumTwo, sumTwo / count) == 0;
+	}
+	
+	/**
+	 * Sum of (r1 - m1)(r2 - m2) expanded in terms of the sums divided by count
+	 * @return
+	 */
+	private long covariance() {
+		long meanOne = sumOne / count;
+		long meanTwo = sumTwo / count;
+		return (prodSum - meanTwo * sumOne - meanOne * sumTwo + count * meanOne * meanTwo) / count;
+	}
+	
+	/**
+	 * Pearson correlation scaled and shifted to be between 0 and scale
+	 * @param corrScale
+	 * @return
+	 */
+	public int getCorrelation(int corrScale) {
+		long meanOne = sumOne / count;
+		long meanTwo = sumTwo / count;
+		long stdDevProd = stdDev(sqSumOne, meanOne) * stdDev(sqSumTwo, meanTwo);
+		long corr = stdDevProd == 0 ? corrScale : (covariance() * corrScale) / stdDevProd;
+		corr += corrScale;
+		corr /= 2;
+		return (int)corr;
+	}
+}
@@ -0,0 +1,454 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.social;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.chombo.util.Tuple;
+import org.chombo.util.Utility;
+
+/**
+ * Incremental pearson correlation. Sufficient statistics (count, sums, square sums and product sum of the 
+ * ratings of common users) of all item pairs are persisted as item1,item2,count,sum1,sum2,sqSum1,sqSum2,prodSum.
+ * Three chained MR jobs update them with rating changes. The first one joins the changes 
+ * (userID,itemID,rating,op,timestamp in files with prefix delta.file.prefix, op D for delete and U otherwise) with 
+ * the rating data before the changes, by user, and emits the change in statistics for the affected pairs only. 
+ * Of several changes for the same user and item, only the latest by timestamp applies. Item pairs are ordered 
+ * as in PearsonCorrelator, item with the higher hash bucket first, by item ID within a bucket. The second one adds the
+ * changes to the previous statistics. The third one calculates correlations from the statistics, in the same
+ * format as PearsonCorrelator. With pair.stat.bootstrap, all ratings are treated as new and the initial
+ * statistics are created without any previous statistics.
+ * Arguments are rating and delta input, previous statistics, new statistics and correlation output
+ * @author pranab
+ *
+ */
+public class IncrementalPearsonCorrelator extends Configured implements Tool{
+    @Override
+    public int run(String[] args) throws Exception   {
+    	Configuration conf = getConf();
+    	boolean bootstrap = conf.getBoolean("pair.stat.bootstrap", false);
+    	Path statDeltaPath = new Path(args[2] + "_delta");
+    	
+    	//stat change for affected pairs
+        Job job = new Job(conf);
+        job.setJobName("Pair stat delta MR");
+        job.setJarByClass(IncrementalPearsonCorrelator.class);
+        FileInputFormat.addInputPaths(job, args[0]);
+        FileOutputFormat.setOutputPath(job, statDeltaPath);
+        job.setMapperClass(IncrementalPearsonCorrelator.UserRatingMapper.class);
+        job.setReducerClass(IncrementalPearsonCorrelator.StatDeltaReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Tuple.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
+        if (!job.waitForCompletion(true)) {
+        	return 1;
+        }
+        
+        //merge with previous stat
+        job = new Job(conf);
+        job.setJobName("Pair stat merge MR");
+        job.setJarByClass(IncrementalPearsonCorrelator.class);
+        FileInputFormat.addInputPath(job, statDeltaPath);
+        if (!bootstrap) {
+        	FileInputFormat.addInputPath(job, new Path(args[1]));
+        }
+        FileOutputFormat.setOutputPath(job, new Path(args[2]));
+        job.setMapperClass(IncrementalPearsonCorrelator.PairStatMapper.class);
+        job.setCombinerClass(IncrementalPearsonCorrelator.PairStatCombiner.class);
+        job.setReducerClass(IncrementalPearsonCorrelator.PairStatReducer.class);
+        job.setMapOutputKeyClass(Tuple.class);
+        job.setMapOutputValueClass(Tuple.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
+        if (!job.waitForCompletion(true)) {
+        	return 1;
+        }
+        FileSystem.get(conf).delete(statDeltaPath, true);
+        
+        //correlation
+        job = new Job(conf);
+        job.setJobName("Pair stat correlation MR");
+        job.setJarByClass(IncrementalPearsonCorrelator.class);
+        FileInputFormat.addInputPath(job, new Path(args[2]));
+        FileOutputFormat.setOutputPath(job, new Path(args[3]));
+        job.setMapperClass(IncrementalPearsonCorrelator.CorrelationMapper.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        Utility.setConfiguration(job.getConfiguration());
+        job.setNumReduceTasks(0);
+        int status =  job.waitForCompletion(true) ? 0 : 1;
+        return status;
+    }
+    
+    /**
+     * Ratings by user, from the rating data and the changes
+     * @author pranab
+     *
+     */
+    public static class UserRatingMapper extends Mapper<LongWritable, Text, Text, Tuple> {
+    	private String fieldDelim;
+    	private String subFieldDelim;
+    	private boolean isDeltaFileSplit;
+    	private Integer ratingTag;
+    	private Text keyOut = new Text();
+    	private Tuple valOut = new Tuple();
+    	private static final Integer OLD_RATING = 0;
+    	private static final Integer NEW_RATING = 1;
+    	private static final Integer DELETED_RATING = 2;
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+        	subFieldDelim = conf.get("subfield.delim", ":");
+        	String deltaFilePrefix = conf.get("delta.file.prefix", "delta");
+        	isDeltaFileSplit = ((FileSplit)context.getInputSplit()).getPath().getName().startsWith(deltaFilePrefix);
+        	ratingTag = conf.getBoolean("pair.stat.bootstrap", false) ? NEW_RATING : OLD_RATING;
+        }    
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String[] items = value.toString().split(fieldDelim);
+        	if (isDeltaFileSplit) {
+        		//userID, itemID, rating, op, timestamp
+        		keyOut.set(items[0]);
+        		valOut.initialize();
+        		boolean deleted = items.length > 3 && items[3].equals("D");
+        		long timestamp = items.length > 4 ? Long.parseLong(items[4]) : 0;
+        		valOut.add(items[1], deleted ? 0 : Integer.parseInt(items[2]), deleted ? DELETED_RATING : NEW_RATING, 
+        			timestamp);
+        		context.write(keyOut, valOut);
+        	} else {
+        		//itemID, userID:rating ...
+        		for (int i = 1; i < items.length; ++i) {
+        			String[] subItems = items[i].split(subFieldDelim);
+        			keyOut.set(subItems[0]);
+        			valOut.initialize();
+        			valOut.add(items[0], Integer.parseInt(subItems[1]), ratingTag);
+            		context.write(keyOut, valOut);
+        		}
+        	}
+        }
+    }
+    
+    /**
+     * Change in statistics for all pairs with at least one changed item, from the ratings of an user before 
+     * and after the changes. Changes of an item are collapsed to the latest, for equal timestamps delete wins 
+     * over update and higher rating over lower, so that the result does not depend on the shuffle order
+     * @author pranab
+     *
+     */
+    public static class StatDeltaReducer extends Reducer<Text, Tuple, NullWritable, Text> {
+    	private String fieldDelim;
+    	private int ratingScale;
+    	private int bucketCount;
+    	private Map<String, long[]> latestChanges = new HashMap<String, long[]>();
+    	private Map<String, Integer> oldRatings = new HashMap<String, Integer>();
+    	private Map<String, Integer> newRatings = new HashMap<String, Integer>();
+    	private Set<String> changedItems = new HashSet<String>();
+    	private Set<String> allItems = new HashSet<String>();
+    	private CorrelationStat stat = new CorrelationStat();
+    	private Text valueOut = new Text();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        	ratingScale = context.getConfiguration().getInt("rating.scale", 100);
+        	bucketCount = context.getConfiguration().getInt("bucket.count", 10);
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Text  key, Iterable<Tuple> values, Context context)
+        throws IOException, InterruptedException {
+        	oldRatings.clear();
+        	newRatings.clear();
+        	changedItems.clear();
+        	latestChanges.clear();
+        	for (Tuple value : values) {
+        		String itemID = value.getString(0);
+        		int tag = value.getInt(2);
+        		if (tag == UserRatingMapper.OLD_RATING) {
+        			oldRatings.put(itemID, value.getInt(1) * ratingScale);
+        		} else {
+        			//timestamp and rank, deleted ranks above any rating
+        			long timestamp = value.getLong(3);
+        			long rank = tag == UserRatingMapper.DELETED_RATING ? Long.MAX_VALUE : value.getInt(1);
+        			long[] latest = latestChanges.get(itemID);
+        			if (null == latest) {
+        				latestChanges.put(itemID, new long[] {timestamp, rank});
+        			} else if (timestamp > latest[0] || timestamp == latest[0] && rank > latest[1]) {
+        				latest[0] = timestamp;
+        				latest[1] = rank;
+        			}
+        		}
+        	}
+        	if (latestChanges.isEmpty()) {
+        		return;
+        	}
+        	for (Map.Entry<String, long[]> entry : latestChanges.entrySet()) {
+        		changedItems.add(entry.getKey());
+        		if (entry.getValue()[1] != Long.MAX_VALUE) {
+        			newRatings.put(entry.getKey(), (int)entry.getValue()[1] * ratingScale);
+        		}
+        	}
+        	
+        	//unchanged ratings carry over
+        	allItems.clear();
+        	allItems.addAll(oldRatings.keySet());
+        	allItems.addAll(changedItems);
+        	for (String itemID : oldRatings.keySet()) {
+        		if (!changedItems.contains(itemID)) {
+        			newRatings.put(itemID, oldRatings.get(itemID));
+        		}
+        	}
+        	
+        	//all pairs with one changed item, pairs with both changed only once
+        	for (String changed : changedItems) {
+        		for (String other : allItems) {
+        			boolean changedFirst = isFirst(changed, other);
+        			if (other.equals(changed) || changedItems.contains(other) && !changedFirst) {
+        				continue;
+        			}
+        			String first = changedFirst ? changed : other;
+        			String second = changedFirst ? other : changed;
+        			stat.initialize();
+        			Integer ratingOne = oldRatings.get(first);
+        			Integer ratingTwo = oldRatings.get(second);
+        			if (null != ratingOne && null != ratingTwo) {
+        				stat.remove(ratingOne, ratingTwo);
+        			}
+        			ratingOne = newRatings.get(first);
+        			ratingTwo = newRatings.get(second);
+        			if (null != ratingOne && null != ratingTwo) {
+        				stat.accumulate(ratingOne, ratingTwo);
+        			}
+        			if (stat.getCount() != 0 || stat.getSumOne() != 0 || stat.getSumTwo() != 0 || 
+        					stat.getProdSum() != 0) {
+        				valueOut.set(first + fieldDelim + second + fieldDelim + toString(stat));
+        				context.write(NullWritable.get(), valueOut);
+        				context.getCounter("Pair stat", "Affected pair").increment(1);
+        			}
+        		}
+        	}
+        }
+        
+        /**
+         * @param itemOne
+         * @param itemTwo
+         * @return true if the first item comes first in the pair
+         */
+        private boolean isFirst(String itemOne, String itemTwo) {
+        	int bucketOne = PearsonCorrelator.getBucket(itemOne, bucketCount);
+        	int bucketTwo = PearsonCorrelator.getBucket(itemTwo, bucketCount);
+        	return bucketOne != bucketTwo ? bucketOne > bucketTwo : itemOne.compareTo(itemTwo) < 0;
+        }
+        
+        /**
+         * @param stat
+         * @return
+         */
+        private String toString(CorrelationStat stat) {
+        	return "" + stat.getCount() + fieldDelim + stat.getSumOne() + fieldDelim + stat.getSumTwo() + fieldDelim + 
+        		stat.getSqSumOne() + fieldDelim + stat.getSqSumTwo() + fieldDelim + stat.getProdSum();
+        }
+    }
+    
+    /**
+     * Statistics and their changes by item pair
+     * @author pranab
+     *
+     */
+    public static class PairStatMapper extends Mapper<LongWritable, Text, Tuple, Tuple> {
+    	private String fieldDelim;
+    	private Tuple keyOut = new Tuple();
+    	private Tuple valOut = new Tuple();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        }    
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String[] items = value.toString().split(fieldDelim);
+        	keyOut.initialize();
+        	keyOut.add(items[0], items[1]);
+        	valOut.initialize();
+        	for (int i = 2; i < 8; ++i) {
+        		valOut.add(Long.parseLong(items[i]));
+        	}
+        	context.write(keyOut, valOut);
+        }
+    }
+    
+    /**
+     * @author pranab
+     *
+     */
+    public static class PairStatCombiner extends Reducer<Tuple, Tuple, Tuple, Tuple> {
+    	private CorrelationStat stat = new CorrelationStat();
+    	private Tuple valOut = new Tuple();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
+        throws IOException, InterruptedException {
+        	merge(values, stat);
+        	valOut.initialize();
+        	valOut.add(stat.getCount(), stat.getSumOne(), stat.getSumTwo(), stat.getSqSumOne(), stat.getSqSumTwo(), 
+        			stat.getProdSum());
+        	context.write(key, valOut);
+        }
+    }
+
+    /**
+     * Updated statistics. Pairs without any common user left are dropped
+     * @author pranab
+     *
+     */
+    public static class PairStatReducer extends Reducer<Tuple, Tuple, NullWritable, Text> {
+    	private String fieldDelim;
+    	private CorrelationStat stat = new CorrelationStat();
+    	private Text valueOut = new Text();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#setup(org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	fieldDelim = context.getConfiguration().get("field.delim", ",");
+        }
+        
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
+         */
+        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
+        throws IOException, InterruptedException {
+        	merge(values, stat);
+        	if (stat.getCount() > 0) {
+        		valueOut.set(key.getString(0) + fieldDelim + key.getString(1) + fieldDelim + stat.getCount() + fieldDelim + 
+        			stat.getSumOne() + fieldDelim + stat.getSumTwo() + fieldDelim + stat.getSqSumOne() + fieldDelim + 
+        			stat.getSqSumTwo() + fieldDelim + stat.getProdSum());
+        		context.write(NullWritable.get(), valueOut);
+        	}
+        }
+    }
+    
+    /**
+     * @param values
+     * @param stat
+     */
+    private static void merge(Iterable<Tuple> values, CorrelationStat stat) {
+    	stat.initialize();
+    	for (Tuple value : values) {
+    		stat.merge(value.getLong(0), value.getLong(1), value.getLong(2), value.getLong(3), value.getLong(4), 
+    				value.getLong(5));
+    	}
+    }
+    
+    /**
+     * Correlation from statistics, same as PearsonCorrelator
+     * @author pranab
+     *
+     */
+    public static class CorrelationMapper extends Mapper<LongWritable, Text, NullWritable, Text> {
+    	private String fieldDelim;
+        private int corrScale;
+        private int minRatingSetIntersection;
+    	private CorrelationStat stat = new CorrelationStat();
+    	private Text valueOut = new Text();
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#setup(org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        protected void setup(Context context) throws IOException, InterruptedException {
+        	Configuration conf = context.getConfiguration();
+        	fieldDelim = conf.get("field.delim", ",");
+           	corrScale = conf.getInt("correlation.scale", 1000);
+           	minRatingSetIntersection =  conf.getInt("min.rating.intersection.set", 3);
+        }    
+    	
+        /* (non-Javadoc)
+         * @see org.apache.hadoop.mapreduce.Mapper#map(KEYIN, VALUEIN, org.apache.hadoop.mapreduce.Mapper.Context)
+         */
+        @Override
+        protected void map(LongWritable key, Text value, Context context)
+            throws IOException, InterruptedException {
+        	String[] items = value.toString().split(fieldDelim);
+        	stat.initialize();
+        	stat.merge(Long.parseLong(items[2]), Long.parseLong(items[3]), Long.parseLong(items[4]), 
+        			Long.parseLong(items[5]), Long.parseLong(items[6]), Long.parseLong(items[7]));
+        	if (stat.getCount() >= minRatingSetIntersection) {
+        		int corr = stat.getCorrelation(corrScale);
+        		if (corr > 0) {
+        			valueOut.set(items[0] + fieldDelim + items[1] + fieldDelim + corr + fieldDelim + stat.getCount());
+        			context.write(NullWritable.get(), valueOut);
+        		}
+        	}
+        }
+    }
+    
+    /**
+     * @param args
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        int exitCode = ToolRunner.run(new IncrementalPearsonCorrelator(), args);
+        System.exit(exitCode);
+    }
+}
@@ -21,7 +21,6 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.apache.commons.lang3.tuple.Pair;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.Path;
@@ -30,6 +29,7 @@ import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
 import org.apache.hadoop.mapreduce.Reducer;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
@@ -41,6 +41,12 @@ import org.chombo.util.SecondarySort;
 import org.chombo.util.Tuple;
 import org.chombo.util.Utility;
 
+/**
+ * Pearson correlation between items based on ratings by common users. Ratings of an item are shuffled as 
+ * a RatingVector with sorted users, so that common users are found with a merge pass
+ * @author pranab
+ *
+ */
 public class PearsonCorrelator extends Configured implements Tool{
     @Override
     public int run(String[] args) throws Exception   {
@@ -57,13 +63,13 @@ public class PearsonCorrelator extends Configured implements Tool{
         job.setReducerClass(PearsonCorrelator.PrearsonReducer.class);
         
         job.setMapOutputKeyClass(Tuple.class);
-        job.setMapOutputValueClass(Tuple.class);
+        job.setMapOutputValueClass(RatingVector.class);
 
         job.setOutputKeyClass(NullWritable.class);
         job.setOutputValueClass(Text.class);
  
         job.setGroupingComparatorClass(SecondarySort.TuplePairGroupComprator.class);
-        job.setPartitionerClass(SecondarySort.TuplePairPartitioner.class);
+        job.setPartitionerClass(PearsonCorrelator.ItemPairPartitioner.class);
 
         Utility.setConfiguration(job.getConfiguration());
         job.setNumReduceTasks(job.getConfiguration().getInt("num.reducer", 1));
@@ -75,18 +81,20 @@ public class PearsonCorrelator extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class PearsonMapper extends Mapper<LongWritable, Text, Tuple, Tuple> {
+    public static class PearsonMapper extends Mapper<LongWritable, Text, Tuple, RatingVector> {
         private int bucketCount;
         private int hash;
         private String fieldDelimRegex;
         private Integer hashPair;
         private String itemID;
         private Tuple keyHolder = new Tuple();
-        private Tuple valueHolder = new Tuple();
+        private RatingVector valueHolder = new RatingVector();
         private int hashPairMult;
-        private int hashCode;
         private int ratingScale;
     	private String subFieldDelim;
+    	private String[] userIDs = new String[16];
+    	private int[] ratings = new int[16];
+    	private boolean userIdEncoded;
         private static final Logger LOG = Logger.getLogger(PearsonCorrelator.PearsonMapper.class);
     	
         /* (non-Javadoc)
@@ -103,6 +111,7 @@ public class PearsonCorrelator extends Configured implements Tool{
         	hashPairMult = conf.getInt("hash.pair.multiplier", 1000);
         	subFieldDelim = context.getConfiguration().get("subfield.delim", ":");
         	ratingScale = context.getConfiguration().getInt("rating.scale", 100);
+        	userIdEncoded = conf.getBoolean("user.id.encoded", false);
       }    
         
         /* (non-Javadoc)
@@ -113,11 +122,7 @@ public class PearsonCorrelator extends Configured implements Tool{
             throws IOException, InterruptedException {
         	String[] items  =  value.toString().split(fieldDelimRegex);
         	itemID = items[0];
-        	hashCode = itemID.hashCode();
-        	if (hashCode < 0) {
-        		hashCode = - hashCode;
-        	}
-    		hash = (hashCode %  bucketCount) / 2 ;
+    		hash = getBucket(itemID, bucketCount);
 
     		boolean valueInitialized = false;
     		for (int i = 0; i < bucketCount;  ++i) {
@@ -150,20 +155,20 @@ public class PearsonCorrelator extends Configured implements Tool{
          * @param items
          */
         private void createValueTuple(Integer secKey, String[]  items) {
-        	valueHolder.initialize();
-        	valueHolder.add(secKey, items[0]);
+        	int size = items.length - 1;
+        	if (userIDs.length < size) {
+        		userIDs = new String[size];
+        		ratings = new int[size];
+        	}
         	
         	//all userID and rating pair
         	String[] subItems = null;
-        	String userID = null;
-        	Integer rating = 0;
         	for (int i = 1; i < items.length; ++ i) {
         		subItems = items[i].split(subFieldDelim);
-        		userID = subItems[0];
-        		rating = ( Integer.parseInt(subItems[1])) *  ratingScale;
-            	valueHolder.add(userID, rating);
+        		userIDs[i - 1] = subItems[0];
+        		ratings[i - 1] = ( Integer.parseInt(subItems[1])) *  ratingScale;
         	}
-       	
+        	valueHolder.set(items[0], secKey, userIDs, ratings, size, userIdEncoded);
         }
     }
     
@@ -171,7 +176,7 @@ public class PearsonCorrelator extends Configured implements Tool{
      * @author pranab
      *
      */
-    public static class PrearsonReducer extends Reducer<Tuple, Tuple, NullWritable, Text> {
+    public static class PrearsonReducer extends Reducer<Tuple, RatingVector, NullWritable, Text> {
         private Text valueHolder = new Text();
         private String fieldDelim;
         private int hashPairMult;
@@ -179,7 +184,8 @@ public class PearsonCorrelator extends Configured implements Tool{
         private int minRatingSetIntersection;
         private int corr;
         private int corrWeight;
-        private List<UserRating> userRatings = new ArrayList<UserRating>();
+        private List<RatingVector> userRatings = new ArrayList<RatingVector>();
+        private CorrelationStat corrStat = new CorrelationStat();
         
         private static final Logger LOG = Logger.getLogger(PearsonCorrelator.PrearsonReducer.class);
        
@@ -199,18 +205,16 @@ public class PearsonCorrelator extends Configured implements Tool{
         /* (non-Javadoc)
          * @see org.apache.hadoop.mapreduce.Reducer#reduce(KEYIN, java.lang.Iterable, org.apache.hadoop.mapreduce.Reducer.Context)
          */
-        protected void reduce(Tuple  key, Iterable<Tuple> values, Context context)
+        protected void reduce(Tuple  key, Iterable<RatingVector> values, Context context)
         throws IOException, InterruptedException {
         	
         	int hashPair = key.getInt(0);
-    		UserRating userRating = null;
-    		UserRating userRatingSecond = null;
+    		RatingVector userRatingSecond = null;
         	if (hashPair / hashPairMult == hashPair % hashPairMult){
         		//same bucket
         		userRatings.clear();
-        		for (Tuple tuple : values) {
-        			userRating = new UserRating(tuple);
-        			userRatings.add(userRating);
+        		for (RatingVector ratingVec : values) {
+        			userRatings.add(ratingVec.createClone());
         		}
         		
         		//pair them
@@ -228,15 +232,14 @@ public class PearsonCorrelator extends Configured implements Tool{
         	} else {
         		//different bucket
         		userRatings.clear();
-        		for (Tuple tuple : values) {
-        			if (tuple.getInt(0) == Utility.ZERO) {
-        				userRating = new UserRating(tuple);
-        				userRatings.add(userRating);
+        		for (RatingVector ratingVec : values) {
+        			if (ratingVec.getSetID() == Utility.ZERO) {
+        				userRatings.add(ratingVec.createClone());
         			} else {
-        				userRatingSecond = new UserRating(tuple);
+        				userRatingSecond = ratingVec;
         				
         				//pair with each in the first set
-        				for (UserRating userRatingFirst : userRatings) {
+        				for (RatingVector userRatingFirst : userRatings) {
             				findCorrelation(userRatingFirst,userRatingSecond, context); 
             				if (corr > 0) {
             					valueHolder.set(userRatingFirst.getItemID() + fieldDelim + userRatingSecond.getItemID() + fieldDelim + corr + 
@@ -259,155 +262,54 @@ public class PearsonCorrelator extends Configured implements Tool{
          * @param ratingTwo
          * @return
          */
-        private void  findCorrelation(UserRating ratingOne, UserRating ratingTwo,  Context context) {
+        private void  findCorrelation(RatingVector ratingOne, RatingVector ratingTwo,  Context context) {
         	corr = 0;
         	corrWeight = 0;
         	
-        	ratingOne.initializeMatch();
-        	ratingTwo.initializeMatch();
-        	
-        	//finf matching user rating
-        	for (int i = 0; i < ratingOne.getRatings().size(); ++i) {
-        		Pair<String, Integer> userRatingOne = ratingOne.getRatings().get(i);
-        		String userIDOne = userRatingOne.getLeft();
-        		
-        		for(int j = 0; j <  ratingTwo.getRatings().size(); ++j) {
-            		Pair<String, Integer> userRatingTwo = ratingTwo.getRatings().get(j);
-            		String userIDTwo = userRatingTwo.getLeft();
-        			if (userIDOne.equals(userIDTwo))  {
-        				ratingOne.markMatched(i);
-        				ratingTwo.markMatched(j);
-        				break;
-        			}
-        		}
-        	}
+        	//matching user rating
+        	ratingOne.findCommonRatings(ratingTwo, corrStat);
         	
-        	if (ratingOne.getMatchCount() >= minRatingSetIntersection) {
-        		corrWeight = ratingOne.getMatchCount();
-        		
-	        	//mean and stad dev
-	        	ratingOne.calculateStat();
-	        	ratingTwo.calculateStat();
-	        	LOG.debug("user match count:" + ratingOne.getMatchCount() );
-	        	LOG.debug("mean: " + ratingOne.getRatingMean() + " std dev:" + ratingOne.getRatingStdDev());
-	        	LOG.debug("mean: " + ratingTwo.getRatingMean() + " std dev:" + ratingTwo.getRatingStdDev());
-	        	
-	        	//co variance 
-	        	int[] coVarItems = ratingOne.findCoVarianceItems(null);
-	        	coVarItems = ratingTwo.findCoVarianceItems(coVarItems);
-	        	int coVar = 0;
-	        	for (int item : coVarItems) {
-	        		coVar += item;
-	        	}
-	        	coVar /= coVarItems.length;
-	        	if (coVar == 0) {
+        	if (corrStat.getCount() >= minRatingSetIntersection) {
+        		corrWeight = (int)corrStat.getCount();
+	        	LOG.debug("user match count:" + corrWeight);
+	        	if (corrStat.isZeroCovariance()) {
 	        		context.getCounter("Pearson", "Zero covariance").increment(1);
 	        	}
-	        	
-	        	//pearson correlation
-	        	int stdDevProd = ratingOne.getRatingStdDev() * ratingTwo.getRatingStdDev();
-	        	if (stdDevProd == 0) {
+	        	if (corrStat.isZeroStdDev()) {
 	        		context.getCounter("Pearson", "Zero std dev").increment(1);
 	        	}
-	        	corr = stdDevProd == 0 ? corrScale : (coVar * corrScale) / stdDevProd;
-	        	corr += corrScale;
-	        	corr /= 2;
+	        	
+	        	//pearson correlation
+	        	corr = corrStat.getCorrelation(corrScale);
         	}
-        	
         }
-        
-        
     }    
     
     /**
      * @author pranab
      *
      */
-    public static class UserRating {
-    	private String itemID;
-    	private List<Pair<String, Integer>> ratings = new ArrayList<Pair<String, Integer>>();
-    	private List<Integer> matchedRatings = new ArrayList<Integer>();
-    	private int ratingMean;
-    	private int ratingStdDev;
-   	
-    	
-		public UserRating(Tuple tuple) {
-			super();
-			itemID = tuple.getString(1);
-			
-        	for (int i = 2; i < tuple.getSize(); ) {
-        		String userID = tuple.getString(i++) ;
-        		Integer rating = tuple.getInt(i++);
-        		ratings.add(Pair.of(userID, rating));
-        	}
-		}
-
-		public String getItemID() {
-			return itemID;
-		}
-
-		public List<Pair<String, Integer>> getRatings() {
-			return ratings;
-		}
-
-		public void initializeMatch() {
-			matchedRatings.clear();
-		}
-		
-		public void markMatched(Integer index) {
-			matchedRatings.add(index);
-		}
-		
-		public int getMatchCount() {
-			return matchedRatings.size();
-		}
-		
-		public int getMatchedRating(int index) {
-			return ratings.get(matchedRatings.get(index)).getRight();
-		}
-		
-		public void calculateStat() {
-	    	int ratingSum = 0;
-	    	int ratingSquareSum = 0;
-			int rating = 0;
-			
-			for (int index : matchedRatings) {
-				rating = ratings.get(index).getRight();
-				ratingSum += rating;
-				ratingSquareSum += rating * rating;
-			}
-			ratingMean = ratingSum / matchedRatings.size();
-        	int var = ratingSquareSum /  matchedRatings.size() -  ratingMean * ratingMean;
-        	ratingStdDev = (int)Math.sqrt(var);
-		}
-
-		public int getRatingMean() {
-			return ratingMean;
-		}
-
-		public int getRatingStdDev() {
-			return ratingStdDev;
-		}
-		
-		public int[] findCoVarianceItems(int[] coVarItems) {
-			int normRating = 0;
-			if (null == coVarItems) {
-				coVarItems = new int[matchedRatings.size()];
-				for (int i =0; i < matchedRatings.size(); ++i) {
-					normRating = getMatchedRating(i) - ratingMean;
-					coVarItems[i] =normRating;
-				}
-			} else {
-				for (int i =0; i < matchedRatings.size(); ++i) {
-					normRating = getMatchedRating(i) - ratingMean;
-					coVarItems[i] *= normRating;
-				}
-				
-			}
-			
-			return coVarItems;
-		}
-    	
+    public static class ItemPairPartitioner extends Partitioner<Tuple, RatingVector> {
+	     @Override
+	     public int getPartition(Tuple key, RatingVector value, int numPartitions) {
+	    	 //consider only base part of  key
+		     return key.hashCodeBase() % numPartitions;
+	     }
+    }
+    
+    /**
+     * Hash bucket of an item. Of two items in different buckets, the one with the higher bucket is 
+     * the first item of the pair in the output
+     * @param itemID
+     * @param bucketCount
+     * @return
+     */
+    public static int getBucket(String itemID, int bucketCount) {
+    	int hashCode = itemID.hashCode();
+    	if (hashCode < 0) {
+    		hashCode = - hashCode;
+    	}
+		return (hashCode %  bucketCount) / 2 ;
     }
     
     /**
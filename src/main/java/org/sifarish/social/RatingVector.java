@@ -0,0 +1,251 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.social;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Ratings of an item by users, with the users sorted, so that common users of two items can be found with a 
+ * single merge pass. User IDs that are canonical decimal numbers, e.g. dictionary encoded IDs, are kept, compared
+ * and serialized as primitive longs. Other user IDs are ordered by a 64 bit hash and then by the ID. Since the hash 
+ * is not unique, the string is kept for them, so that common users are the same as with string comparison
+ * @author pranab
+ *
+ */
+public class RatingVector implements Writable {
+	private String itemID;
+	private int setID;
+	private int size;
+	private long[] userKeys = new long[16];
+	private String[] userIDs = new String[16];
+	private int[] ratings = new int[16];
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	private static final int MAX_NUMERIC_DIGITS = 18;
+	private static final long STRING_ID = -1;
+	
+	/**
+	 * @param itemID
+	 * @param setID
+	 * @param userIDs
+	 * @param ratings
+	 * @param size
+	 */
+	public void set(String itemID, int setID, String[] userIDs, int[] ratings, int size) {
+		set(itemID, setID, userIDs, ratings, size, false);
+	}
+	
+	/**
+	 * @param itemID
+	 * @param setID
+	 * @param userIDs
+	 * @param ratings
+	 * @param size
+	 * @param encoded true if user IDs are dictionary encoded ints
+	 */
+	public void set(String itemID, int setID, String[] userIDs, int[] ratings, int size, boolean encoded) {
+		this.itemID = itemID;
+		this.setID = setID;
+		ensureCapacity(size);
+		this.size = size;
+		
+		//sort users
+		Integer[] order = new Integer[size];
+		final long[] keys = new long[size];
+		final String[] ids = new String[size];
+		for (int i = 0; i < size; ++i) {
+			order[i] = i;
+			keys[i] = numericId(userIDs[i]);
+			if (keys[i] < 0) {
+				if (encoded) {
+					throw new IllegalArgumentException("invalid encoded user ID:" + userIDs[i]);
+				}
+				keys[i] = hash(userIDs[i]);
+				ids[i] = userIDs[i];
+			}
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return compareUser(keys[first], ids[first], keys[second], ids[second]);
+			}
+		});
+		for (int i = 0; i < size; ++i) {
+			this.userKeys[i] = keys[order[i]];
+			this.userIDs[i] = ids[order[i]];
+			this.ratings[i] = ratings[order[i]];
+		}
+	}
+	
+	/**
+	 * @param capacity
+	 */
+	private void ensureCapacity(int capacity) {
+		if (userKeys.length < capacity) {
+			userKeys = new long[capacity];
+			userIDs = new String[capacity];
+			ratings = new int[capacity];
+		}
+	}
+	
+	/**
+	 * @return deep copy
+	 */
+	public RatingVector createClone() {
+		RatingVector clone = new RatingVector();
+		clone.itemID = itemID;
+		clone.setID = setID;
+		clone.size = size;
+		clone.userKeys = Arrays.copyOf(userKeys, size);
+		clone.userIDs = Arrays.copyOf(userIDs, size);
+		clone.ratings = Arrays.copyOf(ratings, size);
+		return clone;
+	}
+	
+	public String getItemID() {
+		return itemID;
+	}
+
+	public int getSetID() {
+		return setID;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Finds common users with a merge pass and accumulates statistics of their ratings
+	 * @param other
+	 * @param stat
+	 */
+	public void findCommonRatings(RatingVector other, CorrelationStat stat) {
+		stat.initialize();
+		int i = 0;
+		int j = 0;
+		while (i < size && j < other.size) {
+			int cmp = compareUser(userKeys[i], userIDs[i], other.userKeys[j], other.userIDs[j]);
+			if (cmp == 0) {
+				stat.accumulate(ratings[i], other.ratings[j]);
+				++i;
+				++j;
+			} else if (cmp < 0) {
+				++i;
+			} else {
+				++j;
+			}
+		}
+	}
+	
+	/**
+	 * Numeric IDs come first, ordered by value, then the others by hash and ID
+	 * @param firstKey
+	 * @param firstID null for numeric ID
+	 * @param secondKey
+	 * @param secondID null for numeric ID
+	 * @return
+	 */
+	private static int compareUser(long firstKey, String firstID, long secondKey, String secondID) {
+		if ((null == firstID) != (null == secondID)) {
+			return null == firstID ? -1 : 1;
+		}
+		int cmp = firstKey < secondKey ? -1 : (firstKey > secondKey ? 1 : 0);
+		if (cmp == 0 && null != firstID) {
+			cmp = firstID.compareTo(secondID);
+		}
+		return cmp;
+	}
+	
+	/**
+	 * @param userID
+	 * @return value if the ID is a canonical decimal number, so that the ID can be recovered from it, 
+	 * otherwise -1
+	 */
+	private static long numericId(String userID) {
+		int length = userID.length();
+		if (length == 0 || length > MAX_NUMERIC_DIGITS || (length > 1 && userID.charAt(0) == '0')) {
+			return -1;
+		}
+		long value = 0;
+		for (int i = 0; i < length; ++i) {
+			char c = userID.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+	
+	/**
+	 * FNV-1a hash
+	 * @param userID
+	 * @return
+	 */
+	private static long hash(String userID) {
+		long hash = FNV_OFFSET;
+		for (int i = 0; i < userID.length(); ++i) {
+			hash ^= userID.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		return hash;
+	}
+
+	@Override
+	public void write(DataOutput out) throws IOException {
+		Text.writeString(out, itemID);
+		WritableUtils.writeVInt(out, setID);
+		WritableUtils.writeVInt(out, size);
+		for (int i = 0; i < size; ++i) {
+			if (null == userIDs[i]) {
+				WritableUtils.writeVLong(out, userKeys[i]);
+			} else {
+				WritableUtils.writeVLong(out, STRING_ID);
+				Text.writeString(out, userIDs[i]);
+			}
+			WritableUtils.writeVInt(out, ratings[i]);
+		}
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		itemID = Text.readString(in);
+		setID = WritableUtils.readVInt(in);
+		size = WritableUtils.readVInt(in);
+		ensureCapacity(size);
+		for (int i = 0; i < size; ++i) {
+			long key = WritableUtils.readVLong(in);
+			if (key == STRING_ID) {
+				userIDs[i] = Text.readString(in);
+				userKeys[i] = hash(userIDs[i]);
+			} else {
+				userIDs[i] = null;
+				userKeys[i] = key;
+			}
+			ratings[i] = WritableUtils.readVInt(in);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Categorical field distances compiled from the overridden distances and the concept hierarchy. Values
+ * mentioned in either get dense int IDs, and distances between them are in a matrix, dense for up to 
+ * DENSE_MAX_VALUES values and sparse otherwise. Distance is the same as with Field, i.e. 0 for the same 
+ * value, overridden distance for either order of the pair, 0 if the first value is the parent of the second 
+ * and 1 otherwise
+ * @author pranab
+ *
+ */
+public class CategoricalDistanceTable {
+	private Map<String, Integer> valueIds = new HashMap<String, Integer>();
+	private double[] denseDistances;
+	private LongIntHashMap sparseIndexes;
+	private double[] sparseDistances;
+	private int sparseCount;
+	private static final int DENSE_MAX_VALUES = 512;
+	
+	/**
+	 * @param categoricalDistances may be null
+	 * @param conceptHierarchy may be null
+	 */
+	public CategoricalDistanceTable(List<CategoricalDistance> categoricalDistances, ConceptHierarchy conceptHierarchy) {
+		if (null != categoricalDistances) {
+			for (CategoricalDistance catDist : categoricalDistances) {
+				addValue(catDist.getThisValue());
+				addValue(catDist.getThatValue());
+			}
+		}
+		if (null != conceptHierarchy) {
+			for (ConceptHierarchy.Concept concept : conceptHierarchy.getConcepts()) {
+				addValue(concept.getParent());
+				if (null != concept.getChildren()) {
+					for (String child : concept.getChildren()) {
+						addValue(child);
+					}
+				}
+			}
+		}
+		
+		int valueCount = valueIds.size();
+		if (valueCount <= DENSE_MAX_VALUES) {
+			denseDistances = new double[valueCount * valueCount];
+			Arrays.fill(denseDistances, Double.NaN);
+		} else {
+			sparseIndexes = new LongIntHashMap();
+			sparseDistances = new double[64];
+		}
+		
+		//first matching override wins, in either order
+		if (null != categoricalDistances) {
+			for (CategoricalDistance catDist : categoricalDistances) {
+				if (null == catDist.getThisValue() || null == catDist.getThatValue()) {
+					continue;
+				}
+				int thisId = valueIds.get(catDist.getThisValue());
+				int thatId = valueIds.get(catDist.getThatValue());
+				if (Double.isNaN(getDistance(thisId, thatId))) {
+					setDistance(thisId, thatId, catDist.getDistance());
+					setDistance(thatId, thisId, catDist.getDistance());
+				}
+			}
+		}
+		
+		//parent found for the second value, if not overridden
+		if (null != conceptHierarchy) {
+			for (String child : valueIds.keySet()) {
+				String parent = conceptHierarchy.findParent(child);
+				if (null != parent) {
+					int parentId = valueIds.get(parent);
+					int childId = valueIds.get(child);
+					if (Double.isNaN(getDistance(parentId, childId))) {
+						setDistance(parentId, childId, 0.0);
+					}
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @param value
+	 */
+	private void addValue(String value) {
+		if (null != value && !valueIds.containsKey(value)) {
+			valueIds.put(value, valueIds.size());
+		}
+	}
+	
+	/**
+	 * @param thisId
+	 * @param thatId
+	 * @return distance or NaN if not set
+	 */
+	private double getDistance(int thisId, int thatId) {
+		double distance = Double.NaN;
+		if (null != denseDistances) {
+			distance = denseDistances[thisId * valueIds.size() + thatId];
+		} else {
+			int index = sparseIndexes.get(((long)thisId << 32) | thatId, -1);
+			if (index >= 0) {
+				distance = sparseDistances[index];
+			}
+		}
+		return distance;
+	}
+	
+	/**
+	 * @param thisId
+	 * @param thatId
+	 * @param distance
+	 */
+	private void setDistance(int thisId, int thatId, double distance) {
+		if (null != denseDistances) {
+			denseDistances[thisId * valueIds.size() + thatId] = distance;
+		} else {
+			if (sparseCount == sparseDistances.length) {
+				sparseDistances = Arrays.copyOf(sparseDistances, 2 * sparseCount);
+			}
+			sparseDistances[sparseCount] = distance;
+			sparseIndexes.put(((long)thisId << 32) | thatId, sparseCount++);
+		}
+	}
+	
+	/**
+	 * @param value
+	 * @return value ID or -1 if the value has no special distance
+	 */
+	public int getValueId(String value) {
+		Integer valueId = valueIds.get(value);
+		return null != valueId ? valueId : -1;
+	}
+	
+	/**
+	 * @param thisValue
+	 * @param thatValue
+	 * @return
+	 */
+	public double findDistance(String thisValue, String thatValue) {
+		int thisId = getValueId(thisValue);
+		int thatId = getValueId(thatValue);
+		if (thisId < 0 || thatId < 0) {
+			return thisValue.equals(thatValue) ? 0.0 : 1.0;
+		}
+		return findDistance(thisId, thatId);
+	}
+	
+	/**
+	 * @param thisId
+	 * @param thatId
+	 * @return
+	 */
+	public double findDistance(int thisId, int thatId) {
+		if (thisId == thatId) {
+			return 0.0;
+		}
+		double distance = getDistance(thisId, thatId);
+		return Double.isNaN(distance) ? 1.0 : distance;
+	}
+}
@@ -0,0 +1,207 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+/**
+ * Insert delete edit distance i.e. m + n - 2 * lcs(a, b), where lcs is the longest common subsequence length.
+ * When the shorter string is up to 64 chars, lcs is found with the bit parallel algorithm of Allison, Dix and 
+ * Hyyro, with one word operation per char of the longer string. Otherwise a DP banded by the max distance 
+ * is used, terminating as soon as a whole row exceeds the max distance. Not thread safe, work arrays are 
+ * reused across calls
+ * @author pranab
+ *
+ */
+public class EditDistance {
+	private long[] latinMasks = new long[LATIN_SIZE];
+	private char[] otherChars = new char[WORD_SIZE];
+	private long[] otherMasks = new long[WORD_SIZE];
+	private int otherCount;
+	private int[] prevRow = new int[WORD_SIZE];
+	private int[] curRow = new int[WORD_SIZE];
+	private static final int LATIN_SIZE = 256;
+	private static final int WORD_SIZE = 64;
+	
+	/**
+	 * Exact distance
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	public int distance(String first, String second) {
+		return distance(first, second, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Distance, or maxDistance + 1 if distance exceeds maxDistance
+	 * @param first
+	 * @param second
+	 * @param maxDistance
+	 * @return
+	 */
+	public int distance(String first, String second, int maxDistance) {
+		String shorter = first.length() <= second.length() ? first : second;
+		String longer = shorter == first ? second : first;
+		int lenSum = shorter.length() + longer.length();
+		int capped = maxDistance < lenSum ? maxDistance + 1 : lenSum + 1;
+		if (longer.length() - shorter.length() >= capped) {
+			return capped;
+		}
+		
+		int dist = 0;
+		if (shorter.length() <= WORD_SIZE) {
+			dist = lenSum - 2 * bitParallelLcs(shorter, longer);
+			if (dist > capped) {
+				dist = capped;
+			}
+		} else {
+			dist = bandedDistance(shorter, longer, capped - 1);
+		}
+		return dist;
+	}
+	
+	/**
+	 * Longest common subsequence length. Bit i of the state vector is 0 when lcs of pattern prefix up to 
+	 * i increases at i
+	 * @param pattern up to 64 chars
+	 * @param text
+	 * @return
+	 */
+	private int bitParallelLcs(String pattern, String text) {
+		int m = pattern.length();
+		if (m == 0) {
+			return 0;
+		}
+		
+		//match masks
+		otherCount = 0;
+		for (int i = 0; i < m; ++i) {
+			char c = pattern.charAt(i);
+			if (c < LATIN_SIZE) {
+				latinMasks[c] |= 1L << i;
+			} else {
+				int k = findOther(c);
+				if (k < 0) {
+					k = otherCount++;
+					otherChars[k] = c;
+					otherMasks[k] = 0;
+				}
+				otherMasks[k] |= 1L << i;
+			}
+		}
+		
+		long state = -1L;
+		for (int j = 0; j < text.length(); ++j) {
+			char c = text.charAt(j);
+			long mask = 0;
+			if (c < LATIN_SIZE) {
+				mask = latinMasks[c];
+			} else {
+				int k = findOther(c);
+				mask = k < 0 ? 0 : otherMasks[k];
+			}
+			long matched = state & mask;
+			state = (state + matched) | (state - matched);
+		}
+		
+		//clear masks for the next call
+		for (int i = 0; i < m; ++i) {
+			char c = pattern.charAt(i);
+			if (c < LATIN_SIZE) {
+				latinMasks[c] = 0;
+			}
+		}
+		
+		long used = m == WORD_SIZE ? -1L : (1L << m) - 1;
+		return m - Long.bitCount(state & used);
+	}
+	
+	/**
+	 * @param c
+	 * @return
+	 */
+	private int findOther(char c) {
+		for (int k = 0; k < otherCount; ++k) {
+			if (otherChars[k] == c) {
+				return k;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * DP restricted to cells with |i - j| <= maxDistance, since distance of any path through a cell is at 
+	 * least |i - j|
+	 * @param first
+	 * @param second
+	 * @param maxDistance
+	 * @return distance or maxDistance + 1
+	 */
+	private int bandedDistance(String first, String second, int maxDistance) {
+		int m = first.length();
+		int n = second.length();
+		int inf = maxDistance + 1;
+		if (prevRow.length < n + 1) {
+			prevRow = new int[n + 1];
+			curRow = new int[n + 1];
+		}
+		
+		for (int j = 0; j <= n; ++j) {
+			prevRow[j] = j < inf ? j : inf;
+		}
+		for (int i = 1; i <= m; ++i) {
+			int lo = i - maxDistance > 1 ? i - maxDistance : 1;
+			int hi = i + maxDistance < n ? i + maxDistance : n;
+			int rowMin = inf;
+			if (lo == 1) {
+				curRow[0] = i < inf ? i : inf;
+				rowMin = curRow[0];
+			} else {
+				curRow[lo - 1] = inf;
+			}
+			
+			char c = first.charAt(i - 1);
+			for (int j = lo; j <= hi; ++j) {
+				int dist = 0;
+				if (c == second.charAt(j - 1)) {
+					dist = prevRow[j - 1];
+				} else {
+					dist = 1 + (prevRow[j] < curRow[j - 1] ? prevRow[j] : curRow[j - 1]);
+					if (dist > inf) {
+						dist = inf;
+					}
+				}
+				curRow[j] = dist;
+				if (dist < rowMin) {
+					rowMin = dist;
+				}
+			}
+			if (hi < n) {
+				curRow[hi + 1] = inf;
+			}
+			
+			//every alignment passes through this row
+			if (rowMin >= inf) {
+				return inf;
+			}
+			int[] temp = prevRow;
+			prevRow = curRow;
+			curRow = temp;
+		}
+		return prevRow[n];
+	}
+}
@@ -44,6 +44,7 @@ public class Field {
 	private double[] componentWeights;
 	private IDistanceStrategy distStrategy;
 	private double distThreshold = -1.0;
+	private CategoricalDistanceTable categoricalDistanceTable;
 
 	
 	public boolean isType() {
@@ -151,6 +152,16 @@ public class Field {
 	public void setComponentWeights(double[] componentWeights) {
 		this.componentWeights = componentWeights;
 	}
+	/**
+	 * Compiles overridden categorical distances and concept hierarchy into a lookup table used by
+	 * findDistance. Should be called after the schema is loaded
+	 */
+	public void compileCategoricalDistances() {
+		if (null != categoricalDistances || null != conceptHierarchy) {
+			categoricalDistanceTable = new CategoricalDistanceTable(categoricalDistances, conceptHierarchy);
+		}
+	}
+	
 	/**
 	 * Distance between categorical
 	 * @param thisValue
@@ -158,6 +169,10 @@ public class Field {
 	 * @return
 	 */
 	public double  findDistance(String thisValue, String thatValue) {
+		if (null != categoricalDistanceTable) {
+			return categoricalDistanceTable.findDistance(thisValue, thatValue);
+		}
+		
 		double distance = 1.0;
 		if (thisValue.equals(thatValue)) {
 			//match
@@ -0,0 +1,216 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * Dictionary mapping string IDs to dense int IDs, as created by IdDictionaryBuilder. IDs are sorted, with 
+ * the int ID being the position in sorted order. There are two files for each ID type. The data file 
+ * has the UTF-8 bytes of all IDs concatenated. The offset file has count + 1 big endian int offsets into 
+ * the data file. Files can be memory mapped or loaded from HDFS.
+ * @author pranab
+ *
+ */
+public class IdDictionary {
+	private ByteBuffer offsets;
+	private ByteBuffer data;
+	private int size;
+	private byte[] buffer = new byte[64];
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	public static final String OFFSET_FILE_EXT = ".off";
+	public static final String DATA_FILE_EXT = ".dat";
+	
+	/**
+	 * @param offsets
+	 * @param data
+	 */
+	public IdDictionary(ByteBuffer offsets, ByteBuffer data) {
+		this.offsets = offsets;
+		this.data = data;
+		size = offsets.limit() / 4 - 1;
+	}
+	
+	/**
+	 * Memory maps dictionary files in a local directory, e.g. from distributed cache
+	 * @param dir
+	 * @param type
+	 * @return
+	 * @throws IOException
+	 */
+	public static IdDictionary map(File dir, String type) throws IOException {
+		return new IdDictionary(mapFile(new File(dir, type + OFFSET_FILE_EXT)), 
+				mapFile(new File(dir, type + DATA_FILE_EXT)));
+	}
+	
+	/**
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer mapFile(File file) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raFile.close();
+		}
+	}
+	
+	/**
+	 * Loads dictionary files from HDFS
+	 * @param fs
+	 * @param dir
+	 * @param type
+	 * @return
+	 * @throws IOException
+	 */
+	public static IdDictionary load(FileSystem fs, Path dir, String type) throws IOException {
+		return new IdDictionary(loadFile(fs, new Path(dir, type + OFFSET_FILE_EXT)), 
+				loadFile(fs, new Path(dir, type + DATA_FILE_EXT)));
+	}
+	
+	/**
+	 * ID field for a shuffle tuple. Encoded IDs go as Integer, so that they are serialized and compared 
+	 * as ints instead of strings
+	 * @param id
+	 * @param encoded
+	 * @return
+	 */
+	public static Object tupleId(String id, boolean encoded) {
+		return encoded ? (Object)Integer.valueOf(id) : id;
+	}
+	
+	/**
+	 * @param fs
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer loadFile(FileSystem fs, Path path) throws IOException {
+		long length = fs.getFileStatus(path).getLen();
+		if (length > Integer.MAX_VALUE) {
+			throw new IOException("dictionary file too large to load:" + path);
+		}
+		byte[] bytes = new byte[(int)length];
+		FSDataInputStream in = fs.open(path);
+		try {
+			in.readFully(bytes);
+		} finally {
+			in.close();
+		}
+		return ByteBuffer.wrap(bytes);
+	}
+	
+	/**
+	 * @return number of IDs
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @param index
+	 * @return string ID
+	 */
+	public String decode(int index) {
+		int start = offsets.getInt(4 * index);
+		int end = offsets.getInt(4 * index + 4);
+		return new String(bytesAt(start, end - start), 0, end - start, UTF8);
+	}
+	
+	/**
+	 * Binary search for the ID, comparing the UTF-8 bytes of the ID with the data file bytes
+	 * @param id
+	 * @return int ID or -1 if not found
+	 */
+	public int encode(String id) {
+		byte[] key = id.getBytes(UTF8);
+		int low = 0;
+		int high = size - 1;
+		int found = -1;
+		while (low <= high && found < 0) {
+			int mid = (low + high) >>> 1;
+			int cmp = compareAt(mid, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				found = mid;
+			}
+		}
+		return found;
+	}
+	
+	/**
+	 * Compares an ID in the dictionary with UTF-8 bytes of another ID, in the same order as String.compareTo 
+	 * used for sorting the IDs
+	 * @param index
+	 * @param key
+	 * @return
+	 */
+	private int compareAt(int index, byte[] key) {
+		int start = offsets.getInt(4 * index);
+		int length = offsets.getInt(4 * index + 4) - start;
+		int common = Math.min(length, key.length);
+		for (int i = 0; i < common; ++i) {
+			int thisByte = data.get(start + i) & 0xff;
+			int thatByte = key[i] & 0xff;
+			if (thisByte != thatByte) {
+				return utf16Weight(thisByte) - utf16Weight(thatByte);
+			}
+		}
+		return length - key.length;
+	}
+	
+	/**
+	 * UTF-8 byte order is code point order. In UTF-16 order supplementary characters, with 4 byte sequences,
+	 * come before characters from U+E000, with lead byte 0xEE and 0xEF
+	 * @param b
+	 * @return
+	 */
+	private static int utf16Weight(int b) {
+		return b >= 0xF0 ? 0xED * 8 + 1 + (b - 0xF0) : b * 8;
+	}
+	
+	/**
+	 * @param start
+	 * @param length
+	 * @return shared buffer with the bytes
+	 */
+	private byte[] bytesAt(int start, int length) {
+		if (buffer.length < length) {
+			buffer = new byte[length];
+		}
+		for (int i = 0; i < length; ++i) {
+			buffer[i] = data.get(start + i);
+		}
+		return buffer;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map with non negative long keys and int values, with linear probing. No boxing
+ * and no entry objects
+ * @author pranab
+ *
+ */
+public class LongIntHashMap {
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	private static final long EMPTY = -1L;
+	private static final float LOAD_FACTOR = 0.6f;
+	
+	public LongIntHashMap() {
+		this(16);
+	}
+	
+	/**
+	 * @param expectedSize
+	 */
+	public LongIntHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+	
+	/**
+	 * @param capacity
+	 */
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		mask = capacity - 1;
+	}
+	
+	/**
+	 * @param key
+	 * @return
+	 */
+	private int slot(long key) {
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+	
+	/**
+	 * @param key non negative
+	 * @param value
+	 */
+	public void put(long key, int value) {
+		if (key < 0) {
+			throw new IllegalArgumentException("negative key");
+		}
+		int slot = slot(key);
+		while (keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		values[slot] = value;
+		if (keys[slot] == EMPTY) {
+			keys[slot] = key;
+			if (++size > LOAD_FACTOR * keys.length) {
+				rehash();
+			}
+		}
+	}
+	
+	/**
+	 * @param key
+	 * @param defaultValue
+	 * @return value or default value if not found
+	 */
+	public int get(long key, int defaultValue) {
+		int slot = slot(key);
+		while (keys[slot] != EMPTY) {
+			if (keys[slot] == key) {
+				return values[slot];
+			}
+			slot = (slot + 1) & mask;
+		}
+		return defaultValue;
+	}
+	
+	/**
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * Doubles capacity
+	 */
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(2 * oldKeys.length);
+		for (int i = 0; i < oldKeys.length; ++i) {
+			if (oldKeys[i] != EMPTY) {
+				int slot = slot(oldKeys[i]);
+				while (keys[slot] != EMPTY) {
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = oldKeys[i];
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+}
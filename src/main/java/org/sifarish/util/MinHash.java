@@ -0,0 +1,121 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.util.Random;
+
+/**
+ * MinHash signature of a set of terms. Uses a family of hash functions of the form
+ * (a * x + b) mod p. Hash functions are generated from a seed, so that signatures
+ * created in different mappers and reducers are consistent
+ * @author pranab
+ *
+ */
+public class MinHash {
+	private int numHashes;
+	private long[] multipliers;
+	private long[] offsets;
+	private static final long PRIME = 2147483647L;
+
+	/**
+	 * @param numHashes
+	 * @param seed
+	 */
+	public MinHash(int numHashes, long seed) {
+		this.numHashes = numHashes;
+		multipliers = new long[numHashes];
+		offsets = new long[numHashes];
+		Random random = new Random(seed);
+		for (int i = 0; i < numHashes; ++i) {
+			multipliers[i] = 1 + random.nextInt(Integer.MAX_VALUE - 1);
+			offsets[i] = random.nextInt(Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * @return
+	 */
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	/**
+	 * Full signature
+	 * @param terms
+	 * @return
+	 */
+	public int[] signature(String[] terms) {
+		return signature(terms, numHashes);
+	}
+
+	/**
+	 * Signature with only the first few hash functions
+	 * @param terms
+	 * @param count number of hash functions to apply
+	 * @return
+	 */
+	public int[] signature(String[] terms, int count) {
+		int[] signature = new int[count];
+		for (int i = 0; i < count; ++i) {
+			signature[i] = Integer.MAX_VALUE;
+		}
+
+		for (String term : terms) {
+			long termHash = term.hashCode() & 0x7fffffff;
+			for (int i = 0; i < count; ++i) {
+				int hash = (int)((multipliers[i] * termHash + offsets[i]) % PRIME);
+				if (hash < signature[i]) {
+					signature[i] = hash;
+				}
+			}
+		}
+		return signature;
+	}
+
+	/**
+	 * Estimated jaccard similarity i.e. fraction of hash functions with the same min hash
+	 * @param signature
+	 * @param otherSignature
+	 * @return
+	 */
+	public static double estimateSimilarity(int[] signature, int[] otherSignature) {
+		int same = 0;
+		for (int i = 0; i < signature.length; ++i) {
+			if (signature[i] == otherSignature[i]) {
+				++same;
+			}
+		}
+		return (double)same / signature.length;
+	}
+
+	/**
+	 * Hash of all the rows of a band of the signature
+	 * @param signature
+	 * @param band
+	 * @param rowsPerBand
+	 * @return
+	 */
+	public static int bandHash(int[] signature, int band, int rowsPerBand) {
+		int hash = 17;
+		int start = band * rowsPerBand;
+		for (int i = start; i < start + rowsPerBand; ++i) {
+			hash = 31 * hash + signature[i];
+		}
+		return hash;
+	}
+}
@@ -0,0 +1,436 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary neighbor index in CSR layout, written by TopMatches in neighbor index mode, with one shard file per 
+ * reducer. Source IDs are assigned to shards with the same hash as the partitioner, i.e. hash of the UTF-8 bytes 
+ * as in Text. Each shard has a header (magic, version, shard count, ID count, neighbor count, distance quantum) 
+ * followed by ID offsets, neighbor offsets by ID, neighbor ID indexes, quantized distances as unsigned 16 bit 
+ * and the UTF-8 bytes of the IDs. IDs are sorted by bytes, so that lookup is a binary search. Shards are 
+ * memory mapped and lookups don't allocate
+ * @author pranab
+ *
+ */
+public class NeighborIndex {
+	private ByteBuffer[] shards;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	public static final int MAGIC = 0x4E424958;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 24;
+	public static final String SHARD_FILE_PREFIX = "shard-";
+	public static final String SHARD_FILE_EXT = ".nbi";
+	
+	/**
+	 * @param shards
+	 */
+	public NeighborIndex(ByteBuffer[] shards) {
+		this.shards = shards;
+	}
+	
+	/**
+	 * Memory maps all shards in a local directory
+	 * @param dir
+	 * @return
+	 * @throws IOException
+	 */
+	public static NeighborIndex map(File dir) throws IOException {
+		ByteBuffer first = mapFile(new File(dir, getShardFileName(0)));
+		checkHeader(first);
+		ByteBuffer[] shards = new ByteBuffer[first.getInt(8)];
+		shards[0] = first;
+		for (int i = 1; i < shards.length; ++i) {
+			shards[i] = mapFile(new File(dir, getShardFileName(i)));
+			checkHeader(shards[i]);
+		}
+		return new NeighborIndex(shards);
+	}
+	
+	/**
+	 * @param shard
+	 * @return
+	 */
+	public static String getShardFileName(int shard) {
+		return String.format("%s%05d%s", SHARD_FILE_PREFIX, shard, SHARD_FILE_EXT);
+	}
+	
+	/**
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	private static ByteBuffer mapFile(File file) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raFile.close();
+		}
+	}
+	
+	/**
+	 * @param shard
+	 * @throws IOException
+	 */
+	private static void checkHeader(ByteBuffer shard) throws IOException {
+		if (shard.getInt(0) != MAGIC || shard.getInt(4) != VERSION) {
+			throw new IOException("not a neighbor index shard or unsupported version");
+		}
+	}
+	
+	/**
+	 * Same as hash code of Text
+	 * @param bytes
+	 * @param length
+	 * @return
+	 */
+	public static int hash(byte[] bytes, int length) {
+		int hash = 1;
+		for (int i = 0; i < length; ++i) {
+			hash = (31 * hash) + (int)bytes[i];
+		}
+		return hash;
+	}
+	
+	/**
+	 * @param hash
+	 * @param shardCount
+	 * @return
+	 */
+	public static int getShard(int hash, int shardCount) {
+		return (hash & Integer.MAX_VALUE) % shardCount;
+	}
+	
+	/**
+	 * Finds neighbors of a source
+	 * @param id
+	 * @param cursor reusable cursor positioned on the neighbors
+	 * @return false if not found
+	 */
+	public boolean find(String id, Cursor cursor) {
+		int length = cursor.encode(id);
+		ByteBuffer shard = shards[getShard(hash(cursor.key, length), shards.length)];
+		int idCount = shard.getInt(12);
+		int neighborCount = shard.getInt(16);
+		int idOffsetBase = HEADER_SIZE;
+		int neighborOffsetBase = idOffsetBase + 4 * (idCount + 1);
+		int neighborBase = neighborOffsetBase + 4 * (idCount + 1);
+		int distanceBase = neighborBase + 4 * neighborCount;
+		int dataBase = distanceBase + 2 * neighborCount;
+		
+		int low = 0;
+		int high = idCount - 1;
+		int found = -1;
+		while (low <= high && found < 0) {
+			int mid = (low + high) >>> 1;
+			int start = shard.getInt(idOffsetBase + 4 * mid);
+			int end = shard.getInt(idOffsetBase + 4 * mid + 4);
+			int cmp = compare(shard, dataBase + start, end - start, cursor.key, length);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				found = mid;
+			}
+		}
+		
+		if (found >= 0) {
+			cursor.shard = shard;
+			cursor.start = shard.getInt(neighborOffsetBase + 4 * found);
+			cursor.size = shard.getInt(neighborOffsetBase + 4 * found + 4) - cursor.start;
+			cursor.idOffsetBase = idOffsetBase;
+			cursor.neighborBase = neighborBase;
+			cursor.distanceBase = distanceBase;
+			cursor.dataBase = dataBase;
+			cursor.quantum = shard.getInt(20);
+		} else {
+			cursor.size = 0;
+		}
+		return found >= 0;
+	}
+	
+	/**
+	 * Unsigned byte comparison
+	 * @param shard
+	 * @param offset
+	 * @param length
+	 * @param key
+	 * @param keyLength
+	 * @return
+	 */
+	private static int compare(ByteBuffer shard, int offset, int length, byte[] key, int keyLength) {
+		int minLength = Math.min(length, keyLength);
+		for (int i = 0; i < minLength; ++i) {
+			int cmp = (shard.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - keyLength;
+	}
+	
+	/**
+	 * Neighbors of a source, best first. Reused across lookups
+	 * @author pranab
+	 *
+	 */
+	public static class Cursor {
+		private byte[] key = new byte[64];
+		private ByteBuffer shard;
+		private int start;
+		private int size;
+		private int idOffsetBase;
+		private int neighborBase;
+		private int distanceBase;
+		private int dataBase;
+		private int quantum;
+		
+		/**
+		 * UTF-8 encoding into the key buffer
+		 * @param id
+		 * @return length
+		 */
+		private int encode(String id) {
+			if (key.length < 4 * id.length()) {
+				key = new byte[4 * id.length()];
+			}
+			int length = 0;
+			for (int i = 0; i < id.length(); ++i) {
+				int c = id.charAt(i);
+				if (Character.isHighSurrogate((char)c) && i + 1 < id.length()) {
+					c = Character.toCodePoint((char)c, id.charAt(++i));
+				}
+				if (c < 0x80) {
+					key[length++] = (byte)c;
+				} else if (c < 0x800) {
+					key[length++] = (byte)(0xc0 | (c >> 6));
+					key[length++] = (byte)(0x80 | (c & 0x3f));
+				} else if (c < 0x10000) {
+					key[length++] = (byte)(0xe0 | (c >> 12));
+					key[length++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+					key[length++] = (byte)(0x80 | (c & 0x3f));
+				} else {
+					key[length++] = (byte)(0xf0 | (c >> 18));
+					key[length++] = (byte)(0x80 | ((c >> 12) & 0x3f));
+					key[length++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+					key[length++] = (byte)(0x80 | (c & 0x3f));
+				}
+			}
+			return length;
+		}
+		
+		/**
+		 * @return number of neighbors
+		 */
+		public int size() {
+			return size;
+		}
+		
+		/**
+		 * @param i
+		 * @return distance, to the precision of the quantum
+		 */
+		public int getDistance(int i) {
+			return (shard.getShort(distanceBase + 2 * (start + i)) & 0xffff) * quantum;
+		}
+		
+		/**
+		 * Copies UTF-8 bytes of a neighbor ID
+		 * @param i
+		 * @param buffer
+		 * @return length, or the negative of the required length if the buffer is too small
+		 */
+		public int getNeighborId(int i, byte[] buffer) {
+			int index = shard.getInt(neighborBase + 4 * (start + i));
+			int begin = shard.getInt(idOffsetBase + 4 * index);
+			int length = shard.getInt(idOffsetBase + 4 * index + 4) - begin;
+			if (length > buffer.length) {
+				return -length;
+			}
+			for (int b = 0; b < length; ++b) {
+				buffer[b] = shard.get(dataBase + begin + b);
+			}
+			return length;
+		}
+		
+		/**
+		 * @param i
+		 * @return neighbor ID
+		 */
+		public String getNeighborId(int i) {
+			byte[] buffer = new byte[64];
+			int length = getNeighborId(i, buffer);
+			if (length < 0) {
+				buffer = new byte[-length];
+				length = getNeighborId(i, buffer);
+			}
+			return new String(buffer, 0, length, UTF8);
+		}
+	}
+	
+	/**
+	 * Builds a shard. Neighbors are added grouped by source, best first
+	 * @author pranab
+	 *
+	 */
+	public static class Builder {
+		private List<String> sources = new ArrayList<String>();
+		private List<Integer> sourceStarts = new ArrayList<Integer>();
+		private Map<String, Integer> ids = new HashMap<String, Integer>();
+		private List<byte[]> idBytes = new ArrayList<byte[]>();
+		private int[] neighbors = new int[1024];
+		private int[] distances = new int[1024];
+		private int neighborCount;
+		private int quantum;
+		
+		/**
+		 * @param quantum distances are divided by it and capped at 65535 
+		 */
+		public Builder(int quantum) {
+			this.quantum = quantum;
+		}
+		
+		/**
+		 * @param sourceId
+		 * @param neighborId
+		 * @param distance
+		 */
+		public void add(String sourceId, String neighborId, int distance) {
+			if (sources.isEmpty() || !sources.get(sources.size() - 1).equals(sourceId)) {
+				getIdIndex(sourceId);
+				sources.add(sourceId);
+				sourceStarts.add(neighborCount);
+			}
+			if (neighborCount == neighbors.length) {
+				neighbors = Arrays.copyOf(neighbors, 2 * neighborCount);
+				distances = Arrays.copyOf(distances, 2 * neighborCount);
+			}
+			neighbors[neighborCount] = getIdIndex(neighborId);
+			distances[neighborCount] = Math.min(Math.max(distance, 0) / quantum, 0xffff);
+			++neighborCount;
+		}
+		
+		/**
+		 * @param id
+		 * @return
+		 */
+		private int getIdIndex(String id) {
+			Integer index = ids.get(id);
+			if (null == index) {
+				index = idBytes.size();
+				ids.put(id, index);
+				idBytes.add(id.getBytes(UTF8));
+			}
+			return index;
+		}
+		
+		/**
+		 * @param output
+		 * @param shardCount
+		 * @throws IOException
+		 */
+		public void write(OutputStream output, int shardCount) throws IOException {
+			//sort IDs by bytes
+			int idCount = idBytes.size();
+			Integer[] order = new Integer[idCount];
+			for (int i = 0; i < idCount; ++i) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer first, Integer second) {
+					byte[] one = idBytes.get(first);
+					byte[] two = idBytes.get(second);
+					int minLength = Math.min(one.length, two.length);
+					for (int i = 0; i < minLength; ++i) {
+						int cmp = (one[i] & 0xff) - (two[i] & 0xff);
+						if (cmp != 0) {
+							return cmp;
+						}
+					}
+					return one.length - two.length;
+				}
+			});
+			int[] rank = new int[idCount];
+			for (int i = 0; i < idCount; ++i) {
+				rank[order[i]] = i;
+			}
+			
+			//neighbor range of each ID in sorted order, empty for IDs that are only neighbors
+			int[] rangeStart = new int[idCount];
+			int[] rangeEnd = new int[idCount];
+			for (int s = 0; s < sources.size(); ++s) {
+				int id = rank[ids.get(sources.get(s))];
+				rangeStart[id] = sourceStarts.get(s);
+				rangeEnd[id] = s + 1 < sources.size() ? sourceStarts.get(s + 1) : neighborCount;
+			}
+			
+			//neighbors laid out in sorted source order
+			DataOutputStream out = new DataOutputStream(output);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(shardCount);
+			out.writeInt(idCount);
+			out.writeInt(neighborCount);
+			out.writeInt(quantum);
+			int offset = 0;
+			for (int i = 0; i < idCount; ++i) {
+				out.writeInt(offset);
+				offset += idBytes.get(order[i]).length;
+			}
+			out.writeInt(offset);
+			offset = 0;
+			for (int i = 0; i < idCount; ++i) {
+				out.writeInt(offset);
+				offset += rangeEnd[i] - rangeStart[i];
+			}
+			out.writeInt(offset);
+			for (int i = 0; i < idCount; ++i) {
+				for (int n = rangeStart[i]; n < rangeEnd[i]; ++n) {
+					out.writeInt(rank[neighbors[n]]);
+				}
+			}
+			for (int i = 0; i < idCount; ++i) {
+				for (int n = rangeStart[i]; n < rangeEnd[i]; ++n) {
+					out.writeShort(distances[n]);
+				}
+			}
+			for (int i = 0; i < idCount; ++i) {
+				out.write(idBytes.get(order[i]));
+			}
+			out.flush();
+		}
+	}
+}
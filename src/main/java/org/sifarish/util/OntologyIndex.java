@@ -0,0 +1,391 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ontology graph compiled into the closure of each node, i.e. all nodes reachable from it with the BFS depth.
+ * Named nodes are sorted by URI bytes and come first, so that lookup is a binary search, followed by blank 
+ * nodes. The file has a header (magic, version, node count, named node count, closure entry count) followed 
+ * by URI offsets, closure offsets and context offsets by node, closure entries as (node, depth) sorted by node, 
+ * the UTF-8 bytes of the URIs and of the contexts. Context is the description of the node reported with
+ * a match. Distance between two nodes is the min over common reachable nodes of the sum of depths, found by a 
+ * merge of the two closures
+ * @author pranab
+ *
+ */
+public class OntologyIndex {
+	private ByteBuffer buffer;
+	private int nodeCount;
+	private int namedCount;
+	private int uriOffsetBase;
+	private int closureOffsetBase;
+	private int contextOffsetBase;
+	private int closureBase;
+	private int uriBase;
+	private int contextBase;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	public static final int MAGIC = 0x4F4E5458;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 20;
+	
+	/**
+	 * @param buffer
+	 * @throws IOException
+	 */
+	public OntologyIndex(ByteBuffer buffer) throws IOException {
+		this.buffer = buffer;
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException("not an ontology index or unsupported version");
+		}
+		nodeCount = buffer.getInt(8);
+		namedCount = buffer.getInt(12);
+		int closureSize = buffer.getInt(16);
+		uriOffsetBase = HEADER_SIZE;
+		closureOffsetBase = uriOffsetBase + 4 * (namedCount + 1);
+		contextOffsetBase = closureOffsetBase + 4 * (nodeCount + 1);
+		closureBase = contextOffsetBase + 4 * (nodeCount + 1);
+		uriBase = closureBase + 8 * closureSize;
+		contextBase = uriBase + buffer.getInt(uriOffsetBase + 4 * namedCount);
+	}
+	
+	/**
+	 * Memory maps a local index file
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static OntologyIndex map(File file) throws IOException {
+		RandomAccessFile raFile = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raFile.getChannel();
+			return new OntologyIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		} finally {
+			raFile.close();
+		}
+	}
+	
+	/**
+	 * Reads index into memory e.g. from HDFS
+	 * @param input
+	 * @param length
+	 * @return
+	 * @throws IOException
+	 */
+	public static OntologyIndex read(InputStream input, int length) throws IOException {
+		byte[] bytes = new byte[length];
+		new DataInputStream(input).readFully(bytes);
+		return new OntologyIndex(ByteBuffer.wrap(bytes));
+	}
+	
+	/**
+	 * @return
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+	
+	/**
+	 * @param uri
+	 * @return node ID or -1 if not found
+	 */
+	public int getNodeId(String uri) {
+		byte[] key = uri.getBytes(UTF8);
+		int low = 0;
+		int high = namedCount - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int start = buffer.getInt(uriOffsetBase + 4 * mid);
+			int end = buffer.getInt(uriOffsetBase + 4 * mid + 4);
+			int cmp = compare(uriBase + start, end - start, key);
+			if (cmp < 0) {
+				low = mid + 1;
+			} else if (cmp > 0) {
+				high = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Unsigned byte comparison
+	 * @param offset
+	 * @param length
+	 * @param key
+	 * @return
+	 */
+	private int compare(int offset, int length, byte[] key) {
+		int minLength = Math.min(length, key.length);
+		for (int i = 0; i < minLength; ++i) {
+			int cmp = (buffer.get(offset + i) & 0xff) - (key[i] & 0xff);
+			if (cmp != 0) {
+				return cmp;
+			}
+		}
+		return length - key.length;
+	}
+	
+	/**
+	 * Min distance common node of two nodes
+	 * @param first
+	 * @param second
+	 * @return encoded as distance in upper 32 bits and node in lower 32 bits, -1 if none
+	 */
+	public long findCommonNode(int first, int second) {
+		int i = buffer.getInt(closureOffsetBase + 4 * first);
+		int iEnd = buffer.getInt(closureOffsetBase + 4 * first + 4);
+		int j = buffer.getInt(closureOffsetBase + 4 * second);
+		int jEnd = buffer.getInt(closureOffsetBase + 4 * second + 4);
+		int minDistance = Integer.MAX_VALUE;
+		int commonNode = -1;
+		while (i < iEnd && j < jEnd) {
+			int firstNode = buffer.getInt(closureBase + 8 * i);
+			int secondNode = buffer.getInt(closureBase + 8 * j);
+			if (firstNode < secondNode) {
+				++i;
+			} else if (firstNode > secondNode) {
+				++j;
+			} else {
+				int distance = buffer.getInt(closureBase + 8 * i + 4) + buffer.getInt(closureBase + 8 * j + 4);
+				if (distance < minDistance) {
+					minDistance = distance;
+					commonNode = firstNode;
+				}
+				++i;
+				++j;
+			}
+		}
+		return commonNode >= 0 ? ((long)minDistance << 32) | commonNode : -1;
+	}
+	
+	/**
+	 * @param node
+	 * @return description of the node
+	 */
+	public String getContext(int node) {
+		int start = buffer.getInt(contextOffsetBase + 4 * node);
+		int end = buffer.getInt(contextOffsetBase + 4 * node + 4);
+		byte[] bytes = new byte[end - start];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = buffer.get(contextBase + start + i);
+		}
+		return new String(bytes, UTF8);
+	}
+	
+	/**
+	 * Builds the index from the edges of the graph
+	 * @author pranab
+	 *
+	 */
+	public static class Builder {
+		private Map<String, Integer> nodes = new HashMap<String, Integer>();
+		private List<String> keys = new ArrayList<String>();
+		private List<Boolean> named = new ArrayList<Boolean>();
+		private List<String> contexts = new ArrayList<String>();
+		private List<int[]> edges = new ArrayList<int[]>();
+		private int[] edgeCounts = new int[16];
+		
+		/**
+		 * @param key URI for named nodes, any unique ID for blank nodes
+		 * @param isNamed
+		 * @return
+		 */
+		public int addNode(String key, boolean isNamed) {
+			Integer node = nodes.get(key);
+			if (null == node) {
+				node = keys.size();
+				nodes.put(key, node);
+				keys.add(key);
+				named.add(isNamed);
+				contexts.add("");
+				if (node == edgeCounts.length) {
+					edgeCounts = Arrays.copyOf(edgeCounts, 2 * node);
+				}
+			}
+			return node;
+		}
+		
+		/**
+		 * @return
+		 */
+		public int getNodeCount() {
+			return keys.size();
+		}
+		
+		/**
+		 * @param node
+		 * @param context
+		 */
+		public void setContext(int node, String context) {
+			contexts.set(node, context);
+		}
+		
+		/**
+		 * @param from
+		 * @param to
+		 */
+		public void addEdge(int from, int to) {
+			edges.add(new int[]{from, to});
+			++edgeCounts[from];
+		}
+		
+		/**
+		 * @param output
+		 * @throws IOException
+		 */
+		public void write(OutputStream output) throws IOException {
+			int nodeCount = keys.size();
+			
+			//named nodes first sorted by bytes, then blank nodes
+			final byte[][] uriBytes = new byte[nodeCount][];
+			Integer[] order = new Integer[nodeCount];
+			int namedCount = 0;
+			for (int i = 0; i < nodeCount; ++i) {
+				order[i] = i;
+				if (named.get(i)) {
+					uriBytes[i] = keys.get(i).getBytes(UTF8);
+					++namedCount;
+				}
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer first, Integer second) {
+					byte[] one = uriBytes[first];
+					byte[] two = uriBytes[second];
+					if (null == one || null == two) {
+						return null == one ? (null == two ? first - second : 1) : -1;
+					}
+					int minLength = Math.min(one.length, two.length);
+					for (int i = 0; i < minLength; ++i) {
+						int cmp = (one[i] & 0xff) - (two[i] & 0xff);
+						if (cmp != 0) {
+							return cmp;
+						}
+					}
+					return one.length - two.length;
+				}
+			});
+			int[] rank = new int[nodeCount];
+			for (int i = 0; i < nodeCount; ++i) {
+				rank[order[i]] = i;
+			}
+			
+			//adjacency in new node order
+			int[][] adjacency = new int[nodeCount][];
+			int[] fill = new int[nodeCount];
+			for (int i = 0; i < nodeCount; ++i) {
+				adjacency[rank[i]] = new int[edgeCounts[i]];
+			}
+			for (int[] edge : edges) {
+				int from = rank[edge[0]];
+				adjacency[from][fill[from]++] = rank[edge[1]];
+			}
+			
+			//BFS from each node
+			List<long[]> closures = new ArrayList<long[]>(nodeCount);
+			int[] depths = new int[nodeCount];
+			Arrays.fill(depths, -1);
+			int[] queue = new int[nodeCount];
+			int closureSize = 0;
+			for (int n = 0; n < nodeCount; ++n) {
+				int head = 0;
+				int tail = 0;
+				queue[tail++] = n;
+				depths[n] = 0;
+				while (head < tail) {
+					int node = queue[head++];
+					for (int next : adjacency[node]) {
+						if (depths[next] < 0) {
+							depths[next] = depths[node] + 1;
+							queue[tail++] = next;
+						}
+					}
+				}
+				long[] closure = new long[tail];
+				for (int i = 0; i < tail; ++i) {
+					closure[i] = ((long)queue[i] << 32) | depths[queue[i]];
+					depths[queue[i]] = -1;
+				}
+				Arrays.sort(closure);
+				closures.add(closure);
+				closureSize += tail;
+			}
+			
+			byte[][] contextBytes = new byte[nodeCount][];
+			for (int i = 0; i < nodeCount; ++i) {
+				contextBytes[rank[i]] = contexts.get(i).getBytes(UTF8);
+			}
+			
+			DataOutputStream out = new DataOutputStream(output);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nodeCount);
+			out.writeInt(namedCount);
+			out.writeInt(closureSize);
+			int offset = 0;
+			for (int i = 0; i < namedCount; ++i) {
+				out.writeInt(offset);
+				offset += uriBytes[order[i]].length;
+			}
+			out.writeInt(offset);
+			offset = 0;
+			for (long[] closure : closures) {
+				out.writeInt(offset);
+				offset += closure.length;
+			}
+			out.writeInt(offset);
+			offset = 0;
+			for (int i = 0; i < nodeCount; ++i) {
+				out.writeInt(offset);
+				offset += contextBytes[i].length;
+			}
+			out.writeInt(offset);
+			for (long[] closure : closures) {
+				for (long entry : closure) {
+					out.writeInt((int)(entry >>> 32));
+					out.writeInt((int)entry);
+				}
+			}
+			for (int i = 0; i < namedCount; ++i) {
+				out.write(uriBytes[order[i]]);
+			}
+			for (int i = 0; i < nodeCount; ++i) {
+				out.write(contextBytes[i]);
+			}
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Sifarish: Recommendation Engine
+ * Author: Pranab Ghosh
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you
+ * may not use this file except in compliance with the License. You may
+ * obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+
+package org.sifarish.util;
+
+/**
+ * 64 bit SimHash (signed random projection) signature of a weighted term vector. Each term
+ * is hashed to 64 pseudo random +1/-1 components, which are summed up weighted by the term
+ * count. Signature bit is set when the sum is positive. Hamming distance between signatures
+ * approximates the angle between the vectors.
+ * @author pranab
+ *
+ */
+public class SimHash {
+	private long seed;
+	private int[] bitSums = new int[SIGNATURE_SIZE];
+	public static final int SIGNATURE_SIZE = 64;
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	/**
+	 * @param seed
+	 */
+	public SimHash(long seed) {
+		this.seed = seed;
+	}
+	
+	/**
+	 * @param terms
+	 * @param weights
+	 * @return
+	 */
+	public long signature(String[] terms, int[] weights) {
+		for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+			bitSums[i] = 0;
+		}
+		
+		for (int t = 0; t < terms.length; ++t) {
+			long termHash = termHash(terms[t]);
+			for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+				if (((termHash >>> i) & 1L) == 1L) {
+					bitSums[i] += weights[t];
+				} else {
+					bitSums[i] -= weights[t];
+				}
+			}
+		}
+		
+		long signature = 0;
+		for (int i = 0; i < SIGNATURE_SIZE; ++i) {
+			if (bitSums[i] > 0) {
+				signature |= 1L << i;
+			}
+		}
+		return signature;
+	}
+	
+	/**
+	 * FNV-1a hash of the term, mixed with the seed
+	 * @param term
+	 * @return
+	 */
+	private long termHash(String term) {
+		long hash = FNV_OFFSET ^ seed;
+		for (int i = 0; i < term.length(); ++i) {
+			hash ^= term.charAt(i);
+			hash *= FNV_PRIME;
+		}
+		
+		//final avalanche so that all bits depend on all characters
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+	
+	/**
+	 * @param first
+	 * @param second
+	 * @return
+	 */
+	public static int hammingDistance(long first, long second) {
+		return Long.bitCount(first ^ second);
+	}
+	
+	/**
+	 * Value of a block of bits, when the signature is split into contiguous blocks. The last 
+	 * block absorbs the remainder bits. Returned value is folded into an int.
+	 * @param signature
+	 * @param block
+	 * @param numBlocks
+	 * @return
+	 */
+	public static int blockValue(long signature, int block, int numBlocks) {
+		int width = SIGNATURE_SIZE / numBlocks;
+		int start = block * width;
+		int end = block == numBlocks - 1 ? SIGNATURE_SIZE : start + width;
+		long value = signature >>> start;
+		if (end - start < SIGNATURE_SIZE) {
+			value &= (1L << (end - start)) - 1;
+		}
+		return (int)(value ^ (value >>> 32));
+	}
+}